@@ -0,0 +1,103 @@
+import group.gnometrading.websockets.BulkConnector;
+import group.gnometrading.websockets.WebSocketClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how long it takes to bring up a few hundred clients against a local server, and how long a
+ * reconnect storm (every client dropping and reconnecting at once) takes, for a few levels of parallelism.
+ */
+class ConnectBenchmark {
+    private static final int NUM_CLIENTS = 200;
+    private static final int[] PARALLELISM = {1, 8, 32, 128};
+
+    public static void main(String[] args) throws Exception {
+        try (Server server = new Server()) {
+            URI uri = URI.create("ws://localhost:" + server.port());
+
+            for (int parallelism : PARALLELISM) {
+                List<WebSocketClient> clients = new ArrayList<>();
+                for (int i = 0; i < NUM_CLIENTS; i++) {
+                    clients.add(new WebSocketClient.Builder()
+                            .withURI(uri)
+                            .withConnectTimeoutInMillis(5_000)
+                            .build());
+                }
+
+                long start = System.nanoTime();
+                Map<WebSocketClient, Exception> failures = BulkConnector.connectAll(clients, parallelism);
+                long startup = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                failures.putAll(BulkConnector.reconnectAll(clients, parallelism));
+                long storm = System.nanoTime() - start;
+
+                System.out.printf("parallelism=%-4d startup=%.1fms reconnect storm=%.1fms failures=%d%n",
+                        parallelism, startup / 1e6, storm / 1e6, failures.size());
+
+                for (WebSocketClient client : clients) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the handshake on every connection and then waits for the client to hang up.
+     */
+    private static class Server implements AutoCloseable {
+        private final ServerSocket serverSocket;
+
+        Server() throws IOException {
+            this.serverSocket = new ServerSocket(0, 4096);
+            Thread thread = new Thread(this::serve);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread = new Thread(() -> handle(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private static void handle(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                int matched = 0, b;
+                while (matched < 4 && (b = in.read()) != -1) {
+                    matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : 0;
+                }
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes());
+                while (in.read() != -1);
+            } catch (IOException ignored) {}
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
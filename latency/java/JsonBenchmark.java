@@ -0,0 +1,120 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import group.gnometrading.websockets.codec.json.JsonPath;
+import group.gnometrading.websockets.codec.json.JsonScanner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH suite pulling the sequence number and every price level out of a depth update, the way a book builder
+ * would. Compares {@link JsonScanner} against Jackson's tree model and Jackson's streaming parser.
+ * Needs jmh-core, jmh-generator-annprocess and jackson-databind on the classpath. Run with
+ * {@code -prof gc} to see the allocation rate, which is the real difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    private static final JsonPath SEQUENCE = JsonPath.compile("u");
+    private static final JsonPath BIDS = JsonPath.compile("b");
+    private static final JsonPath ASKS = JsonPath.compile("a");
+
+    @Param({"5", "20"})
+    public int levels;
+
+    private ByteBuffer payload;
+    private final JsonScanner scanner = new JsonScanner();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = new JsonFactory();
+
+    @Setup
+    public void setup() {
+        StringBuilder json = new StringBuilder("{\"e\":\"depthUpdate\",\"E\":1700000000000,\"s\":\"BTCUSDT\",\"U\":157,\"u\":160,");
+        appendLevels(json.append("\"b\":"), 26_000.0, -0.5);
+        appendLevels(json.append(",\"a\":"), 26_000.5, 0.5);
+        payload = ByteBuffer.wrap(json.append('}').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendLevels(StringBuilder json, double price, double step) {
+        json.append('[');
+        for (int i = 0; i < levels; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("[\"").append(price + i * step).append("\",\"").append(0.125 * (i + 1)).append("\"]");
+        }
+        json.append(']');
+    }
+
+    @Benchmark
+    public long scanner() {
+        long sum = 0;
+        if (scanner.wrap(payload).find(SEQUENCE)) {
+            sum += scanner.parseLong();
+        }
+        sum += scanLevels(BIDS) + scanLevels(ASKS);
+        return sum;
+    }
+
+    private long scanLevels(JsonPath path) {
+        long sum = 0;
+        if (scanner.rewind().find(path)) {
+            while (scanner.next() == group.gnometrading.websockets.codec.json.JsonToken.START_ARRAY) {
+                scanner.next();
+                sum += scanner.parseDecimal(8);
+                scanner.next();
+                sum += scanner.parseDecimal(8);
+                scanner.next();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double jacksonTree() throws IOException {
+        JsonNode root = mapper.readTree(payload.array(), payload.position(), payload.remaining());
+        double sum = root.get("u").asLong();
+        for (JsonNode level : root.get("b")) {
+            sum += Double.parseDouble(level.get(0).asText()) + Double.parseDouble(level.get(1).asText());
+        }
+        for (JsonNode level : root.get("a")) {
+            sum += Double.parseDouble(level.get(0).asText()) + Double.parseDouble(level.get(1).asText());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void jacksonStreaming(Blackhole blackhole) throws IOException {
+        try (JsonParser parser = factory.createParser(payload.array(), payload.position(), payload.remaining())) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals("u")) {
+                    blackhole.consume(parser.getLongValue());
+                } else if (name.equals("b") || name.equals("a")) {
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        parser.nextToken();
+                        blackhole.consume(Double.parseDouble(parser.getText()));
+                        parser.nextToken();
+                        blackhole.consume(Double.parseDouble(parser.getText()));
+                        parser.nextToken();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+}
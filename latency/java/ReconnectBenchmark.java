@@ -0,0 +1,117 @@
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+
+/**
+ * Measures the time from dropping a connection to the first data frame on the new one, against a local server
+ * which only starts sending once it's seen the client's subscription. Compares reconnect(), which keeps the
+ * threads and sends the subscription from a preallocated slot, against close() then connect().
+ */
+class ReconnectBenchmark {
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        try (Server server = new Server()) {
+            URI uri = URI.create("ws://localhost:" + server.port());
+            run("reconnect()", uri, true);
+            run("close() + connect()", uri, false);
+        }
+    }
+
+    private static void run(String name, URI uri, boolean reconnect) throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(uri)
+                .withTcpNoDelay(true)
+                .withOnConnectMessage("{\"op\":\"subscribe\",\"args\":[\"trades.BTCUSD\"]}")
+                .build()) {
+            client.connect();
+            client.poll();
+
+            for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+                long start = System.nanoTime();
+                if (reconnect) {
+                    client.reconnect();
+                } else {
+                    client.close();
+                    client.connect();
+                }
+                client.poll();
+                if (i >= WARMUP) {
+                    histogram.record(System.nanoTime() - start);
+                }
+            }
+        }
+        System.out.printf("%-20s p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n", name,
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+    }
+
+    /**
+     * Completes the handshake, waits for the client's first frame, then sends a trade.
+     */
+    private static class Server implements AutoCloseable {
+        private final ServerSocket serverSocket;
+
+        Server() throws IOException {
+            this.serverSocket = new ServerSocket(0, 4096);
+            Thread thread = new Thread(this::serve);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread = new Thread(() -> handle(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private static void handle(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                int matched = 0, b;
+                while (matched < 4 && (b = in.read()) != -1) {
+                    matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : 0;
+                }
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes());
+
+                // The subscription: a short masked frame
+                in.read();
+                int length = in.read() & 0x7F;
+                in.readNBytes(4 + length);
+
+                byte[] trade = "{\"p\":\"64000.5\",\"q\":\"0.01\"}".getBytes();
+                out.write(0x81);
+                out.write(trade.length);
+                out.write(trade);
+                while (in.read() != -1);
+            } catch (IOException ignored) {}
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How many connections and messages per second one box takes. An embedded server pushes a mix of payload sizes
+ * (a quarter of them masked) down 1, 2, 4... N connections at a fixed rate per connection, and each threading
+ * model reads them:
+ * <ul>
+ *     <li>thread-per-connection: a thread blocking in poll() for every client</li>
+ *     <li>single-thread: one thread going round every client with tryPoll()</li>
+ * </ul>
+ * Every payload starts with the server's System.nanoTime() when it was sent, so latency is send to poll()
+ * returning, queueing in the socket included. CPU is the poll threads' only, the server runs in the same JVM. The
+ * single thread spins on tryPoll(), so at low rates its CPU per message mostly measures the spinning.
+ * <p />
+ * Results are appended to a CSV, one row per model and connection count, so runs against different releases
+ * can be compared. Doesn't need any extra dependencies, just the client on the classpath:
+ * <pre>
+ * java ThroughputBenchmark [maxConnections=8] [ratePerConnection=50000, 0 for flat out] [seconds=5] [csv=throughput.csv] [label=dev]
+ * </pre>
+ */
+class ThroughputBenchmark {
+    private static final int[] SIZES = {32, 128, 512, 2048};
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    public static void main(String[] args) throws Exception {
+        int maxConnections = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long rate = args.length > 1 ? Long.parseLong(args[1]) : 50_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        Path csv = Path.of(args.length > 3 ? args[3] : "throughput.csv");
+        String label = args.length > 4 ? args[4] : "dev";
+
+        boolean header = !Files.exists(csv);
+        try (Server server = new Server(rate);
+             PrintWriter out = new PrintWriter(new FileWriter(csv.toFile(), true))) {
+            if (header) {
+                out.println("label,model,connections,rate_per_connection,messages,messages_per_sec,cpu_ns_per_message,p50_us,p99_us,p999_us,max_us");
+            }
+            URI uri = URI.create("ws://localhost:" + server.port());
+            for (Model model : Model.values()) {
+                for (int connections = 1; connections <= maxConnections; connections <<= 1) {
+                    Result result = run(model, uri, connections, seconds);
+                    String row = String.format("%s,%s,%d,%d,%d,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f", label, model.name, connections,
+                            rate, result.messages, result.messages / (double) seconds, result.cpuNanos / (double) Math.max(1, result.messages),
+                            result.p50 / 1e3, result.p99 / 1e3, result.p999 / 1e3, result.max / 1e3);
+                    System.out.println(row);
+                    out.println(row);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private enum Model {
+        THREAD_PER_CONNECTION("thread-per-connection"), SINGLE_THREAD("single-thread");
+
+        final String name;
+
+        Model(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Result {
+        long messages, cpuNanos, p50, p99, p999, max;
+    }
+
+    /**
+     * What a poll thread records. Each is only written by its own thread.
+     */
+    private static class Recorder {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long messages;
+        volatile boolean measuring;
+
+        void onPayload(ByteBuffer payload) {
+            if (payload.remaining() >= Long.BYTES && this.measuring) {
+                this.histogram.record(System.nanoTime() - payload.getLong(payload.position()));
+                this.messages++;
+            }
+        }
+    }
+
+    private static Result run(Model model, URI uri, int connections, int seconds) throws Exception {
+        List<WebSocketClient> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            WebSocketClient client = new WebSocketClient.Builder()
+                    .withURI(uri)
+                    .withTcpNoDelay(true)
+                    .withReceiveBufferSize(1 << 20)
+                    .build();
+            client.connect();
+            clients.add(client);
+        }
+
+        List<Recorder> recorders = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        if (model == Model.THREAD_PER_CONNECTION) {
+            for (WebSocketClient client : clients) {
+                Recorder recorder = new Recorder();
+                recorders.add(recorder);
+                threads.add(new Thread(() -> {
+                    try {
+                        while (client.getSocketState() == SocketState.OPEN) {
+                            recorder.onPayload(client.poll());
+                        }
+                    } catch (IOException | RuntimeException ignored) {} // Closed underneath us at the end
+                }));
+            }
+        } else {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            threads.add(new Thread(() -> {
+                try {
+                    while (clients.get(0).getSocketState() == SocketState.OPEN) {
+                        for (WebSocketClient client : clients) {
+                            recorder.onPayload(client.tryPoll());
+                        }
+                    }
+                } catch (IOException | RuntimeException ignored) {}
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(WARMUP_NANOS));
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long cpuStart = 0;
+        for (Thread thread : threads) {
+            cpuStart += mx.getThreadCpuTime(thread.getId());
+        }
+        recorders.forEach(recorder -> recorder.measuring = true);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        recorders.forEach(recorder -> recorder.measuring = false);
+        long cpuEnd = 0;
+        for (Thread thread : threads) {
+            cpuEnd += mx.getThreadCpuTime(thread.getId());
+        }
+
+        for (WebSocketClient client : clients) {
+            client.close();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // The tail is the worst connection's (or thread's) tail
+        Result result = new Result();
+        result.cpuNanos = cpuEnd - cpuStart;
+        for (Recorder recorder : recorders) {
+            result.messages += recorder.messages;
+            result.p50 = Math.max(result.p50, recorder.histogram.getValueAtPercentile(50));
+            result.p99 = Math.max(result.p99, recorder.histogram.getValueAtPercentile(99));
+            result.p999 = Math.max(result.p999, recorder.histogram.getValueAtPercentile(99.9));
+            result.max = Math.max(result.max, recorder.histogram.getMax());
+        }
+        return result;
+    }
+
+    /**
+     * Completes the handshake on every connection, then sends frames at `rate` per second (or flat out) until the
+     * client hangs up. Frames are built from templates with the send time written over the first 8 bytes.
+     */
+    private static class Server implements AutoCloseable {
+        private static final int MASKING_KEY = 0x1F2E3D4C;
+        private static final long BATCH_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+        private final ServerSocket serverSocket;
+        private final long rate;
+        private final byte[][] templates;
+        private final int[] stampOffsets;
+        private final boolean[] masked;
+        private final AtomicLong connections = new AtomicLong();
+
+        Server(long rate) throws IOException {
+            this.rate = rate;
+            this.serverSocket = new ServerSocket(0, 4096);
+            this.templates = new byte[SIZES.length * 4][];
+            this.stampOffsets = new int[this.templates.length];
+            this.masked = new boolean[this.templates.length];
+            for (int i = 0; i < this.templates.length; i++) {
+                // Every fourth frame masked, sizes in rotation
+                this.masked[i] = i % 4 == 3;
+                int size = SIZES[i % SIZES.length];
+                int header = (size < 126 ? 2 : 4) + (this.masked[i] ? 4 : 0);
+                ByteBuffer frame = ByteBuffer.allocate(header + size);
+                frame.put((byte) 0x82);
+                int mask = this.masked[i] ? 0x80 : 0;
+                if (size < 126) {
+                    frame.put((byte) (mask | size));
+                } else {
+                    frame.put((byte) (mask | 126)).putShort((short) size);
+                }
+                if (this.masked[i]) {
+                    frame.putInt(MASKING_KEY);
+                }
+                this.stampOffsets[i] = frame.position();
+                this.templates[i] = frame.array();
+            }
+
+            Thread thread = new Thread(this::serve);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread = new Thread(() -> handle(socket), "server-" + connections.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                socket.setSendBufferSize(1 << 20);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                int matched = 0, b;
+                while (matched < 4 && (b = in.read()) != -1) {
+                    matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : 0;
+                }
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes());
+
+                ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+                long start = System.nanoTime(), sent = 0;
+                int next = 0;
+                while (true) {
+                    long due = this.rate == 0 ? Long.MAX_VALUE : (System.nanoTime() - start) * this.rate / 1_000_000_000L;
+                    batch.clear();
+                    while (sent < due && batch.remaining() >= this.templates[next].length) {
+                        stamp(batch, next, System.nanoTime());
+                        next = (next + 1) % this.templates.length;
+                        sent++;
+                    }
+                    if (batch.position() > 0) {
+                        out.write(batch.array(), 0, batch.position());
+                    } else {
+                        LockSupport.parkNanos(BATCH_NANOS);
+                    }
+                }
+            } catch (IOException ignored) {} // The client hung up
+        }
+
+        private void stamp(ByteBuffer batch, int template, long nanos) {
+            int frame = batch.position();
+            batch.put(this.templates[template]);
+            int offset = frame + this.stampOffsets[template];
+            batch.putLong(offset, nanos);
+            if (this.masked[template]) {
+                // The client unmasks with the key's low byte first
+                for (int i = 0; i < Long.BYTES; i++) {
+                    batch.put(offset + i, (byte) (batch.get(offset + i) ^ (MASKING_KEY >>> ((i & 3) << 3))));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.tls.SSLEngineSocketFactory;
+import group.gnometrading.websockets.tls.TlsSessionCache;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyStore;
+
+/**
+ * Compares the JDK's SSLSocket against the SSLEngine based socket on a local TLS server with a throwaway
+ * self-signed certificate (generated with keytool, which ships with the JDK). Reports:
+ * <ul>
+ *     <li>connect time (TCP + TLS + WebSocket handshake) for the first connection and for reconnects</li>
+ *     <li>decrypt throughput reading fixed size frames through poll()</li>
+ * </ul>
+ */
+class TlsBenchmark {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final int RECONNECTS = 200;
+    private static final int NUM_FRAMES = 500_000;
+    private static final int PAYLOAD_SIZE = 1024;
+
+    public static void main(String[] args) throws Exception {
+        KeyStore keyStore = selfSignedKeyStore();
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+
+        try (Server server = new Server(serverContext)) {
+            URI idle = URI.create("wss://localhost:" + server.port() + "/idle");
+            URI stream = URI.create("wss://localhost:" + server.port() + "/stream");
+
+            for (int round = 0; round < 3; round++) { // First rounds are warm up, look at the last one
+                System.out.println("Round " + round);
+                run("SSLSocket", clientContext(keyStore).getSocketFactory(), idle, stream);
+                TlsSessionCache cache = new TlsSessionCache(clientContext(keyStore));
+                run("SSLEngine", new SSLEngineSocketFactory(cache), idle, stream);
+                System.out.printf("  SSLEngine handshakes: full=%d resumed=%d%n",
+                        cache.getFullHandshakes(), cache.getResumedHandshakes());
+            }
+        }
+    }
+
+    private static void run(String name, SocketFactory factory, URI idle, URI stream) throws IOException {
+        WebSocketClient client = new WebSocketClient.Builder().withURI(idle).withSocketFactory(factory).build();
+        long start = System.nanoTime();
+        client.connect();
+        long first = System.nanoTime() - start;
+
+        long total = 0;
+        for (int i = 0; i < RECONNECTS; i++) {
+            client.close();
+            start = System.nanoTime();
+            client.connect();
+            total += System.nanoTime() - start;
+        }
+        client.close();
+
+        client = new WebSocketClient.Builder().withURI(stream).withSocketFactory(factory).build();
+        client.connect();
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            ByteBuffer payload = client.poll();
+            if (payload.remaining() != PAYLOAD_SIZE) {
+                throw new IllegalStateException("Unexpected payload size " + payload.remaining());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        client.close();
+
+        double megabytes = (double) NUM_FRAMES * PAYLOAD_SIZE / (1 << 20);
+        System.out.printf("  %-10s first connect=%.2fms avg reconnect=%.2fms decrypt=%.1fMB/s (%dns/frame)%n", name,
+                first / 1e6, total / 1e6 / RECONNECTS, megabytes / (elapsed / 1e9), elapsed / NUM_FRAMES);
+    }
+
+    private static SSLContext clientContext(KeyStore keyStore) throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static KeyStore selfSignedKeyStore() throws Exception {
+        File file = Files.createTempFile("tls-benchmark", ".p12").toFile();
+        file.delete();
+        file.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "EC",
+                "-groupname", "secp256r1", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", file.getAbsolutePath(), "-storepass", new String(PASSWORD))
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed");
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, PASSWORD);
+        }
+        return keyStore;
+    }
+
+    /**
+     * "/idle" connections only get the handshake. "/stream" connections get NUM_FRAMES binary frames.
+     */
+    private static class Server implements AutoCloseable {
+        private final SSLServerSocket serverSocket;
+
+        Server(SSLContext context) throws IOException {
+            this.serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+            Thread thread = new Thread(this::serve);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread = new Thread(() -> handle(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (socket) {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                StringBuilder request = new StringBuilder();
+                int b;
+                while (!request.toString().endsWith("\r\n\r\n") && (b = in.read()) != -1) {
+                    request.append((char) b);
+                }
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes());
+
+                if (request.toString().startsWith("GET /stream")) {
+                    byte[] frames = new byte[16 * (4 + PAYLOAD_SIZE)];
+                    ByteBuffer buffer = ByteBuffer.wrap(frames);
+                    for (int i = 0; i < 16; i++) {
+                        buffer.put((byte) 0x82).put((byte) 126).putShort((short) PAYLOAD_SIZE);
+                        buffer.position(buffer.position() + PAYLOAD_SIZE);
+                    }
+                    for (int i = 0; i < NUM_FRAMES / 16; i++) {
+                        out.write(frames);
+                    }
+                }
+
+                while (in.read() != -1); // Wait for the client to hang up
+            } catch (IOException ignored) {}
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
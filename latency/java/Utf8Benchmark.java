@@ -0,0 +1,65 @@
+import group.gnometrading.websockets.utils.Utf8CharSequence;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares decoding TEXT payloads with a reused {@link Utf8CharSequence} against {@code new String(bytes, UTF_8)},
+ * for an ASCII JSON message and one with some multi-byte characters in it. Reports time and bytes allocated
+ * per message; the String path is intrinsified for ASCII, the point of the flyweight is the second number.
+ */
+class Utf8Benchmark {
+    private static final int ITERATIONS = 5_000_000;
+    private static final String ASCII = "{\"e\":\"depthUpdate\",\"E\":1700000000000,\"s\":\"BTCUSDT\",\"U\":157,\"u\":160," +
+            "\"b\":[[\"0.0024\",\"10\"],[\"0.0023\",\"100\"]],\"a\":[[\"0.0026\",\"100\"],[\"0.0027\",\"10\"]]}";
+    private static final String UNICODE = "{\"venue\":\"B\u00f6rse Stuttgart\",\"note\":\"\u20ac prices, \u65e5\u672c listing\"," +
+            "\"b\":[[\"0.0024\",\"10\"],[\"0.0023\",\"100\"]]}";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 3; round++) { // First rounds are warm up
+            System.out.println("Round " + round);
+            run("ascii", ASCII.getBytes(StandardCharsets.UTF_8));
+            run("unicode", UNICODE.getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.println(blackhole);
+    }
+
+    private static void run(String name, byte[] bytes) {
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        Utf8CharSequence sequence = new Utf8CharSequence();
+
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String decoded = new String(payload.array(), payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+            blackhole += decoded.charAt(i % decoded.length());
+        }
+        long string = System.nanoTime() - start;
+        long stringAllocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sequence.decode(payload);
+            blackhole += sequence.charAt(i % sequence.length());
+        }
+        long lenient = System.nanoTime() - start;
+        long lenientAllocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sequence.decodeStrict(payload);
+            blackhole += sequence.charAt(i % sequence.length());
+        }
+        long strict = System.nanoTime() - start;
+
+        System.out.printf("  %-8s new String=%dns (%dB) Utf8CharSequence.decode=%dns (%dB) decodeStrict=%dns (per message)%n",
+                name, string / ITERATIONS, stringAllocated / ITERATIONS, lenient / ITERATIONS,
+                lenientAllocated / ITERATIONS, strict / ITERATIONS);
+    }
+}
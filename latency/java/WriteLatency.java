@@ -0,0 +1,150 @@
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.idle.BusySpinIdleStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares round trip times of inline writes vs writes queued to the writer thread. A local echo server
+ * sends every frame straight back, so the difference between the two is the hand-off to the writer thread.
+ * Doesn't need any extra dependencies, just the client on the classpath.
+ */
+class WriteLatency {
+    private static final int WARMUP = 50_000;
+    private static final int NUM_MESSAGES = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        try (EchoServer server = new EchoServer()) {
+            URI uri = URI.create("ws://localhost:" + server.port());
+
+            report("queued (busy spin)", run(new WebSocketClient.Builder()
+                    .withURI(uri)
+                    .withWriterIdleStrategy(new BusySpinIdleStrategy())
+                    .build()));
+            report("queued (back-off)", run(new WebSocketClient.Builder()
+                    .withURI(uri)
+                    .build()));
+            report("inline", run(new WebSocketClient.Builder()
+                    .withURI(uri)
+                    .withInlineWrites(true)
+                    .build()));
+        }
+    }
+
+    private static long[] run(WebSocketClient client) throws IOException {
+        client.connect();
+        byte[] message = new byte[8];
+        ByteBuffer wrapped = ByteBuffer.wrap(message);
+        long[] results = new long[NUM_MESSAGES];
+
+        for (int i = 0; i < WARMUP + NUM_MESSAGES; i++) {
+            long start = System.nanoTime();
+            wrapped.putLong(0, i);
+            client.write(message);
+            ByteBuffer echo = client.poll();
+            long end = System.nanoTime();
+            if (echo.getLong() != i) {
+                throw new RuntimeException("Out of order");
+            }
+            if (i >= WARMUP) {
+                results[i - WARMUP] = end - start;
+            }
+        }
+
+        client.close();
+        return results;
+    }
+
+    private static void report(String name, long[] results) {
+        Arrays.sort(results);
+        System.out.printf("%-20s p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns%n", name,
+                results[results.length / 2],
+                results[(int) (results.length * 0.9)],
+                results[(int) (results.length * 0.99)],
+                results[(int) (results.length * 0.999)],
+                results[results.length - 1]);
+    }
+
+    /**
+     * Accepts connections one at a time, completes the handshake, and echoes masked client frames
+     * back as unmasked server frames.
+     */
+    private static class EchoServer implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        private final Thread thread;
+
+        EchoServer() throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.thread = new Thread(this::serve);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setTcpNoDelay(true);
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    handshake(in, out);
+                    echo(in, out);
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private static void handshake(InputStream in, OutputStream out) throws IOException {
+            int matched = 0, b;
+            while (matched < 4 && (b = in.read()) != -1) {
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : 0;
+            }
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes());
+        }
+
+        private static void echo(InputStream in, OutputStream out) throws IOException {
+            byte[] header = new byte[2];
+            byte[] mask = new byte[4];
+            byte[] frame = new byte[2 + 125];
+            while (readFully(in, header, 2)) {
+                int length = header[1] & 0x7F; // Only small frames in this benchmark
+                readFully(in, mask, 4);
+                readFully(in, frame, length);
+                for (int i = length - 1; i >= 0; i--) {
+                    frame[i + 2] = (byte) (frame[i] ^ mask[i % 4]);
+                }
+                frame[0] = header[0];
+                frame[1] = (byte) length;
+                out.write(frame, 0, length + 2);
+            }
+        }
+
+        private static boolean readFully(InputStream in, byte[] buffer, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package group.gnometrading.websockets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of resolved host names so connect() doesn't hit DNS every time. Once a host has been resolved,
+ * a background thread refreshes it every `refreshIntervalMillis`. If a refresh fails, the last good
+ * addresses are kept, which is what you want during a reconnect storm when DNS is having a bad day too.
+ */
+public class AddressCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AddressCache.class);
+    public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 30_000;
+
+    private static volatile AddressCache defaultCache;
+
+    private final Map<String, InetAddress[]> addresses = new ConcurrentHashMap<>();
+    private final long refreshIntervalMillis;
+    private final Resolver resolver;
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Where the addresses actually come from. Only swapped out by tests.
+     */
+    @FunctionalInterface
+    interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    public AddressCache(long refreshIntervalMillis) {
+        this(refreshIntervalMillis, InetAddress::getAllByName);
+    }
+
+    AddressCache(long refreshIntervalMillis, Resolver resolver) {
+        if (refreshIntervalMillis <= 0) {
+            throw new IllegalArgumentException("refreshIntervalMillis must be positive");
+        }
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return a process wide cache refreshing every {@link #DEFAULT_REFRESH_INTERVAL_MILLIS}
+     */
+    public static AddressCache getDefault() {
+        AddressCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (AddressCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = defaultCache = new AddressCache(DEFAULT_REFRESH_INTERVAL_MILLIS);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Resolve a host, from the cache if we've seen it before. The returned address keeps the host name,
+     * so TLS still gets the right SNI and hostname to verify against.
+     * @param host the host to resolve
+     * @return the first address for the host
+     * @throws UnknownHostException if the host has never been resolved successfully
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        InetAddress[] cached = addresses.get(host);
+        if (cached == null) {
+            cached = resolver.resolve(host);
+            addresses.put(host, cached);
+            startRefresher();
+        }
+        return cached[0];
+    }
+
+    /**
+     * Resolve a host ahead of time, e.g. before bringing up a batch of clients.
+     */
+    public void prefetch(String host) throws UnknownHostException {
+        resolve(host);
+    }
+
+    /**
+     * Forget a host, so the next resolve() goes to DNS and the refresher stops looking it up.
+     */
+    public void evict(String host) {
+        addresses.remove(host);
+    }
+
+    /**
+     * Stop the background refresh. Cached entries are still served.
+     */
+    public synchronized void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    private synchronized void startRefresher() {
+        if (refresher != null) {
+            return;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-address-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void refresh() {
+        for (String host : addresses.keySet()) {
+            try {
+                // Only if it's still there, so a host evicted while we were looking it up stays evicted
+                addresses.replace(host, resolver.resolve(host));
+            } catch (UnknownHostException e) {
+                logger.warn("Failed to refresh address for {}, keeping the last one", host, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package group.gnometrading.websockets;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings up (or back up) a lot of clients at once, with at most `parallelism` connects in flight. Use it
+ * at startup, or after a network blip when every client wants to reconnect at the same time.
+ */
+public class BulkConnector {
+
+    private BulkConnector() {}
+
+    /**
+     * Connect every client. Clients which aren't closed fail like they would with connect(). This is blocking.
+     * @param clients the clients to connect
+     * @param parallelism the maximum number of concurrent connects
+     * @return the clients which failed to connect and why. Empty if they all connected.
+     * @throws InterruptedException if interrupted while waiting on the connects
+     */
+    public static Map<WebSocketClient, Exception> connectAll(Collection<WebSocketClient> clients, int parallelism)
+            throws InterruptedException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+
+        Map<WebSocketClient, Exception> failures = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(clients.size(), 1)), runnable -> {
+            Thread thread = new Thread(runnable, "websocket-bulk-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (WebSocketClient client : clients) {
+                executor.execute(() -> {
+                    try {
+                        client.connect();
+                    } catch (Exception e) {
+                        failures.put(client, e);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS));
+        return failures;
+    }
+
+    /**
+     * Close and connect every client again, at most `parallelism` at a time.
+     * @see #connectAll(Collection, int)
+     */
+    public static Map<WebSocketClient, Exception> reconnectAll(Collection<WebSocketClient> clients, int parallelism)
+            throws InterruptedException {
+        for (WebSocketClient client : clients) {
+            try {
+                client.close();
+            } catch (Exception ignored) {} // We throw nothing
+        }
+        return connectAll(clients, parallelism);
+    }
+}
@@ -1,19 +1,36 @@
 package group.gnometrading.websockets;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * A SPSC circular flyweight queue. Do not use multiple producers or multiple consumers, you will regret it.
+ * <p />
+ * The producer publishes a slot by bumping `tail` and the consumer frees it by bumping `head`. Both are
+ * volatile so the slot contents are visible to the other side once the counter is.
+ * <p />
+ * The one exception to SPSC is {@link #dropOldest()}: the producer may free the oldest slot itself. Consumers
+ * which read slots in place must then validate with {@link #release(long, int)}, which fails if that happened.
  * @param <E> the item in the queue
  */
 class CircularFlyweightQueue<E> {
 
-    private int currentSize;
+    private static final VarHandle HEAD;
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(CircularFlyweightQueue.class, "head", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final E[] circularQueueElements;
 
-    private int rear;
-    private int front;
+    private volatile long head; // next slot to consume
+    private volatile long tail; // next slot to produce
 
     /**
      * Create a new circular flyweight queue.
@@ -25,47 +42,120 @@ class CircularFlyweightQueue<E> {
         for (int i = 0; i < maxSize; i++) {
             circularQueueElements[i] = factory.get();
         }
-        currentSize = 0;
-        front = -1;
-        rear = -1;
+        head = 0;
+        tail = 0;
     }
 
+    /**
+     * Only call this when neither the producer nor the consumer are running.
+     */
     public void clear() {
-        front = -1;
-        rear = -1;
-        currentSize = 0;
+        head = 0;
+        tail = 0;
     }
 
     public void enqueue(Consumer<E> consumer) {
         if (isFull()) {
             throw new IllegalStateException("Circular queue is full. Element cannot be added");
         } else {
-            rear = (rear + 1) % circularQueueElements.length;
-            consumer.accept(circularQueueElements[rear]);
+            long rear = tail;
+            consumer.accept(slot(rear));
+            tail = rear + 1;
+        }
+    }
 
-            if (front == -1) {
-                front = rear;
-            }
-            currentSize++;
+    /**
+     * Get the next free slot to fill in place. Nothing is visible to the consumer until {@link #publish()}.
+     * Unlike {@link #enqueue(Consumer)}, this doesn't need a (capturing, so allocating) lambda. Producer side only.
+     * @return the slot
+     */
+    public E claim() {
+        if (isFull()) {
+            throw new IllegalStateException("Circular queue is full. Element cannot be added");
         }
+        return slot(tail);
+    }
+
+    /**
+     * Hand the slot from {@link #claim()} to the consumer. Producer side only.
+     */
+    public void publish() {
+        tail = tail + 1;
     }
 
     public void pop(Consumer<E> consumer) {
         if (isEmpty()) {
             throw new IllegalStateException("Circular queue is empty. Element cannot be retrieved");
         } else {
-            consumer.accept(circularQueueElements[front]);
-            front = (front + 1) % circularQueueElements.length;
-            currentSize--;
+            long front = head;
+            consumer.accept(slot(front));
+            head = front + 1;
         }
     }
 
+    /**
+     * @return the sequence of the oldest element, for {@link #peek(long)} and {@link #release(long, int)}.
+     * Consumer side only.
+     */
+    public long front() {
+        return head;
+    }
+
+    /**
+     * Look at a published element without consuming it. Consumer side only.
+     * @param sequence the element's sequence, from {@link #front()} up to (but not including) front() + size()
+     * @return the element
+     */
+    public E peek(long sequence) {
+        return slot(sequence);
+    }
+
+    /**
+     * Consume `count` elements previously looked at with {@link #peek(long)}. Consumer side only.
+     * @param front the sequence from {@link #front()} the elements were read from
+     * @param count the number of elements to free up for the producer
+     * @return false if the producer dropped the oldest element in the meantime. Nothing is released, and
+     * anything read from the slots may be torn, so read them again.
+     */
+    public boolean release(long front, int count) {
+        if (count > tail - front) {
+            throw new IllegalStateException("Cannot release more elements than are in the queue");
+        }
+        return HEAD.compareAndSet(this, front, front + count);
+    }
+
+    /**
+     * Free the oldest element to make room. Producer side only.
+     * @return false if the queue is empty
+     */
+    public boolean dropOldest() {
+        while (true) {
+            long front = head;
+            if (front == tail) {
+                return false;
+            } else if (HEAD.compareAndSet(this, front, front + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int capacity() {
+        return circularQueueElements.length;
+    }
+
     public boolean isFull() {
-        return currentSize == circularQueueElements.length;
+        return size() == circularQueueElements.length;
     }
 
     public boolean isEmpty() {
-        return currentSize == 0;
+        return tail == head;
     }
 
-}
\ No newline at end of file
+    private E slot(long sequence) {
+        return circularQueueElements[(int) (sequence % circularQueueElements.length)];
+    }
+}
@@ -3,6 +3,8 @@ package group.gnometrading.websockets;
 import group.gnometrading.websockets.drafts.Draft;
 import group.gnometrading.websockets.enums.HandshakeState;
 import group.gnometrading.websockets.exceptions.InvalidHandshakeException;
+import group.gnometrading.websockets.transport.SocketTransport;
+import group.gnometrading.websockets.transport.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +18,13 @@ public class HandshakeHandler {
     private static final Logger logger = LoggerFactory.getLogger(HandshakeHandler.class);
     private static final int TIMEOUT_IN_SECONDS = 30; // This should be reasonable for everyone. Right? Guys?
     private static final int HANDSHAKE_RECV_BUFFER = 4 * 1024; // 4kb
+    // Handshakes block on the socket, so they get their own threads rather than starving the common pool
+    // (which only has ncpu - 1 threads) when a few hundred clients connect at once
+    private static final ExecutorService HANDSHAKE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "websocket-handshake");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Attempt a handshake as the client to whomever we are connected to over the socket.
@@ -27,12 +36,27 @@ public class HandshakeHandler {
      * @throws InvalidHandshakeException on an unsuccessful handshake
      */
     public static void attemptHandshake(Socket socket, Draft draft, HandshakeInput input) throws InvalidHandshakeException {
+        try {
+            attemptHandshake(new SocketTransport(socket), draft, input);
+        } catch (IOException e) {
+            throw new InvalidHandshakeException(HandshakeState.INVALID_READ);
+        }
+    }
+
+    /**
+     * Attempt a handshake as the client to whomever is on the other end of the transport.
+     *
+     * @param transport the connected transport
+     * @param draft the draft which to encode and decode the handshake
+     * @throws InvalidHandshakeException on an unsuccessful handshake
+     */
+    public static void attemptHandshake(Transport transport, Draft draft, HandshakeInput input) throws InvalidHandshakeException {
         Future<HandshakeState> attempt = CompletableFuture.supplyAsync(() -> {
             logger.trace("Attempting to send handshake to server...");
-            sendHandshake(socket, draft, input);
+            sendHandshake(transport, draft, input);
             logger.trace("Handshake successfully sent. Waiting for response...");
-            return acceptHandshake(socket, draft);
-        });
+            return acceptHandshake(transport, draft);
+        }, HANDSHAKE_EXECUTOR);
 
         try {
             HandshakeState result = attempt.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
@@ -49,22 +73,23 @@ public class HandshakeHandler {
         }
     }
 
-    private static void sendHandshake(Socket socket, Draft draft, HandshakeInput input) {
+    private static void sendHandshake(Transport transport, Draft draft, HandshakeInput input) {
         try {
             byte[] write = draft.createHandshake(input);
-            socket.getOutputStream().write(write);
+            transport.write(ByteBuffer.wrap(write));
         } catch (IOException ignore) {
             throw new InvalidHandshakeException(HandshakeState.INVALID_WRITE);
         }
     }
 
-    private static HandshakeState acceptHandshake(Socket socket, Draft draft) {
+    private static HandshakeState acceptHandshake(Transport transport, Draft draft) {
         ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_RECV_BUFFER);
+        ByteBuffer into = ByteBuffer.wrap(buffer.array());
         int readBytes, totalBytes = 0;
         try {
             // Read one byte at a time to avoid consuming more bytes than the handshake size
             // This becomes a problem if the WebSocket server immediately sends frames after connecting
-            while ((readBytes = socket.getInputStream().read(buffer.array(), totalBytes, 1)) != -1) {
+            while ((readBytes = transport.read(into.limit(totalBytes + 1).position(totalBytes))) != -1) {
                 totalBytes += readBytes;
                 buffer.limit(totalBytes);
                 HandshakeState result = draft.parseHandshake(buffer);
@@ -73,7 +98,7 @@ public class HandshakeHandler {
                     return result;
                 }
 
-                if (readBytes == HANDSHAKE_RECV_BUFFER) {
+                if (totalBytes == HANDSHAKE_RECV_BUFFER) {
                     return HandshakeState.TOO_LARGE;
                 }
 
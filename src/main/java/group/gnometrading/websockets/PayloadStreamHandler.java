@@ -0,0 +1,32 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.Opcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the payloads of frames too large to buffer whole, a chunk at a time as they come off the socket. See
+ * {@link WebSocketClient.Builder#withPayloadStreaming(int, PayloadStreamHandler)}. Everything is called on the
+ * poll thread, from inside poll().
+ */
+public interface PayloadStreamHandler {
+
+    /**
+     * A large frame has started.
+     * @param opcode {@link Opcode#TEXT} or {@link Opcode#BINARY}
+     * @param payloadLength the length of the whole payload
+     */
+    void onStart(Opcode opcode, long payloadLength);
+
+    /**
+     * The next piece of the payload, already unmasked. Chunk boundaries fall wherever the reads did, so they
+     * can split a number, a UTF-8 character, or anything else.
+     * @param chunk the bytes from position to limit. Only valid until this returns.
+     */
+    void onChunk(ByteBuffer chunk);
+
+    /**
+     * The whole payload has been delivered.
+     */
+    void onEnd();
+}
@@ -0,0 +1,36 @@
+package group.gnometrading.websockets;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket options set by the Builder and applied to every socket the client opens.
+ */
+class SocketOptions {
+    boolean tcpNoDelay = true;
+    int receiveBufferSize = 0; // 0 means leave the OS default
+    int sendBufferSize = 0;
+    int connectTimeoutInMillis = 0;
+    InetSocketAddress localAddress;
+
+    void apply(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+    }
+
+    SocketOptions copy() {
+        SocketOptions copy = new SocketOptions();
+        copy.tcpNoDelay = tcpNoDelay;
+        copy.receiveBufferSize = receiveBufferSize;
+        copy.sendBufferSize = sendBufferSize;
+        copy.connectTimeoutInMillis = connectTimeoutInMillis;
+        copy.localAddress = localAddress;
+        return copy;
+    }
+}
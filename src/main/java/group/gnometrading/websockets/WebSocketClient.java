@@ -1,23 +1,55 @@
 package group.gnometrading.websockets;
 
+import group.gnometrading.websockets.affinity.AffinityThreadFactory;
+import group.gnometrading.websockets.affinity.CpuSet;
+import group.gnometrading.websockets.clock.CachedClock;
+import group.gnometrading.websockets.clock.EpochClock;
+import group.gnometrading.websockets.clock.NanoClock;
+import group.gnometrading.websockets.clock.SystemClock;
 import group.gnometrading.websockets.drafts.Draft;
 import group.gnometrading.websockets.drafts.RFC6455;
 import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.enums.StatusCode;
+import group.gnometrading.websockets.exceptions.InvalidFrameException;
+import group.gnometrading.websockets.filter.FrameFilter;
 import group.gnometrading.websockets.exceptions.InvalidHandshakeException;
 import group.gnometrading.websockets.enums.Opcode;
+import group.gnometrading.websockets.enums.OverflowPolicy;
+import group.gnometrading.websockets.enums.WriteStatus;
 import group.gnometrading.websockets.frames.DataFrame;
+import group.gnometrading.websockets.frames.StreamingDataFrame;
+import group.gnometrading.websockets.idle.BackoffIdleStrategy;
+import group.gnometrading.websockets.idle.BlockingIdleStrategy;
+import group.gnometrading.websockets.idle.IdleStrategy;
+import group.gnometrading.websockets.metrics.LatencyHistogram;
+import group.gnometrading.websockets.metrics.WriteMetrics;
+import group.gnometrading.websockets.pacing.RatePacer;
+import group.gnometrading.websockets.tls.SSLEngineSocketFactory;
+import group.gnometrading.websockets.transport.SocketTransport;
+import group.gnometrading.websockets.transport.Transport;
+import group.gnometrading.websockets.transport.TransportFactory;
+import group.gnometrading.websockets.utils.Utf8CharSequence;
+import group.gnometrading.websockets.warmup.WarmUp;
+import group.gnometrading.websockets.warmup.WarmUpReport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.SocketFactory;
-import javax.net.ssl.SSLSocketFactory;
+import jdk.jfr.FlightRecorder;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A very specific WebSocket client. See the README for details on why.
@@ -25,128 +57,680 @@ import java.nio.charset.StandardCharsets;
 public class WebSocketClient implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketClient.class);
-    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ByteBuffer STREAMED = ByteBuffer.allocate(0); // A large payload went to the stream handler
+    private static final ByteBuffer FILTERED = ByteBuffer.allocate(0); // The frame filter dropped a payload
 
     public static final int DEFAULT_PORT = 80;
     public static final int DEFAULT_WSS_PORT = 443;
     // Keep this less than 32mb so it fits entirely in the L1 cache
-    public static final int RECV_BUF = 2^13;  // 8kb
+    public static final int RECV_BUF = 1 << 13;  // 8kb
     public static final int SEND_BUF = 2048; // 2kb
+    // The most a frame header can take: 2 bytes, an 8 byte extended length and a 4 byte mask
+    public static final int MAX_HEADER = 14;
+    // Anything claiming to be older than this isn't one of our pings
+    private static final long MAX_ROUND_TRIP_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long TIMEOUT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
     private final URI uri;
     private final SocketFactory socketFactory;
-    private SocketState socketState;
-    private Socket socket;
-    private final CircularFlyweightQueue<ByteBuffer> writeQueue;
+    private final TransportFactory transportFactory;
+    private final SocketOptions socketOptions;
+    private final AddressCache addressCache;
+    private volatile SocketState socketState;
+    private Transport transport;
+    // Pings and pongs go in their own lane and out ahead of any queued data, so a burst of writes can't hold up
+    // a pong long enough for the server to give up on us
+    private final CircularFlyweightQueue<ByteBuffer> controlLane, dataLane, spillLane;
+    private final OverflowPolicy overflowPolicy;
+    private final IdleStrategy overflowIdleStrategy;
+    private volatile Thread blockedWriter; // A write waiting on a full data lane, for the writer thread to wake
+    private CircularFlyweightQueue<ByteBuffer> claimedLane; // Data producer only
     private final WebSocketListener listener;
     private final Draft draft;
-    private Thread writerThread, timeoutThread;
+    private volatile Thread writerThread;
+    private volatile boolean workersRunning; // Until close(), the writer and timeout threads carry on across reconnects
+    private Thread timeoutThread;
+    private final IdleStrategy writerIdleStrategy;
+    private final int maxWriteBatch;
+    private final ByteBuffer writeBatchBuffer;
+    private volatile int unsentFrames; // In writeBatchBuffer after failing to go out, see WebSocketWriterThread
+    private volatile boolean discardUnsent; // Set by discardPendingWrites, for the writer thread to drop them
+    private final WriteMetrics writeMetrics;
     private final ByteBuffer readBuffer;
     private int readOffset = 0, frameOffset = 0;
     private long lastMessageMillis = 0;
+    private long lastReceiveNanos = 0;
     private final boolean automaticReconnect;
+    private volatile boolean reconnectRequested; // The server hung up, so the timeout thread shouldn't wait out the timeout
     private final long timeoutInMillis;
-    private final DataFrame frame;
-    private InputStream inputStream;
+    private final DataFrame frame, controlEncoder, dataEncoder;
+    private final StreamingDataFrame streamingFrame; // The same frame, if the draft's frames can stream at all
+    private final ByteBuffer readView; // Over the read buffer's array, so reads don't disturb the payload handed out
+    private volatile Transport writeTransport; // Nulled on close, so the writer stops writing
+    private final boolean inlineWrites;
+    private final ByteBuffer inlineWriteBuffer;
+    private final Object inlineWriteLock = new Object();
+    private final boolean validateUtf8;
+    private Opcode lastOpcode;
+    private final ThreadFactory threadFactory;
+    private final CpuSet threadAffinity;
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private final PayloadStreamHandler streamHandler;
+    private final int streamThreshold;
+    private long streamRemaining, streamOffset; // Of the payload being streamed, if any
+    private int streamKey;
+    private boolean streamMasked;
+    private final ByteBuffer pingPayload = ByteBuffer.allocate(Long.BYTES);
+    private final EpochClock epochClock;
+    private final NanoClock nanoClock;
+    private final boolean receiveTimestamps;
+    private final long slowFrameNanos; // 0 to not time frames at all
+    private final FrameFilter frameFilter;
+    private final ByteBuffer[] onConnectMessages; // Encoded up front
+    private final RatePacer ratePacer;
+    private boolean timingFrame; // The frame last returned from poll
+    private long frameStartNanos;
+    private Opcode frameOpcode;
+    private int framePayloadLength;
+    private long framesRead, bytesRead; // Poll thread only, for the throughput events
+    private long lastFramesRead, lastBytesRead, lastFramesWritten, lastBytesWritten; // Flight Recorder's thread
+    private final Runnable throughputHook = this::recordThroughput;
+    private final WarmUp warmUp;
+    private WarmUpReport warmUpReport; // Once the warm-up has run
 
-    private WebSocketClient(URI uri, SocketFactory socketFactory, int writeQueueCapacity, WebSocketListener listener,
-                            Draft draft, boolean automaticReconnect, long timeoutInMillis) {
-        // Don't use SocketChannels for now. Socket has a more general API which we can potentially abstract
-        // into kernel bypass later.
+    private WebSocketClient(URI uri, SocketFactory socketFactory, TransportFactory transportFactory,
+                            SocketOptions socketOptions, AddressCache addressCache,
+                            int writeQueueCapacity, int controlQueueCapacity, OverflowPolicy overflowPolicy,
+                            IdleStrategy overflowIdleStrategy, int spillCapacity, WebSocketListener listener,
+                            Draft draft, boolean automaticReconnect, long timeoutInMillis,
+                            IdleStrategy writerIdleStrategy, int maxWriteBatch, boolean inlineWrites,
+                            boolean validateUtf8, ThreadFactory threadFactory, CpuSet threadAffinity,
+                            PayloadStreamHandler streamHandler, int streamThreshold, WarmUp warmUp,
+                            EpochClock epochClock, NanoClock nanoClock, boolean receiveTimestamps, long slowFrameNanos,
+                            FrameFilter frameFilter, List<byte[]> onConnectMessages, RatePacer ratePacer) {
+        // Plain Sockets by default, anything else (channels, Unix domain sockets, kernel bypass) through a Transport
         this.uri = uri;
         this.socketFactory = socketFactory;
+        this.transportFactory = transportFactory;
+        this.socketOptions = socketOptions;
+        this.addressCache = addressCache;
         this.socketState = SocketState.CLOSED;
         // Allocate the ByteBuffers on the heap rather than in off-heap memory because we cannot use the addresses
         // of the buffers into send syscall directly, so copying is faster on the heap.
-        this.writeQueue = new CircularFlyweightQueue<>(writeQueueCapacity, () -> ByteBuffer.allocate(SEND_BUF));
+        this.controlLane = new CircularFlyweightQueue<>(controlQueueCapacity, () -> ByteBuffer.allocate(SEND_BUF));
+        this.dataLane = new CircularFlyweightQueue<>(writeQueueCapacity, () -> ByteBuffer.allocate(SEND_BUF));
+        this.spillLane = overflowPolicy == OverflowPolicy.SPILL ?
+                new CircularFlyweightQueue<>(spillCapacity, () -> ByteBuffer.allocate(SEND_BUF)) : null;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowIdleStrategy = overflowIdleStrategy;
         this.listener = listener;
         this.draft = draft;
         this.frame = this.draft.getDataFrame();
+        this.streamingFrame = this.frame instanceof StreamingDataFrame ? (StreamingDataFrame) this.frame : null;
+        if (streamHandler != null && this.streamingFrame == null) {
+            throw new IllegalArgumentException("Payload streaming needs the draft's frames to implement StreamingDataFrame");
+        }
+        // Pongs are encoded on the poll thread while data is encoded on the caller's, so each gets its own
+        this.controlEncoder = this.draft.createDataFrame();
+        this.dataEncoder = this.draft.createDataFrame();
         this.readBuffer = ByteBuffer.allocate(RECV_BUF);
+        this.readView = ByteBuffer.wrap(this.readBuffer.array());
         this.automaticReconnect = automaticReconnect;
         this.timeoutInMillis = timeoutInMillis;
+        this.writerIdleStrategy = writerIdleStrategy;
+        this.maxWriteBatch = Math.min(maxWriteBatch, writeQueueCapacity);
+        // Queued frames are copied in here so a burst goes out in a single write
+        this.writeBatchBuffer = ByteBuffer.allocate(this.maxWriteBatch * SEND_BUF);
+        this.writeMetrics = new WriteMetrics();
+        this.inlineWrites = inlineWrites;
+        this.inlineWriteBuffer = inlineWrites ? ByteBuffer.allocate(SEND_BUF) : null;
+        this.validateUtf8 = validateUtf8;
+        this.threadFactory = threadFactory;
+        this.threadAffinity = threadAffinity;
+        this.streamHandler = streamHandler;
+        this.streamThreshold = streamThreshold;
+        this.warmUp = warmUp;
+        this.epochClock = epochClock;
+        this.nanoClock = nanoClock;
+        this.receiveTimestamps = receiveTimestamps;
+        this.slowFrameNanos = slowFrameNanos;
+        this.frameFilter = frameFilter;
+        this.ratePacer = ratePacer;
+        this.onConnectMessages = new ByteBuffer[onConnectMessages.size()];
+        DataFrame encoder = this.draft.createDataFrame();
+        for (int i = 0; i < this.onConnectMessages.length; i++) {
+            byte[] message = onConnectMessages.get(i);
+            this.onConnectMessages[i] = ByteBuffer.allocate(message.length + MAX_HEADER);
+            encoder.wrap(this.onConnectMessages[i]).encode(Opcode.TEXT, message);
+            this.onConnectMessages[i].flip();
+        }
     }
 
     public SocketState getSocketState() {
         return this.socketState;
     }
 
+    /**
+     * @return the opcode of the last payload returned from poll, either {@link Opcode#TEXT} or {@link Opcode#BINARY}.
+     * Use this to decide whether to decode the payload as text, e.g. with a {@link Utf8CharSequence}.
+     */
+    public Opcode getLastOpcode() {
+        return this.lastOpcode;
+    }
+
+    /**
+     * @return counters for the outbound path, including how many frames get coalesced per socket write
+     */
+    public WriteMetrics getWriteMetrics() {
+        return this.writeMetrics;
+    }
+
+    /**
+     * @return the pacer from {@link Builder#withRatePacer}, for checking the budget before writing, or null
+     */
+    public RatePacer getRatePacer() {
+        return this.ratePacer;
+    }
+
+    /**
+     * @return the number of frames queued for the writer thread, across every lane. Always 0 with inline writes.
+     */
+    public int getPendingWrites() {
+        return this.controlLane.size() + this.dataLane.size() + (this.spillLane == null ? 0 : this.spillLane.size()) +
+                this.unsentFrames;
+    }
+
+    /**
+     * Throw away the data frames still waiting to go out, for when they'll be sent again anyway once the next
+     * connection is up (subscriptions, say). Pings and pongs stay queued. Call it from the thread which writes;
+     * a batch which already failed to go out on the last connection is dropped by the writer thread instead,
+     * before it tries again.
+     * @return the number of queued data frames thrown away
+     */
+    public int discardPendingWrites() {
+        int discarded = 0;
+        // Dropping from the front is the one thing the producer may do to the consumer's end, see OverflowPolicy#DROP_OLDEST
+        while (this.dataLane.dropOldest()) {
+            discarded++;
+        }
+        while (this.spillLane != null && this.spillLane.dropOldest()) {
+            discarded++;
+        }
+        this.discardUnsent = true;
+        return discarded;
+    }
+
+    /**
+     * @return round trip times (in nanos) of the pings sent with {@link #ping()}. Compare these across
+     * clients to pick the fastest endpoint, or watch the tail to spot a link going bad before it times out.
+     */
+    public LatencyHistogram getRoundTripHistogram() {
+        return this.roundTrips;
+    }
+
+    /**
+     * @return when the bytes of the last payload returned from poll were read off the transport, by the builder's
+     * {@link NanoClock}. Only kept with {@link Builder#withReceiveTimestamps(boolean)}. Frames which came in the
+     * same read share a timestamp.
+     */
+    public long getLastReceiveNanos() {
+        return this.lastReceiveNanos;
+    }
+
+    /**
+     * @return the outcome of the warm-up from {@link Builder#withWarmUp(WarmUp)}, or null if it hasn't run
+     */
+    public WarmUpReport getWarmUpReport() {
+        return this.warmUpReport;
+    }
+
     /**
      * Connect to the WebSocket server. Handles the initial Socket setup and the handshake with the server.
      * If the connection is successful, kicks off the writer thread to start sending messages to the server.
-     * Note, this writer thread is not pinned to a core (nor should it be). It is meant for infrequent, low-latency
-     * writes.
+     * Note, this writer thread should not share an isolated core with your poll thread. It is meant for infrequent,
+     * low-latency writes. Use {@link Builder#withThreadAffinity(CpuSet)} to keep it on your housekeeping cores.
      * <p />
      * This is blocking.
      */
     public void connect() throws IOException, InvalidHandshakeException {
-        if (this.socket != null) {
+        if (this.transport != null) {
             throw new IllegalStateException("Call close() before running connect again");
         } else if (this.socketState != SocketState.CLOSED) {
             throw new IllegalStateException("Can only connect with SocketState == CLOSED");
         }
 
+        if (this.warmUp != null && this.warmUpReport == null) {
+            // Only the first time: reconnects happen on the timeout thread, and the JIT has done its work by then
+            this.warmUpReport = this.warmUp.run();
+        }
+
+        WebSocketEvents.Connect event = new WebSocketEvents.Connect();
+        event.begin();
         this.socketState = SocketState.CONNECTING;
-        int port = this.uri.getPort() == -1 ? (this.uri.getScheme().equals("wss") ? DEFAULT_WSS_PORT : DEFAULT_PORT) : this.uri.getPort();
-        this.socket = socketFactory.createSocket(this.uri.getHost(), port);
-        this.inputStream = this.socket.getInputStream();
+        try {
+            this.transport = this.transportFactory == null ? new SocketTransport(openSocket()) : this.transportFactory.open(this.uri);
+
+            HandshakeInput input = new HandshakeInput(this.uri);
+            WebSocketEvents.Handshake handshake = new WebSocketEvents.Handshake();
+            handshake.begin();
+            try {
+                HandshakeHandler.attemptHandshake(this.transport, this.draft, input);
+                handshake.succeeded = true;
+            } finally {
+                if (handshake.shouldCommit()) {
+                    handshake.uri = this.uri.toString();
+                    handshake.commit();
+                }
+            }
+            replayOnConnectMessages();
+        } catch (IOException | RuntimeException e) {
+            if (event.shouldCommit()) {
+                event.uri = this.uri.toString();
+                event.error = e.toString();
+                event.commit();
+            }
+            // Leave things so connect() can be called again, queued writes and all
+            this.disconnect();
+            throw e;
+        }
+        if (event.shouldCommit()) {
+            event.uri = this.uri.toString();
+            event.succeeded = true;
+            event.commit();
+        }
 
-        HandshakeInput input = new HandshakeInput(this.uri);
-        HandshakeHandler.attemptHandshake(this.socket, this.draft, input);
+        // Only now can writes go out, so nothing gets in ahead of the handshake or the on-connect messages
+        this.writeTransport = this.transport;
+        // Before we're open, or a timeout thread from the last connection would see how long we were gone
+        this.lastMessageMillis = this.epochClock.time();
+        this.socketState = SocketState.OPEN;
 
-        this.writerThread = new Thread(new WebSocketWriterThread());
-        this.writerThread.setDaemon(true);
-        this.writerThread.start();
+        // The threads outlive reconnects, so they only need starting the first time
+        this.workersRunning = true;
+        if (!this.inlineWrites) {
+            if (this.writerThread == null) {
+                this.writerThread = newThread(new WebSocketWriterThread(), "websocket-writer");
+                this.writerThread.start();
+            } else {
+                LockSupport.unpark(this.writerThread); // It may be parked waiting for us, and there may be a backlog
+            }
+        }
 
-        if (this.automaticReconnect) {
-            this.lastMessageMillis = System.currentTimeMillis();
-            this.timeoutThread = new Thread(new WebSocketTimeoutThread());
-            this.timeoutThread.setDaemon(true);
+        if (this.automaticReconnect && this.timeoutThread == null) {
+            this.timeoutThread = newThread(new WebSocketTimeoutThread(), "websocket-timeout");
             this.timeoutThread.start();
         }
 
+        this.lastFramesRead = this.framesRead;
+        this.lastBytesRead = this.bytesRead;
+        this.lastFramesWritten = this.writeMetrics.getFramesWritten();
+        this.lastBytesWritten = this.writeMetrics.getBytesWritten();
+        FlightRecorder.addPeriodicEvent(WebSocketEvents.Throughput.class, this.throughputHook);
+
         if (listener != null) this.listener.onConnect();
-        this.socketState = SocketState.OPEN;
     }
 
-    private void write(Opcode opcode, byte[] bytes) {
-        this.writeQueue.enqueue(buffer -> {
-            if (bytes.length > (buffer.capacity() - 12)) { // 12 seems like a reasonable guess for the header size
-                throw new IllegalArgumentException("Write input exceeds max length");
+    /**
+     * Send the builder's on-connect messages, straight after the handshake and ahead of anything queued. They're
+     * encoded when the client is built, so this only writes.
+     */
+    private void replayOnConnectMessages() throws IOException {
+        for (ByteBuffer message : this.onConnectMessages) {
+            this.transport.write(message.rewind());
+            this.writeMetrics.recordWrite(1, message.limit());
+        }
+    }
+
+    /**
+     * Runs on Flight Recorder's thread once a period while connected. The read counters are the poll thread's
+     * plain fields, so what we see here may be a little behind.
+     */
+    private void recordThroughput() {
+        WebSocketEvents.Throughput event = new WebSocketEvents.Throughput();
+        long framesRead = this.framesRead, bytesRead = this.bytesRead;
+        long framesWritten = this.writeMetrics.getFramesWritten(), bytesWritten = this.writeMetrics.getBytesWritten();
+        event.uri = this.uri.toString();
+        event.framesRead = framesRead - this.lastFramesRead;
+        event.bytesRead = bytesRead - this.lastBytesRead;
+        event.framesWritten = framesWritten - this.lastFramesWritten;
+        event.bytesWritten = bytesWritten - this.lastBytesWritten;
+        event.pendingWrites = getPendingWrites();
+        event.commit();
+        this.lastFramesRead = framesRead;
+        this.lastBytesRead = bytesRead;
+        this.lastFramesWritten = framesWritten;
+        this.lastBytesWritten = bytesWritten;
+    }
+
+    private void recordWriteError(IOException e) {
+        WebSocketEvents.WriteError event = new WebSocketEvents.WriteError();
+        if (event.shouldCommit()) {
+            event.uri = this.uri.toString();
+            event.error = e.toString();
+            event.commit();
+        }
+    }
+
+    /**
+     * Record the frame last returned from poll as slow, if it was. Called at the start of the next poll.
+     */
+    private void finishFrame() {
+        this.timingFrame = false;
+        long time = this.nanoClock.nanoTime() - this.frameStartNanos;
+        if (time > this.slowFrameNanos) {
+            WebSocketEvents.SlowFrame event = new WebSocketEvents.SlowFrame();
+            event.uri = this.uri.toString();
+            event.opcode = this.frameOpcode.name();
+            event.payloadLength = this.framePayloadLength;
+            event.time = time;
+            event.commit();
+        }
+    }
+
+    /**
+     * Threads come from the builder's ThreadFactory if there is one, otherwise they're named daemon threads.
+     * Either way, they're pinned to the builder's CPUs (if any) as they start.
+     */
+    private Thread newThread(Runnable runnable, String name) {
+        Runnable task = this.threadAffinity == null ? runnable : AffinityThreadFactory.pinned(this.threadAffinity, runnable);
+        if (this.threadFactory != null) {
+            return this.threadFactory.newThread(task);
+        }
+
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private Socket openSocket() throws IOException {
+        int port = this.uri.getPort() == -1 ? (this.uri.getScheme().equals("wss") ? DEFAULT_WSS_PORT : DEFAULT_PORT) : this.uri.getPort();
+        InetSocketAddress address = new InetSocketAddress(this.addressCache.resolve(this.uri.getHost()), port);
+
+        Socket socket;
+        try {
+            socket = this.socketFactory.createSocket();
+        } catch (SocketException | UnsupportedOperationException e) {
+            // Some factories only hand out connected sockets. Options which must be set before connecting
+            // (buffer sizes, bind address) are lost on those.
+            socket = this.socketFactory.createSocket(address.getAddress(), port);
+            this.socketOptions.apply(socket);
+            return socket;
+        }
+
+        try {
+            this.socketOptions.apply(socket);
+            if (this.socketOptions.localAddress != null) {
+                socket.bind(this.socketOptions.localAddress);
+            }
+            socket.connect(address, this.socketOptions.connectTimeoutInMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private WriteStatus write(Opcode opcode, byte[] bytes, int messageClass) {
+        checkLength(bytes.length);
+        if (this.ratePacer != null && !this.ratePacer.tryAcquire(messageClass)) {
+            this.writeMetrics.recordThrottled();
+            return WriteStatus.THROTTLED;
+        }
+
+        if (this.inlineWrites) {
+            synchronized (this.inlineWriteLock) {
+                if (!startInlineWrite()) {
+                    unpace(messageClass);
+                    return WriteStatus.CLOSED;
+                }
+                this.dataEncoder.wrap(this.inlineWriteBuffer).encode(opcode, bytes);
+                finishInlineWrite();
+            }
+            return WriteStatus.OK;
+        }
+
+        WriteStatus status = claimData();
+        if (status == WriteStatus.REJECTED || status == WriteStatus.CLOSED) {
+            unpace(messageClass);
+            return status;
+        }
+
+        ByteBuffer buffer = this.claimedLane.claim().clear();
+        this.dataEncoder.wrap(buffer).encode(opcode, bytes);
+        publish(this.claimedLane, buffer);
+        return status;
+    }
+
+    /**
+     * Nothing was sent, so don't count it against the limits.
+     */
+    private void unpace(int messageClass) {
+        if (this.ratePacer != null) {
+            this.ratePacer.release(messageClass);
+        }
+    }
+
+    /**
+     * Pings and pongs. Pongs come from the poll thread and pings from whoever calls ping(), so unlike the data
+     * lane the control lane has a lock around its producer side. Control frames are rare and the lock is almost
+     * never contended.
+     */
+    private WriteStatus writeControl(Opcode opcode, ByteBuffer payload) {
+        checkLength(payload.remaining());
+        if (this.inlineWrites) {
+            synchronized (this.inlineWriteLock) {
+                if (!startInlineWrite()) {
+                    return WriteStatus.CLOSED;
+                }
+                this.controlEncoder.wrap(this.inlineWriteBuffer).encode(opcode, payload);
+                finishInlineWrite();
+            }
+            return WriteStatus.OK;
+        }
+
+        synchronized (this.controlLane) {
+            if (this.controlLane.isFull()) {
+                // The server will ping again; don't make the caller (usually the poll thread) wait on the writer
+                this.writeMetrics.recordControlRejected();
+                return WriteStatus.REJECTED;
+            }
+
+            ByteBuffer buffer = this.controlLane.claim().clear();
+            this.controlEncoder.wrap(buffer).encode(opcode, payload);
+            publish(this.controlLane, buffer);
+        }
+        return WriteStatus.OK;
+    }
+
+    /**
+     * Find room for a data frame according to the overflow policy, leaving the lane to encode into in `claimedLane`.
+     */
+    private WriteStatus claimData() {
+        if (this.spillLane != null && !this.spillLane.isEmpty()) {
+            // Once we've started spilling, everything spills until the writer thread catches up, to keep frames in order
+            return spill();
+        }
+
+        this.claimedLane = this.dataLane;
+        if (!this.dataLane.isFull()) {
+            return WriteStatus.OK;
+        }
+
+        switch (this.overflowPolicy) {
+            case DROP_OLDEST:
+                if (this.dataLane.dropOldest()) {
+                    this.writeMetrics.recordDroppedOldest();
+                    return WriteStatus.DROPPED_OLDEST;
+                }
+                return WriteStatus.OK; // The writer thread emptied it underneath us
+            case SPILL:
+                return spill();
+            case BLOCK:
+                return block();
+            default:
+                this.writeMetrics.recordRejected();
+                return WriteStatus.REJECTED;
+        }
+    }
+
+    private WriteStatus spill() {
+        if (this.spillLane.isFull()) {
+            this.writeMetrics.recordRejected();
+            return WriteStatus.REJECTED;
+        }
+        this.claimedLane = this.spillLane;
+        this.writeMetrics.recordSpilled();
+        return WriteStatus.SPILLED;
+    }
+
+    private WriteStatus block() {
+        long start = this.nanoClock.nanoTime();
+        // Before checking again, so a strategy which parks can't miss the writer freeing a slot
+        this.blockedWriter = Thread.currentThread();
+        try {
+            while (this.dataLane.isFull()) {
+                if (this.socketState == SocketState.CLOSED) {
+                    return WriteStatus.CLOSED; // Nobody's coming to drain it
+                }
+                this.overflowIdleStrategy.idle();
             }
+        } finally {
+            this.blockedWriter = null;
+        }
+        this.overflowIdleStrategy.reset();
+        this.writeMetrics.recordBlocked(this.nanoClock.nanoTime() - start);
+        return WriteStatus.OK;
+    }
+
+    private static void checkLength(int length) {
+        if (length > (SEND_BUF - 12)) { // 12 seems like a reasonable guess for the header size
+            throw new IllegalArgumentException("Write input exceeds max length");
+        }
+    }
+
+    /**
+     * Hand an encoded slot to the writer thread. Encoding straight into the claimed slot (rather than through
+     * enqueue and a lambda) keeps writes allocation free.
+     */
+    private void publish(CircularFlyweightQueue<ByteBuffer> lane, ByteBuffer buffer) {
+        buffer.flip();
+        lane.publish();
+
+        Thread writer = this.writerThread;
+        if (writer != null) {
+            this.writerIdleStrategy.wake(writer);
+        }
+    }
+
+    /**
+     * Inline writes encode and send the frame on the calling thread, holding the inline write lock. The lock
+     * serializes callers, so an auto-pong from the poll thread can't interleave its bytes with a data frame sent
+     * from somewhere else. Uncontended, which is the usual case with one thread doing all the sending, it's just
+     * a couple of CASes.
+     * @return false if the frame shouldn't be sent
+     */
+    private boolean startInlineWrite() {
+        if (this.writeTransport == null || this.socketState == SocketState.CLOSED) {
+            return false; // Same as the writer thread: nothing goes out once we're closed
+        }
+        this.inlineWriteBuffer.clear();
+        return true;
+    }
+
+    private void finishInlineWrite() {
+        Transport out = this.writeTransport;
+        if (out == null) {
+            return;
+        }
+
+        try {
+            int bytes = this.inlineWriteBuffer.position();
+            out.write(this.inlineWriteBuffer.flip());
+            this.writeMetrics.recordWrite(1, bytes);
+        } catch (IOException e) {
+            logger.error("Error received writing output", e);
+            recordWriteError(e);
+            if (listener != null) listener.onWriteError(e);
+        }
+    }
 
-            DataFrame encoder = draft.getDataFrame().wrap(buffer);
-            encoder.encode(opcode, bytes);
-            buffer.flip();
-        });
+    /**
+     * Send a binary message to the server. If the write queue is full, what happens depends on the builder's
+     * {@link OverflowPolicy}. Call this from one thread at a time.
+     * @param bytes the bytes to send
+     * @return whether the message was queued (or sent, with inline writes)
+     */
+    public WriteStatus write(byte[] bytes) {
+        return write(Opcode.BINARY, bytes, 0);
     }
 
     /**
-     * Send a binary message to the server.
+     * Send a binary message to the server, paced as `messageClass` by the builder's {@link RatePacer}.
      * @param bytes the bytes to send
+     * @param messageClass the message class to pace the write by, 0 for the default
+     * @return whether the message was queued (or sent, with inline writes), or {@link WriteStatus#THROTTLED}
      */
-    public void write(byte[] bytes) {
-        write(Opcode.BINARY, bytes);
+    public WriteStatus write(byte[] bytes, int messageClass) {
+        return write(Opcode.BINARY, bytes, messageClass);
     }
 
     /**
      * Send a text message to the server. Note, this is slow as the String is
      * first decoded into a new byte array and then copied into the write buffer (an allocation).
      * @param message the message to send
+     * @return whether the message was queued (or sent, with inline writes)
      */
-    public void write(String message) {
-        write(Opcode.TEXT, message.getBytes(StandardCharsets.UTF_8));
+    public WriteStatus write(String message) {
+        return write(Opcode.TEXT, message.getBytes(StandardCharsets.UTF_8), 0);
     }
 
     /**
-     * Send a ping to the server.
+     * Send a text message to the server, paced as `messageClass` by the builder's {@link RatePacer}. Same
+     * allocation as {@link #write(String)}.
+     * @param message the message to send
+     * @param messageClass the message class to pace the write by, 0 for the default
+     * @return whether the message was queued (or sent, with inline writes), or {@link WriteStatus#THROTTLED}
      */
-    public void ping() {
-        write(Opcode.PING, EMPTY.array());
+    public WriteStatus write(String message, int messageClass) {
+        return write(Opcode.TEXT, message.getBytes(StandardCharsets.UTF_8), messageClass);
     }
 
-    private void pong() {
-        write(Opcode.PONG, EMPTY.array());
+    /**
+     * Send a ping to the server carrying the current time from the builder's {@link NanoClock}. When the server echoes it back,
+     * the round trip is recorded in {@link #getRoundTripHistogram()} and passed to
+     * {@link WebSocketListener#onPong(long)}. With the writer thread, the time spent in the write queue counts
+     * towards the round trip. Pings skip ahead of queued data frames, so that's only the wait for the write
+     * in progress.
+     * <p />
+     * Call this from one thread at a time.
+     * @return {@link WriteStatus#REJECTED} if the control lane is full
+     */
+    public WriteStatus ping() {
+        this.pingPayload.putLong(0, this.nanoClock.nanoTime());
+        return writeControl(Opcode.PING, this.pingPayload);
+    }
+
+    /**
+     * RFC 6455 5.5.3: the pong carries the same application data as the ping it answers.
+     */
+    private void pong(ByteBuffer payload) {
+        writeControl(Opcode.PONG, payload);
+    }
+
+    private void onPong(ByteBuffer payload) {
+        if (payload.remaining() != Long.BYTES) {
+            logger.trace("Pong received from server");
+            return; // Unsolicited, or an answer to someone else's ping
+        }
+
+        long roundTrip = this.nanoClock.nanoTime() - payload.getLong(payload.position());
+        if (roundTrip < 0 || roundTrip > MAX_ROUND_TRIP_NANOS) {
+            return;
+        }
+
+        this.roundTrips.record(roundTrip);
+        if (listener != null) listener.onPong(roundTrip);
     }
 
     /**
@@ -162,48 +746,148 @@ public class WebSocketClient implements AutoCloseable {
      * @throws IOException if the socket's IO throws an exception
      */
     public ByteBuffer poll() throws IOException {
+        return poll(true);
+    }
+
+    /**
+     * A non-blocking version of {@link #poll()}. Only reads from the socket if it reports bytes as available,
+     * and returns an empty buffer if a full frame isn't ready yet. Partially received frames are kept
+     * around for the next call.
+     * <p />
+     * Note, this relies on {@link Transport#readNow}, which for plain sockets is {@link InputStream#available()}.
+     * That's fine for the default wss:// sockets ({@link SSLEngineSocketFactory}), but some sockets (JDK's
+     * SSLSocket for one) only report bytes which are already decrypted, so prefer {@link #poll()} on those.
+     * <p />
+     * A server hanging up without a close frame disconnects the client (see {@link WebSocketListener#onDisconnect()}),
+     * but only if the transport can see it without blocking. wss:// sockets,
+     * {@link group.gnometrading.websockets.transport.ChannelTransport} and
+     * {@link group.gnometrading.websockets.transport.InMemoryPipe} can. A plain ws:// {@link Socket} can't: its available() is 0 at the end of the stream
+     * too, so there it's only noticed by {@link #poll()}, a failed write, or the timeout with automatic reconnect.
+     *
+     * @return a raw ByteBuffer containing the payload from the server, or an empty buffer if none is ready
+     * @throws IOException if the socket's IO throws an exception
+     */
+    public ByteBuffer tryPoll() throws IOException {
+        return poll(false);
+    }
+
+    /**
+     * Poll without blocking in the socket, idling with `idleStrategy` between attempts. Returns once a frame
+     * is received or the socket is no longer open, which includes the server hanging up where the transport can
+     * see it. See {@link #tryPoll()} for which can.
+     * <p />
+     * Nothing wakes the polling thread when bytes arrive, so the strategy has to come back by itself: not
+     * {@link BlockingIdleStrategy}, which is only for threads something else wakes (the writer thread). To block
+     * until a frame arrives, use {@link #poll()}.
+     *
+     * @param idleStrategy what to do while waiting for a frame
+     * @return a raw ByteBuffer containing the payload from the server, or an empty buffer if the socket closed
+     * @throws IOException if the socket's IO throws an exception
+     * @throws IllegalArgumentException if `idleStrategy` is a {@link BlockingIdleStrategy}
+     */
+    public ByteBuffer poll(IdleStrategy idleStrategy) throws IOException {
+        if (idleStrategy instanceof BlockingIdleStrategy) {
+            throw new IllegalArgumentException("BlockingIdleStrategy would never wake up, use poll() to block");
+        }
+
+        ByteBuffer payload;
+        while ((payload = poll(false)) == EMPTY && socketState == SocketState.OPEN) {
+            idleStrategy.idle();
+        }
+        idleStrategy.reset();
+        return payload;
+    }
+
+    private ByteBuffer poll(boolean blocking) throws IOException {
+        if (this.timingFrame) {
+            finishFrame();
+        }
+
+        if (this.streamRemaining > 0 && socketState == SocketState.OPEN && !stream(blocking)) {
+            return EMPTY; // Still waiting on the rest of a large payload
+        }
+
+        // Loop rather than recurse, a snapshot (or a heartbeat) can be followed by any number more
+        ByteBuffer payload;
+        while ((payload = pollFrame(blocking)) == STREAMED || payload == FILTERED);
+        return payload;
+    }
+
+    private ByteBuffer pollFrame(boolean blocking) throws IOException {
         if (socketState != SocketState.OPEN) {
             return EMPTY;
         }
 
         this.readBuffer.clear();
         if (frameOffset > (RECV_BUF >> 1)) {
-            System.arraycopy(this.readBuffer.array(), frameOffset, this.readBuffer.array(), 0, readOffset - frameOffset);
-            readOffset -= frameOffset;
-            frameOffset = 0;
+            compact();
         }
 
         this.frame.wrap(this.readBuffer, frameOffset, readOffset - frameOffset);
         while (this.frame.isIncomplete()) {
-            int remaining = RECV_BUF - readOffset;
-            if (remaining <= 0) {
-                throw new BufferOverflowException();
+            if (this.streamHandler != null && !this.streamingFrame.isHeaderIncomplete() && this.streamingFrame.getPayloadLength() > this.streamThreshold) {
+                startStream();
+                return stream(blocking) ? STREAMED : EMPTY;
             }
 
-            int readBytes = this.inputStream.read(this.readBuffer.array(), readOffset, remaining);
-            if (readBytes < 0) {
-                return EMPTY; // Closed while polling
+            if (readOffset == RECV_BUF) {
+                if (frameOffset == 0) {
+                    throw new BufferOverflowException(); // Stream it with Builder#withPayloadStreaming
+                }
+                compact();
             }
 
-            if (automaticReconnect) {
-                // Use wall-clock due to separate threads most likely on different cores
-                // System#nanoTime is slower and is not meant for cross-core
-                lastMessageMillis = System.currentTimeMillis();
+            int readBytes = read(blocking);
+            if (readBytes <= 0) {
+                return EMPTY; // Closed while polling, or nothing ready yet
             }
-
-            readOffset += readBytes;
             this.frame.wrap(this.readBuffer, frameOffset, readOffset - frameOffset);
         }
 
+        if (this.streamHandler != null && this.streamingFrame.getPayloadLength() > this.streamThreshold) {
+            // Arrived whole anyway, but stream it so the handler sees every large frame
+            startStream();
+            return stream(blocking) ? STREAMED : EMPTY;
+        }
+
         if (this.frame.isFragment()) {
             throw new IllegalStateException("Sorry, I haven't implemented fragments yet.");
         }
         frameOffset += this.frame.length();
 
+        if (this.slowFrameNanos > 0 && WebSocketEvents.SLOW_FRAME_PROBE.isEnabled()) {
+            this.timingFrame = true;
+            this.frameStartNanos = this.nanoClock.nanoTime();
+            this.frameOpcode = this.frame.getOpcode();
+            // A frame which can't say how long its payload is before handing it out gets recorded as -1
+            this.framePayloadLength = this.streamingFrame != null ? this.streamingFrame.getPayloadLength() : -1;
+        }
+
         switch (this.frame.getOpcode()) {
-            case TEXT:
-            case BINARY:
-                return this.frame.getPayloadData();
+            case TEXT: {
+                this.framesRead++;
+                this.lastOpcode = Opcode.TEXT;
+                ByteBuffer payload = this.frame.getPayloadData();
+                if (this.frameFilter != null && this.frameFilter.drop(payload)) {
+                    return FILTERED; // Before validating, no point checking what we're throwing away
+                }
+                if (this.validateUtf8 && !Utf8CharSequence.isValid(payload)) {
+                    // RFC 6455 8.1: invalid UTF-8 in a text frame fails the connection
+                    logger.trace("Invalid UTF-8 received in text frame");
+                    this.close();
+                    throw new InvalidFrameException(StatusCode.INCONSISTENT_DATA, "Text frame contains invalid UTF-8");
+                }
+                return payload;
+            }
+            case BINARY: {
+                this.framesRead++;
+                this.lastOpcode = Opcode.BINARY;
+                ByteBuffer payload = this.frame.getPayloadData();
+                if (this.frameFilter != null && this.frameFilter.drop(payload)) {
+                    return FILTERED;
+                }
+                return payload;
+            }
             case CLOSING: {
                 if (listener != null) listener.onClose();
                 logger.trace("Close received from server");
@@ -211,35 +895,147 @@ public class WebSocketClient implements AutoCloseable {
                 return EMPTY;
             }
             case PING: {
-                pong();
-                return poll();
+                pong(this.frame.getPayloadData());
+                return poll(blocking);
             }
             case PONG: {
-                logger.trace("Pong received from server");
-                return poll();
+                onPong(this.frame.getPayloadData());
+                return poll(blocking);
             }
             default:
                 throw new IllegalStateException("Unhandled opcode: " + this.frame.getOpcode());
         }
     }
 
+    private void compact() {
+        System.arraycopy(this.readBuffer.array(), frameOffset, this.readBuffer.array(), 0, readOffset - frameOffset);
+        readOffset -= frameOffset;
+        frameOffset = 0;
+    }
+
+    /**
+     * Read whatever the transport has into the read buffer after `readOffset`.
+     * @return the bytes read, 0 if nothing was ready, or -1 if the transport closed
+     */
+    private int read(boolean blocking) throws IOException {
+        this.readView.limit(RECV_BUF).position(readOffset);
+        int readBytes = blocking ? this.transport.read(this.readView) : this.transport.readNow(this.readView);
+        if (readBytes < 0) {
+            onEndOfStream();
+            return readBytes;
+        } else if (readBytes == 0) {
+            return 0;
+        }
+
+        if (receiveTimestamps) {
+            lastReceiveNanos = nanoClock.nanoTime();
+        }
+        if (automaticReconnect) {
+            // Wall-clock, and by default a cached one, so this is a load rather than a call into the OS
+            lastMessageMillis = epochClock.time();
+        }
+
+        bytesRead += readBytes;
+        readOffset += readBytes;
+        return readBytes;
+    }
+
+    /**
+     * The server hung up without a close frame. Disconnect so poll() stops, and with automatic reconnect have the
+     * timeout thread reconnect now rather than once the timeout's up.
+     */
+    private void onEndOfStream() throws IOException {
+        logger.trace("Server closed the connection without a close frame");
+        this.disconnect();
+        if (listener != null) listener.onDisconnect();
+        if (this.automaticReconnect && this.timeoutThread != null) {
+            this.reconnectRequested = true;
+            LockSupport.unpark(this.timeoutThread);
+        }
+    }
+
+    private void startStream() {
+        if (this.frame.isFragment()) {
+            throw new IllegalStateException("Sorry, I haven't implemented fragments yet.");
+        }
+
+        Opcode opcode = this.frame.getOpcode();
+        if (opcode != Opcode.TEXT && opcode != Opcode.BINARY) {
+            throw new InvalidFrameException(StatusCode.PROTOCOL_ERROR, "Control frame payloads can't be over 125 bytes");
+        }
+
+        this.framesRead++;
+        this.lastOpcode = opcode;
+        this.streamRemaining = this.streamingFrame.getPayloadLength();
+        this.streamOffset = 0;
+        this.streamMasked = this.streamingFrame.isMasked();
+        this.streamKey = this.streamMasked ? this.streamingFrame.getMaskingKey() : 0;
+        frameOffset += this.streamingFrame.headerLength();
+        this.streamHandler.onStart(opcode, this.streamRemaining);
+    }
+
+    /**
+     * Hand the large payload in progress to the stream handler a read at a time, so it never has to fit in the
+     * read buffer. Unmasks each chunk as it goes.
+     * @return true once the whole payload has been delivered, false if (non-blocking) it's waiting on more bytes
+     */
+    private boolean stream(boolean blocking) throws IOException {
+        while (this.streamRemaining > 0) {
+            int available = readOffset - frameOffset;
+            if (available == 0) {
+                // Everything buffered has been handed out, so start again from the top of the buffer
+                readOffset = frameOffset = 0;
+                if (read(blocking) <= 0) {
+                    return false;
+                }
+                continue;
+            }
+
+            int length = (int) Math.min(available, this.streamRemaining);
+            this.readBuffer.clear(); // The last chunk's limit may be in the way
+            if (this.streamMasked) {
+                this.streamingFrame.unmask(this.readBuffer, frameOffset, length, this.streamKey, this.streamOffset);
+            }
+            this.readBuffer.position(frameOffset).limit(frameOffset + length);
+            frameOffset += length;
+            this.streamOffset += length;
+            this.streamRemaining -= length;
+            this.streamHandler.onChunk(this.readBuffer);
+        }
+
+        this.streamHandler.onEnd();
+        return true;
+    }
+
+    /**
+     * Drop the connection and open a new one. Unlike {@link #close()} followed by {@link #connect()}, this keeps the
+     * writer and timeout threads running and keeps queued writes, which go out once the new connection (and its
+     * on-connect messages) are up.
+     */
     public void reconnect() throws IOException {
-        this.close();
-        this.connect();
+        WebSocketEvents.Reconnect event = new WebSocketEvents.Reconnect();
+        event.begin();
+        try {
+            this.disconnect();
+            this.connect();
+            event.succeeded = true;
+        } finally {
+            if (event.shouldCommit()) {
+                event.uri = this.uri.toString();
+                event.commit();
+            }
+        }
     }
 
     /**
-     * Close the web socket connection and accompanying writer thread.
+     * Close the web socket connection, stop the writer and timeout threads, and throw away any queued writes.
      * @throws IOException if any of the resources do. We don't throw one :)
      */
     @Override
     public void close() throws IOException {
         // Don't care about flushing write buffer if this is called.
-        this.socketState = SocketState.CLOSED;
-        if (this.socket != null) {
-            this.socket.close();
-            this.socket = null;
-        }
+        this.workersRunning = false;
+        this.disconnect();
 
         if (this.writerThread != null) {
             this.writerThread.interrupt();
@@ -250,55 +1046,193 @@ public class WebSocketClient implements AutoCloseable {
         }
 
         if (this.timeoutThread != null) {
-            this.timeoutThread.interrupt();
-            try {
-                this.timeoutThread.join();
-            } catch (InterruptedException ignored) {}
+            if (this.timeoutThread != Thread.currentThread()) {
+                this.timeoutThread.interrupt();
+                try {
+                    this.timeoutThread.join();
+                } catch (InterruptedException ignored) {}
+            }
             this.timeoutThread = null;
         }
 
-        this.writeQueue.clear();
+        this.controlLane.clear();
+        this.dataLane.clear();
+        this.unsentFrames = 0;
+        this.discardUnsent = false;
+        this.reconnectRequested = false;
+        if (this.spillLane != null) {
+            this.spillLane.clear();
+        }
+    }
+
+    /**
+     * Close the transport and forget what was half read, leaving the threads and queued writes for the next connection.
+     */
+    private void disconnect() throws IOException {
+        boolean wasOpen = this.socketState == SocketState.OPEN;
+        this.socketState = SocketState.CLOSED;
+        this.writeTransport = null;
+        Thread blocked = this.blockedWriter;
+        if (blocked != null) {
+            this.overflowIdleStrategy.wake(blocked); // So it sees we're closed
+        }
+        if (this.transport != null) {
+            this.transport.close();
+            this.transport = null;
+        }
+
+        if (wasOpen) {
+            FlightRecorder.removePeriodicEvent(this.throughputHook);
+            WebSocketEvents.Close event = new WebSocketEvents.Close();
+            if (event.shouldCommit()) {
+                event.uri = this.uri.toString();
+                event.commit();
+            }
+        }
+
         this.readOffset = this.frameOffset = 0;
+        this.streamRemaining = 0;
     }
 
     private class WebSocketTimeoutThread implements Runnable {
         @Override
         public void run() {
-            while (!Thread.interrupted() && socketState == SocketState.OPEN) {
-                long millis = System.currentTimeMillis() - lastMessageMillis;
-                if (millis > timeoutInMillis) {
-                    try {
-                        logger.trace("Attempting to reconnect due to timeout");
-                        if (listener != null) {
-                            listener.onTimeout();
-                        }
-                        reconnect();
-                    } catch (IOException ignore) {}
+            while (!Thread.interrupted() && workersRunning) {
+                // Closed as well as open: if reconnecting failed, we try again once the timeout's up again
+                SocketState state = socketState;
+                long millis = epochClock.time() - lastMessageMillis;
+                if (state == SocketState.CONNECTING) {
+                    // Someone else is already on it
+                } else if (reconnectRequested) {
+                    reconnectRequested = false;
+                    logger.trace("Attempting to reconnect after the server hung up");
+                    attemptReconnect();
+                } else if (millis > timeoutInMillis) {
+                    WebSocketEvents.Timeout event = new WebSocketEvents.Timeout();
+                    if (event.shouldCommit()) {
+                        event.uri = uri.toString();
+                        event.silence = millis;
+                        event.commit();
+                    }
+                    logger.trace("Attempting to reconnect due to timeout");
+                    if (listener != null) {
+                        listener.onTimeout();
+                    }
+                    attemptReconnect();
                 }
+                LockSupport.parkNanos(TIMEOUT_CHECK_NANOS);
+            }
+        }
+
+        private void attemptReconnect() {
+            try {
+                reconnect();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Automatic reconnect failed", e);
+                lastMessageMillis = epochClock.time();
             }
         }
     }
 
     private class WebSocketWriterThread implements Runnable {
 
+        private Transport failedOn; // The connection the unsent batch didn't go out on
+
         @Override
         public void run() {
-            while (!Thread.interrupted() && socketState == SocketState.OPEN) {
-                if (!writeQueue.isEmpty()) {
-                    writeQueue.pop(this::runWrite);
-                }
+            writerIdleStrategy.reset();
+            while (!Thread.interrupted() && workersRunning) {
+                // Between connections the queue just fills up (or overflows) until we're open again
+                writerIdleStrategy.idle(socketState == SocketState.OPEN ? drain() : 0);
             }
         }
 
-        private void runWrite(ByteBuffer buffer) {
-            // We're responsible for resetting this buffer to be usable by the parent thread's write function
+        /**
+         * Drain every ready slot (up to the max batch) into one contiguous buffer and send it in a single
+         * write. With TCP_NODELAY that's one packet and one syscall for the whole burst rather than per frame.
+         * Control frames go first, then data, then anything which spilled over.
+         * <p />
+         * The slots are released as they're copied (they have to be, to catch a drop-oldest underneath us), so a
+         * batch which fails to go out only exists in the batch buffer. It stays there and goes out first on the
+         * next connection, ahead of anything queued since, rather than going down with this one.
+         */
+        private int drain() {
+            if (discardUnsent) {
+                discardUnsent = false;
+                keep(0, null);
+            }
+
+            Transport out = writeTransport;
+            int batch = unsentFrames;
+            if (batch > 0) {
+                if (out == null || out == failedOn) {
+                    return 0; // Still the connection it failed on
+                }
+                writeBatchBuffer.position(0); // The limit is still the end of the batch
+            } else {
+                writeBatchBuffer.clear();
+                batch = copy(controlLane, maxWriteBatch);
+                batch += copy(dataLane, maxWriteBatch - batch);
+                if (spillLane != null && dataLane.isEmpty()) {
+                    // Spilled frames are all newer than anything in the data lane, so only once it's empty
+                    batch += copy(spillLane, maxWriteBatch - batch);
+                }
+                if (batch == 0) {
+                    return 0;
+                }
+                writeBatchBuffer.flip();
+            }
+
+            if (out == null) {
+                keep(batch, null); // Closed underneath us
+                return batch;
+            }
+
             try {
-                socket.getOutputStream().write(buffer.array(), 0, buffer.limit());
+                int bytes = writeBatchBuffer.limit();
+                out.write(writeBatchBuffer);
+                unsentFrames = 0;
+                failedOn = null;
+                writeMetrics.recordWrite(batch, bytes);
             } catch (IOException e) {
                 logger.error("Error received writing output", e);
+                keep(batch, out);
+                recordWriteError(e);
                 if (listener != null) listener.onWriteError(e);
-            } finally {
-                buffer.clear();
+            }
+            return batch;
+        }
+
+        private void keep(int batch, Transport out) {
+            failedOn = out;
+            unsentFrames = batch;
+        }
+
+        /**
+         * Copy up to `max` frames from the lane onto the batch. The producer may drop the oldest frame while we're
+         * copying (see {@link OverflowPolicy#DROP_OLDEST}), in which case the release fails and we copy again.
+         */
+        private int copy(CircularFlyweightQueue<ByteBuffer> lane, int max) {
+            int mark = writeBatchBuffer.position();
+            while (true) {
+                long front = lane.front();
+                int count = Math.min(lane.size(), max);
+                if (count <= 0) {
+                    return 0;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer buffer = lane.peek(front + i);
+                    writeBatchBuffer.put(buffer.array(), 0, buffer.limit());
+                }
+                if (lane.release(front, count)) {
+                    Thread blocked = blockedWriter;
+                    if (blocked != null) {
+                        overflowIdleStrategy.wake(blocked);
+                    }
+                    return count;
+                }
+                writeBatchBuffer.position(mark);
             }
         }
     }
@@ -306,11 +1240,34 @@ public class WebSocketClient implements AutoCloseable {
     public static class Builder { // Lombok would be nice... but we're lightweight
         private URI uri;
         private SocketFactory socketFactory;
+        private TransportFactory transportFactory;
+        private final SocketOptions socketOptions = new SocketOptions();
+        private AddressCache addressCache;
         private boolean automaticReconnect = false;
         private int writeQueueCapacity = 10;
+        private int controlQueueCapacity = 4;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+        private IdleStrategy overflowIdleStrategy;
+        private int spillCapacity = 64;
         private int timeoutInMillis = 5_000;
         private WebSocketListener listener;
         private Draft draft;
+        private IdleStrategy writerIdleStrategy;
+        private int maxWriteBatch = 16;
+        private boolean inlineWrites = false;
+        private boolean validateUtf8 = false;
+        private ThreadFactory threadFactory;
+        private CpuSet threadAffinity;
+        private PayloadStreamHandler streamHandler;
+        private int streamThreshold;
+        private WarmUp warmUp;
+        private EpochClock epochClock;
+        private NanoClock nanoClock;
+        private boolean receiveTimestamps = false;
+        private long slowFrameNanos = 0;
+        private FrameFilter frameFilter;
+        private final List<byte[]> onConnectMessages = new ArrayList<>();
+        private RatePacer ratePacer;
 
         public Builder() {}
 
@@ -324,6 +1281,66 @@ public class WebSocketClient implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Connect through something other than a {@link Socket}: an NIO channel, a Unix domain socket to a local
+         * TLS terminating proxy (see {@link group.gnometrading.websockets.transport.ChannelTransport}), an
+         * {@link group.gnometrading.websockets.transport.InMemoryPipe}, or your own kernel bypass stack. The socket
+         * factory and socket options are ignored when this is set.
+         */
+        public Builder withTransportFactory(TransportFactory transportFactory) {
+            this.transportFactory = transportFactory;
+            return this;
+        }
+
+        /**
+         * Set TCP_NODELAY on the socket. Defaults to true; Nagle's algorithm only ever adds latency for us.
+         */
+        public Builder withTcpNoDelay(boolean tcpNoDelay) {
+            this.socketOptions.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Set SO_RCVBUF on the socket before connecting (so it affects the advertised TCP window).
+         * 0 leaves the OS default.
+         */
+        public Builder withReceiveBufferSize(int receiveBufferSize) {
+            this.socketOptions.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * Set SO_SNDBUF on the socket. 0 leaves the OS default.
+         */
+        public Builder withSendBufferSize(int sendBufferSize) {
+            this.socketOptions.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        /**
+         * Set how long to wait for the TCP connect. 0 waits as long as the OS lets it.
+         */
+        public Builder withConnectTimeoutInMillis(int connectTimeoutInMillis) {
+            this.socketOptions.connectTimeoutInMillis = connectTimeoutInMillis;
+            return this;
+        }
+
+        /**
+         * Bind the socket to a local address (i.e. a specific NIC) before connecting.
+         */
+        public Builder withLocalAddress(InetSocketAddress localAddress) {
+            this.socketOptions.localAddress = localAddress;
+            return this;
+        }
+
+        /**
+         * Set where host names are resolved from. Defaults to {@link AddressCache#getDefault()}.
+         */
+        public Builder withAddressCache(AddressCache addressCache) {
+            this.addressCache = addressCache;
+            return this;
+        }
+
         public Builder withAutomaticReconnect(boolean automaticReconnect) {
             this.automaticReconnect = automaticReconnect;
             return this;
@@ -334,36 +1351,265 @@ public class WebSocketClient implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Set the capacity of the lane pings and pongs are queued in, ahead of the data. Defaults to 4; a pong
+         * which doesn't fit is dropped.
+         */
+        public Builder withControlQueueCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.controlQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Set what a write does when the write queue is full. Defaults to {@link OverflowPolicy#REJECT}, so check
+         * the {@link WriteStatus} of writes which matter. Ignored with inline writes, which never queue.
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Set how a write waits for space with {@link OverflowPolicy#BLOCK}. Defaults to a {@link BackoffIdleStrategy}.
+         * The writer thread wakes the write through {@link IdleStrategy#wake(Thread)} as it frees up slots, so
+         * strategies which park until woken work too.
+         */
+        public Builder withOverflowIdleStrategy(IdleStrategy overflowIdleStrategy) {
+            this.overflowIdleStrategy = overflowIdleStrategy;
+            return this;
+        }
+
+        /**
+         * Set the capacity of the overflow ring for {@link OverflowPolicy#SPILL}. Defaults to 64 frames.
+         */
+        public Builder withSpillCapacity(int spillCapacity) {
+            if (spillCapacity <= 0) {
+                throw new IllegalArgumentException("spillCapacity must be positive");
+            }
+            this.spillCapacity = spillCapacity;
+            return this;
+        }
+
         public Builder withTimeoutInMillis(int timeoutInMillis) {
             this.timeoutInMillis = timeoutInMillis;
             return this;
         }
 
+        /**
+         * Set the clock timeouts are measured with. Defaults to the shared {@link CachedClock#getDefault()} with
+         * automatic reconnection, so the poll thread reads a field rather than calling into the OS after every read.
+         */
+        public Builder withEpochClock(EpochClock epochClock) {
+            this.epochClock = epochClock;
+            return this;
+        }
+
+        /**
+         * Set the clock for ping round trips, receive timestamps and time spent blocked on a full queue. Defaults to
+         * {@link SystemClock}; a {@link CachedClock} is cheaper to read but only as precise as its tick.
+         */
+        public Builder withNanoClock(NanoClock nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        /**
+         * Stamp every read with the {@link NanoClock}, see {@link WebSocketClient#getLastReceiveNanos()}. Off by
+         * default since it's a clock read per read.
+         */
+        public Builder withReceiveTimestamps(boolean receiveTimestamps) {
+            this.receiveTimestamps = receiveTimestamps;
+            return this;
+        }
+
+        /**
+         * Emit a group.gnometrading.websockets.SlowFrame Flight Recorder event for any frame which takes longer than
+         * `threshold` from being decoded to the next call to poll, i.e. including what you did with it. Frames are
+         * only timed while a recording has the event enabled, and only slow frames allocate an event. Times come
+         * from the {@link NanoClock}, so a {@link CachedClock} won't catch anything under its tick.
+         */
+        public Builder withSlowFrameThreshold(long threshold, TimeUnit unit) {
+            if (threshold <= 0) {
+                throw new IllegalArgumentException("threshold must be positive");
+            }
+            this.slowFrameNanos = unit.toNanos(threshold);
+            return this;
+        }
+
+        /**
+         * Drop text and binary frames matching `frameFilter` inside poll(), so they never reach you. Checked after
+         * unmasking and before UTF-8 validation. Streamed payloads aren't filtered.
+         */
+        public Builder withFrameFilter(FrameFilter frameFilter) {
+            this.frameFilter = frameFilter;
+            return this;
+        }
+
+        /**
+         * Refuse data frames which would go over the venue's rate limits, with {@link WriteStatus#THROTTLED}, before
+         * they're queued or sent. See {@link RatePacer}.
+         */
+        public Builder withRatePacer(RatePacer ratePacer) {
+            this.ratePacer = ratePacer;
+            return this;
+        }
+
+        /**
+         * Send `message` as a text frame straight after every handshake, first time and every reconnect, ahead of
+         * any queued writes. Use it for logins and subscriptions, so they don't have to be rebuilt and queued again
+         * each time. Messages go out in the order they're added.
+         */
+        public Builder withOnConnectMessage(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            checkLength(bytes.length);
+            this.onConnectMessages.add(bytes);
+            return this;
+        }
+
         public Builder withListener(WebSocketListener listener) {
             this.listener = listener;
             return this;
         }
 
+        /**
+         * For {@link WebSocketPublisher}, which chains whatever listener was already set.
+         */
+        WebSocketListener getListener() {
+            return this.listener;
+        }
+
         public Builder withDraft(Draft draft) {
             this.draft = draft;
             return this;
         }
 
+        /**
+         * Set how the writer thread idles while the write queue is empty. Defaults to a
+         * {@link BackoffIdleStrategy}, which parks when idle and is woken up by writes. Use a
+         * {@link group.gnometrading.websockets.idle.BusySpinIdleStrategy} if you'd rather burn a core.
+         * The strategy is stateful, so give each client its own instance.
+         */
+        public Builder withWriterIdleStrategy(IdleStrategy writerIdleStrategy) {
+            this.writerIdleStrategy = writerIdleStrategy;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued frames the writer thread coalesces into a single socket write.
+         * Capped at the write queue capacity.
+         */
+        public Builder withMaxWriteBatch(int maxWriteBatch) {
+            if (maxWriteBatch <= 0) {
+                throw new IllegalArgumentException("maxWriteBatch must be positive");
+            }
+            this.maxWriteBatch = maxWriteBatch;
+            return this;
+        }
+
+        /**
+         * Send frames directly on the thread which calls write() instead of handing them to the writer thread.
+         * This skips the cross-core hand-off, which is what you want when the (pinned) poll thread is also the
+         * one sending orders. Writes from any thread are serialized, including the auto-pongs sent from poll().
+         * No writer thread is started in this mode, and a write blocks its caller for the duration of the send.
+         */
+        public Builder withInlineWrites(boolean inlineWrites) {
+            this.inlineWrites = inlineWrites;
+            return this;
+        }
+
+        /**
+         * Validate the payload of every TEXT frame is UTF-8, as RFC 6455 requires. An invalid frame closes the
+         * connection and poll() throws an {@link InvalidFrameException}. Off by default since it's a pass over
+         * every text payload; if you decode with {@link Utf8CharSequence#decodeStrict} anyway, leave this off.
+         */
+        public Builder withUtf8Validation(boolean validateUtf8) {
+            this.validateUtf8 = validateUtf8;
+            return this;
+        }
+
+        /**
+         * Set where the writer and timeout threads come from, e.g. to name them, set their priority, or pin them
+         * with your own affinity library. Threads are created on the first connect and carry on across reconnects
+         * until close(). Defaults to daemon threads named websocket-writer and websocket-timeout.
+         */
+        public Builder withThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Pin the writer and timeout threads to `cpus` (Linux only, see {@link group.gnometrading.websockets.affinity.LinuxAffinity}).
+         * Point this at your housekeeping cores so the library's threads stay off the isolated ones your poll
+         * threads run on. Works with or without {@link #withThreadFactory(ThreadFactory)}.
+         */
+        public Builder withThreadAffinity(CpuSet cpus) {
+            this.threadAffinity = cpus;
+            return this;
+        }
+
+        /**
+         * Hand the payloads of frames over `threshold` bytes to `handler` in chunks as they arrive, rather than
+         * waiting for the whole frame. The read buffer stays at {@link #RECV_BUF} however large the frames get, and
+         * a parser can get going on a snapshot while it's still downloading. poll() carries on to the next frame
+         * once a streamed payload has been delivered.
+         * <p />
+         * Without this, a frame which doesn't fit in the read buffer makes poll() throw a BufferOverflowException.
+         * Streamed text frames aren't UTF-8 validated, and the draft's frames have to implement
+         * {@link StreamingDataFrame} (RFC6455's do), or build() throws an IllegalArgumentException.
+         * @param threshold the largest payload to deliver from poll() as usual, at most RECV_BUF - MAX_HEADER
+         * @param handler where streamed payloads go
+         */
+        public Builder withPayloadStreaming(int threshold, PayloadStreamHandler handler) {
+            if (threshold < 0 || threshold > RECV_BUF - MAX_HEADER) {
+                throw new IllegalArgumentException("threshold must be between 0 and " + (RECV_BUF - MAX_HEADER));
+            }
+            this.streamThreshold = threshold;
+            this.streamHandler = handler;
+            return this;
+        }
+
+        /**
+         * Run `warmUp` on the thread which first calls connect(), before the socket is opened, so the read path is
+         * compiled by the time the first live frame arrives. See {@link #getWarmUpReport()} for how it went.
+         */
+        public Builder withWarmUp(WarmUp warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
         public WebSocketClient build() {
             if (uri == null) {
                 throw new IllegalArgumentException("uri cannot be null");
             }
 
             if (socketFactory == null) {
-                socketFactory = uri.getScheme().equals("wss") ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+                // SSLEngine based sockets share a session cache, so reconnects resume rather than redo the handshake
+                socketFactory = uri.getScheme().equals("wss") ? SSLEngineSocketFactory.getDefault() : SocketFactory.getDefault();
             }
 
             if (draft == null) {
                 draft = new RFC6455();
             }
 
-            return new WebSocketClient(uri, socketFactory, writeQueueCapacity, listener, draft, automaticReconnect,
-                    timeoutInMillis);
+            // Idle strategies are stateful, so don't stash the default on the builder
+            IdleStrategy idleStrategy = writerIdleStrategy == null ? new BackoffIdleStrategy() : writerIdleStrategy;
+
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("overflowPolicy cannot be null");
+            }
+
+            return new WebSocketClient(uri, socketFactory, transportFactory, socketOptions.copy(),
+                    addressCache == null ? AddressCache.getDefault() : addressCache, writeQueueCapacity,
+                    controlQueueCapacity, overflowPolicy,
+                    overflowIdleStrategy == null ? new BackoffIdleStrategy() : overflowIdleStrategy, spillCapacity,
+                    listener, draft, automaticReconnect, timeoutInMillis, idleStrategy, maxWriteBatch, inlineWrites,
+                    validateUtf8, threadFactory, threadAffinity, streamHandler, streamThreshold, warmUp,
+                    epochClock != null ? epochClock : automaticReconnect ? CachedClock.getDefault() : SystemClock.INSTANCE,
+                    nanoClock == null ? SystemClock.INSTANCE : nanoClock, receiveTimestamps, slowFrameNanos,
+                    frameFilter, onConnectMessages, ratePacer);
         }
     }
 }
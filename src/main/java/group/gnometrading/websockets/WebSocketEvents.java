@@ -0,0 +1,148 @@
+package group.gnometrading.websockets;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events emitted by {@link WebSocketClient}, all under group.gnometrading.websockets.*. JFR only
+ * records these when a recording enables them, e.g. -XX:StartFlightRecording:settings=profile, and otherwise
+ * they compile down to nothing.
+ */
+final class WebSocketEvents {
+
+    private static final String CATEGORY = "WebSockets";
+
+    /**
+     * Checks whether slow frames are being recorded without allocating an event per frame to ask.
+     */
+    static final SlowFrame SLOW_FRAME_PROBE = new SlowFrame();
+
+    private WebSocketEvents() {}
+
+    @Name("group.gnometrading.websockets.Connect")
+    @Label("WebSocket Connect")
+    @Category(CATEGORY)
+    @Description("Opening the transport and the handshake, see Handshake for the latter on its own")
+    static final class Connect extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("group.gnometrading.websockets.Handshake")
+    @Label("WebSocket Handshake")
+    @Category(CATEGORY)
+    @Description("The HTTP upgrade, from sending the request to validating the response")
+    static final class Handshake extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("group.gnometrading.websockets.Timeout")
+    @Label("WebSocket Timeout")
+    @Category(CATEGORY)
+    @Description("Nothing was received for longer than the timeout, so the client is reconnecting")
+    static final class Timeout extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Silence")
+        @Timespan(Timespan.MILLISECONDS)
+        long silence;
+    }
+
+    @Name("group.gnometrading.websockets.Reconnect")
+    @Label("WebSocket Reconnect")
+    @Category(CATEGORY)
+    static final class Reconnect extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("group.gnometrading.websockets.Close")
+    @Label("WebSocket Close")
+    @Category(CATEGORY)
+    static final class Close extends Event {
+        @Label("URI")
+        String uri;
+    }
+
+    @Name("group.gnometrading.websockets.WriteError")
+    @Label("WebSocket Write Error")
+    @Category(CATEGORY)
+    static final class WriteError extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("group.gnometrading.websockets.SlowFrame")
+    @Label("WebSocket Slow Frame")
+    @Category(CATEGORY)
+    @Description("A frame which took longer than the client's threshold from being decoded to the next poll, " +
+            "i.e. decoding plus whatever the caller did with the payload")
+    @StackTrace(false)
+    static final class SlowFrame extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Opcode")
+        String opcode;
+
+        @Label("Payload Length")
+        @DataAmount
+        int payloadLength;
+
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("group.gnometrading.websockets.Throughput")
+    @Label("WebSocket Throughput")
+    @Category(CATEGORY)
+    @Description("Frames and bytes each way since the last of these for the same connection")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Throughput extends Event {
+        @Label("URI")
+        String uri;
+
+        @Label("Frames Read")
+        long framesRead;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Frames Written")
+        long framesWritten;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Pending Writes")
+        int pendingWrites;
+    }
+}
@@ -2,7 +2,7 @@ package group.gnometrading.websockets;
 
 public interface WebSocketListener {
     /**
-     * Sends when the socket is connected and active. This will send before `SocketState == OPEN`.
+     * Sends when the socket is connected and active, once `SocketState == OPEN`.
      */
     default void onConnect() {}
 
@@ -17,9 +17,22 @@ public interface WebSocketListener {
      */
     default void onClose() {}
 
+    /**
+     * Sends when the server hangs up without a close frame, i.e. poll() read the end of the stream. The client's
+     * already disconnected by then. With automatic reconnect it reconnects straight away on the timeout thread,
+     * otherwise call {@link WebSocketClient#reconnect()} (or close()). Called from the thread calling poll.
+     */
+    default void onDisconnect() {}
+
     /**
      * Sends when the socket is timed out due to no message in a certain amount of milliseconds. This will
      * be followed by an automatic reconnect.
      */
     default void onTimeout() {}
+
+    /**
+     * Sends when the server answers one of our pings. Called from the thread calling poll.
+     * @param roundTripNanos the time from {@link WebSocketClient#ping()} to the pong being read
+     */
+    default void onPong(long roundTripNanos) {}
 }
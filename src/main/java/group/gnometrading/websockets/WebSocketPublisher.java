@@ -0,0 +1,235 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.SocketState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Flow.Publisher} over a {@link WebSocketClient} for consumers which are not latency critical.
+ * <p />
+ * Backpressure is real: when the subscriber has no outstanding demand the reader thread stops calling
+ * {@link WebSocketClient#poll()}, the kernel's receive buffer fills up, and TCP flow control pushes back
+ * on the server. Nothing is queued on our side, so memory stays bounded by the client's receive buffer.
+ * <p />
+ * Payloads are delivered straight from the client's receive buffer (the same view {@code poll()} returns).
+ * The buffer handed to {@code onNext} is only valid until {@code onNext} returns -- copy it if you need to
+ * keep it around. Only a single subscriber is supported.
+ * <p />
+ * The publisher never closes the client. A server close signals {@code onComplete}. A timeout, an IO error,
+ * or the server dropping the socket signals {@code onError}.
+ */
+public class WebSocketPublisher implements Flow.Publisher<ByteBuffer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketPublisher.class);
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final WebSocketClient client;
+    private final int batchSize;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicReference<WebSocketSubscription> subscription = new AtomicReference<>();
+    private volatile boolean serverClosed, timedOut, hungUp;
+
+    /**
+     * Build the client from `builder` with the publisher hooked into its listener. Any listener already
+     * set on the builder will still be called.
+     * @param builder the client builder
+     * @param batchSize the maximum number of frames delivered per demand check
+     */
+    public WebSocketPublisher(WebSocketClient.Builder builder, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        this.batchSize = batchSize;
+        this.client = builder.withListener(new PublisherListener(builder.getListener())).build();
+    }
+
+    public WebSocketPublisher(WebSocketClient.Builder builder) {
+        this(builder, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @return the underlying client. Use this for writing. Do not call poll() on it while subscribed.
+     */
+    public WebSocketClient getClient() {
+        return this.client;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber cannot be null");
+        }
+
+        WebSocketSubscription subscription = new WebSocketSubscription(subscriber);
+        // Two subscribe calls racing each other must not both win
+        if (!this.subscription.compareAndSet(null, subscription)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("WebSocketPublisher only supports a single subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(subscription);
+
+        Thread reader = new Thread(subscription, "websocket-publisher");
+        reader.setDaemon(true);
+        subscription.reader = reader;
+        reader.start();
+    }
+
+    private class WebSocketSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private volatile Thread reader;
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        private WebSocketSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Demand must be positive: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, add) -> {
+                    long sum = current + add;
+                    return sum < 0 ? Long.MAX_VALUE : sum; // Overflow means unbounded, per the spec
+                });
+            }
+            LockSupport.unpark(reader);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(reader);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (client.getSocketState() == SocketState.CLOSED) {
+                    client.connect();
+                }
+
+                while (!cancelled) {
+                    if (invalidRequest != null || timedOut) {
+                        terminate(invalidRequest);
+                        return;
+                    }
+
+                    long requested = demand.get();
+                    if (requested == 0) {
+                        // Not reading is what pushes back on the server; the socket's buffer fills up instead
+                        LockSupport.park(this);
+                        continue;
+                    }
+
+                    int batch = (int) Math.min(requested, batchSize);
+                    int delivered = 0;
+                    while (delivered < batch && !cancelled) {
+                        ByteBuffer payload = client.poll();
+                        if (payload == WebSocketClient.EMPTY) {
+                            terminate(null);
+                            return;
+                        }
+
+                        subscriber.onNext(payload);
+                        delivered++;
+                    }
+
+                    if (requested != Long.MAX_VALUE) {
+                        demand.addAndGet(-delivered);
+                    }
+                }
+            } catch (IOException e) {
+                terminate(timedOut ? new TimeoutException("WebSocket timed out") : e);
+            } catch (Throwable t) {
+                terminate(t);
+            }
+        }
+
+        private void terminate(Throwable error) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+
+            if (error != null) {
+                subscriber.onError(error);
+            } else if (serverClosed) {
+                logger.trace("Completing publisher after server close");
+                subscriber.onComplete();
+            } else if (timedOut) {
+                subscriber.onError(new TimeoutException("WebSocket timed out"));
+            } else if (hungUp) {
+                subscriber.onError(new EOFException("Server hung up without a close frame"));
+            } else if (client.getSocketState() == SocketState.CLOSED) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(new EOFException("Socket closed while polling"));
+            }
+        }
+    }
+
+    private class PublisherListener implements WebSocketListener {
+        private final WebSocketListener delegate;
+
+        private PublisherListener(WebSocketListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onConnect() {
+            if (delegate != null) delegate.onConnect();
+        }
+
+        @Override
+        public void onWriteError(Exception e) {
+            if (delegate != null) delegate.onWriteError(e);
+        }
+
+        @Override
+        public void onClose() {
+            serverClosed = true;
+            if (delegate != null) delegate.onClose();
+        }
+
+        @Override
+        public void onDisconnect() {
+            hungUp = true;
+            if (delegate != null) delegate.onDisconnect();
+        }
+
+        @Override
+        public void onTimeout() {
+            timedOut = true;
+            if (delegate != null) delegate.onTimeout();
+            WebSocketSubscription current = subscription.get();
+            if (current != null) {
+                LockSupport.unpark(current.reader);
+            }
+        }
+
+        @Override
+        public void onPong(long roundTripNanos) {
+            if (delegate != null) delegate.onPong(roundTripNanos);
+        }
+    }
+}
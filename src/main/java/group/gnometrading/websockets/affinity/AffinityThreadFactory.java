@@ -0,0 +1,58 @@
+package group.gnometrading.websockets.affinity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Pins every thread from the delegate factory to a set of CPUs as the thread starts. If pinning fails (not
+ * Linux, no taskset, CPUs which don't exist) it's logged and the thread runs unpinned.
+ * <p />
+ * Use the {@link IntFunction} flavor to give each thread its own CPUs, e.g. one core per shard:
+ * {@code new AffinityThreadFactory(i -> CpuSet.of(4 + i), factory)}.
+ */
+public class AffinityThreadFactory implements ThreadFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(AffinityThreadFactory.class);
+
+    private final IntFunction<CpuSet> cpus;
+    private final ThreadFactory delegate;
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * @param cpus the CPUs for the n-th thread created, counting from 0
+     * @param delegate creates the threads (names, daemon, priority and such)
+     */
+    public AffinityThreadFactory(IntFunction<CpuSet> cpus, ThreadFactory delegate) {
+        this.cpus = cpus;
+        this.delegate = delegate;
+    }
+
+    public AffinityThreadFactory(CpuSet cpus, ThreadFactory delegate) {
+        this(ignored -> cpus, delegate);
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        return this.delegate.newThread(pinned(this.cpus.apply(this.created.getAndIncrement()), runnable));
+    }
+
+    /**
+     * Wrap `runnable` so it pins the thread it runs on to `cpus` first.
+     */
+    public static Runnable pinned(CpuSet cpus, Runnable runnable) {
+        return () -> {
+            try {
+                LinuxAffinity.setCurrentThreadAffinity(cpus);
+                logger.trace("Pinned {} to CPUs {}", Thread.currentThread().getName(), cpus);
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warn("Could not pin {} to CPUs {}, running unpinned", Thread.currentThread().getName(), cpus, e);
+            }
+            runnable.run();
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package group.gnometrading.websockets.affinity;
+
+import java.util.BitSet;
+
+/**
+ * An immutable set of CPUs, in the same list format as taskset and /proc/self/status, e.g. "0-3,6".
+ */
+public final class CpuSet {
+
+    private final BitSet cpus;
+
+    private CpuSet(BitSet cpus) {
+        if (cpus.isEmpty()) {
+            throw new IllegalArgumentException("CpuSet cannot be empty");
+        }
+        this.cpus = cpus;
+    }
+
+    public static CpuSet of(int... cpus) {
+        BitSet set = new BitSet();
+        for (int cpu : cpus) {
+            if (cpu < 0) {
+                throw new IllegalArgumentException("Invalid CPU: " + cpu);
+            }
+            set.set(cpu);
+        }
+        return new CpuSet(set);
+    }
+
+    /**
+     * @param list a CPU list, e.g. "2", "0-3" or "0-3,6,8-9"
+     */
+    public static CpuSet parse(String list) {
+        BitSet set = new BitSet();
+        for (String part : list.trim().split(",")) {
+            int dash = part.indexOf('-');
+            try {
+                if (dash < 0) {
+                    set.set(Integer.parseInt(part.trim()));
+                } else {
+                    int from = Integer.parseInt(part.substring(0, dash).trim());
+                    int to = Integer.parseInt(part.substring(dash + 1).trim());
+                    if (from > to) {
+                        throw new IllegalArgumentException("Invalid CPU range: " + part);
+                    }
+                    set.set(from, to + 1);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CPU list: " + list, e);
+            }
+        }
+        return new CpuSet(set);
+    }
+
+    public boolean contains(int cpu) {
+        return this.cpus.get(cpu);
+    }
+
+    public int size() {
+        return this.cpus.cardinality();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof CpuSet && this.cpus.equals(((CpuSet) o).cpus));
+    }
+
+    @Override
+    public int hashCode() {
+        return this.cpus.hashCode();
+    }
+
+    /**
+     * @return the set in list format, e.g. "0-3,6"
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        int from = this.cpus.nextSetBit(0);
+        while (from >= 0) {
+            int to = this.cpus.nextClearBit(from) - 1;
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(from);
+            if (to > from) {
+                builder.append('-').append(to);
+            }
+            from = this.cpus.nextSetBit(to + 1);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package group.gnometrading.websockets.affinity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thread affinity on Linux without any native code. The JDK doesn't expose a thread's kernel id, but
+ * /proc/thread-self does, and taskset(1) is a thin wrapper around sched_setaffinity. Forking taskset costs a
+ * millisecond or two, which is fine since it's done once when a thread starts.
+ * <p />
+ * If you already use Java Thread Affinity or similar, skip this and pass a ThreadFactory instead.
+ */
+public final class LinuxAffinity {
+
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+    private static final boolean TASKSET = onPath("taskset");
+
+    private LinuxAffinity() {}
+
+    /**
+     * @return true if we look to be on Linux with /proc mounted and taskset installed
+     */
+    public static boolean isSupported() {
+        return TASKSET && Files.isDirectory(THREAD_SELF);
+    }
+
+    /**
+     * @return the kernel's id for the calling thread (what shows up in top -H)
+     */
+    public static long currentThreadId() throws IOException {
+        checkSupported();
+        // Links to "<pid>/task/<tid>"
+        Path link = Files.readSymbolicLink(THREAD_SELF);
+        return Long.parseLong(link.getFileName().toString());
+    }
+
+    /**
+     * @return the CPUs the calling thread is allowed to run on
+     */
+    public static CpuSet getCurrentThreadAffinity() throws IOException {
+        checkSupported();
+        for (String line : Files.readAllLines(THREAD_SELF.resolve("status"), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("Cpus_allowed_list:")) {
+                return CpuSet.parse(line.substring("Cpus_allowed_list:".length()));
+            }
+        }
+        throw new IOException("No Cpus_allowed_list in " + THREAD_SELF.resolve("status"));
+    }
+
+    /**
+     * Restrict the calling thread to `cpus`. Threads it starts afterwards inherit the mask.
+     * @throws IOException if taskset is missing or rejects the set (e.g. CPUs which don't exist)
+     */
+    public static void setCurrentThreadAffinity(CpuSet cpus) throws IOException {
+        long tid = currentThreadId();
+        Process process = new ProcessBuilder("taskset", "-p", "-c", cpus.toString(), Long.toString(tid))
+                .redirectErrorStream(true)
+                .start();
+
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+
+        try {
+            int exit = process.waitFor();
+            if (exit != 0) {
+                throw new IOException("taskset exited with " + exit + ": " + output);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting on taskset", e);
+        }
+    }
+
+    private static boolean onPath(String command) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (!directory.isEmpty() && Files.isExecutable(Paths.get(directory, command))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void checkSupported() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Thread affinity is only supported on Linux");
+        }
+    }
+}
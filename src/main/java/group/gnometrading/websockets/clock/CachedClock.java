@@ -0,0 +1,80 @@
+package group.gnometrading.websockets.clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock which a ticker thread updates every tick, so reading it is a volatile load rather than a call into the
+ * OS. Reads are only as precise as the tick, and the ticker thread needs a core to run on, so share one between
+ * clients: {@link #getDefault()} ticks every millisecond, which is plenty for timeouts.
+ */
+public final class CachedClock implements EpochClock, NanoClock, AutoCloseable {
+
+    private static CachedClock DEFAULT;
+
+    private final long tickNanos;
+    private final Thread ticker;
+    private volatile long millis, nanos;
+    private volatile boolean running = true;
+
+    /**
+     * Start a ticker thread which updates the clock every `tickNanos`.
+     */
+    public CachedClock(long tickNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        this.tickNanos = tickNanos;
+        tick();
+        this.ticker = new Thread(this::run, "websocket-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * @return a clock shared by everything which asks, ticking every millisecond. Started on first use.
+     */
+    public static synchronized CachedClock getDefault() {
+        if (DEFAULT == null) {
+            DEFAULT = new CachedClock(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return DEFAULT;
+    }
+
+    private void tick() {
+        this.millis = System.currentTimeMillis();
+        this.nanos = System.nanoTime();
+    }
+
+    private void run() {
+        while (this.running) {
+            LockSupport.parkNanos(this.tickNanos);
+            tick();
+        }
+    }
+
+    @Override
+    public long time() {
+        return this.millis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return this.nanos;
+    }
+
+    /**
+     * Stop the ticker thread. The clock stops where it is.
+     * @throws IllegalStateException for {@link #getDefault()}, which other clients may be timing out with
+     */
+    @Override
+    public void close() {
+        synchronized (CachedClock.class) {
+            if (this == DEFAULT) {
+                throw new IllegalStateException("The default clock is shared, so it can't be closed");
+            }
+        }
+        this.running = false;
+        LockSupport.unpark(this.ticker);
+    }
+}
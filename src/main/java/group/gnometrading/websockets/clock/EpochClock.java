@@ -0,0 +1,12 @@
+package group.gnometrading.websockets.clock;
+
+/**
+ * Wall-clock time, in millis since the epoch. What the client measures connection timeouts with.
+ */
+@FunctionalInterface
+public interface EpochClock {
+    /**
+     * @return the time in millis since the epoch
+     */
+    long time();
+}
@@ -0,0 +1,44 @@
+package group.gnometrading.websockets.clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock which only moves when told to, for tests and replays. Both the epoch and nano time start where you say
+ * and move together.
+ */
+public final class ManualClock implements EpochClock, NanoClock {
+
+    private volatile long nanos;
+    private final long epochOffsetNanos;
+
+    /**
+     * @param epochMillis the initial epoch time
+     */
+    public ManualClock(long epochMillis) {
+        this.epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(epochMillis);
+    }
+
+    public ManualClock() {
+        this(0);
+    }
+
+    /**
+     * Move the clock forward. Only call this from one thread at a time.
+     */
+    public void advance(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Clocks don't go backwards");
+        }
+        this.nanos = this.nanos + unit.toNanos(duration);
+    }
+
+    @Override
+    public long time() {
+        return TimeUnit.NANOSECONDS.toMillis(this.epochOffsetNanos + this.nanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return this.nanos;
+    }
+}
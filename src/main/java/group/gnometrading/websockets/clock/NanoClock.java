@@ -0,0 +1,12 @@
+package group.gnometrading.websockets.clock;
+
+/**
+ * Monotonic time in nanos, only good for measuring intervals. What the client stamps receives and pings with.
+ */
+@FunctionalInterface
+public interface NanoClock {
+    /**
+     * @return the time in nanos from some arbitrary origin
+     */
+    long nanoTime();
+}
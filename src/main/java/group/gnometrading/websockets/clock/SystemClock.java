@@ -0,0 +1,21 @@
+package group.gnometrading.websockets.clock;
+
+/**
+ * Straight through to {@link System#currentTimeMillis()} and {@link System#nanoTime()}.
+ */
+public final class SystemClock implements EpochClock, NanoClock {
+
+    public static final SystemClock INSTANCE = new SystemClock();
+
+    private SystemClock() {}
+
+    @Override
+    public long time() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,51 @@
+package group.gnometrading.websockets.codec.json;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pre-compiled path of field names, e.g. {@code JsonPath.compile("data.bids")}. Compile these once up front;
+ * looking them up with {@link JsonScanner#find(JsonPath)} doesn't allocate.
+ */
+public final class JsonPath {
+
+    final byte[][] segments;
+
+    private JsonPath(byte[][] segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param path field names separated by dots. Field names can't contain dots or escapes.
+     */
+    public static JsonPath compile(String path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Path cannot be empty");
+        }
+
+        String[] names = path.split("\\.");
+        byte[][] segments = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isEmpty()) {
+                throw new IllegalArgumentException("Empty segment in path: " + path);
+            }
+            segments[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new JsonPath(segments);
+    }
+
+    public int depth() {
+        return segments.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (byte[] segment : segments) {
+            if (builder.length() > 0) {
+                builder.append('.');
+            }
+            builder.append(new String(segment, StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+}
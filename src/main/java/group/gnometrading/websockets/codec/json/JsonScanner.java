@@ -0,0 +1,479 @@
+package group.gnometrading.websockets.codec.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A forward-only, allocation-free JSON tokenizer over a payload from poll(). Nothing is materialized: tokens
+ * are spans of the underlying buffer, and numbers are parsed straight from the bytes.
+ * <p />
+ * This is a scanner, not a validator. It assumes the server sends well formed JSON and is lenient about
+ * anything else (separators are skipped rather than checked). String tokens are the raw bytes between the
+ * quotes with escapes left as-is; {@link #tokenHasEscapes()} tells you if there were any.
+ * <pre>
+ * private static final JsonPath PRICE = JsonPath.compile("data.p");
+ * ...
+ * if (scanner.wrap(payload).find(PRICE)) {
+ *     long price = scanner.parseDecimal(8);
+ * }
+ * </pre>
+ */
+public final class JsonScanner {
+
+    public static final int MAX_DEPTH = 64;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long[] LONG_POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private ByteBuffer buffer;
+    private int start, index, limit;
+
+    private JsonToken token;
+    private int tokenStart, tokenEnd;
+    private boolean tokenEscaped;
+
+    private int depth;
+    private long objectBits; // Bit n is set if the container at depth n + 1 is an object
+    private boolean expectName;
+
+    /**
+     * Wrap the remaining bytes of the payload. The payload's position and limit are not changed.
+     * @return this
+     */
+    public JsonScanner wrap(ByteBuffer payload) {
+        this.buffer = payload;
+        this.start = payload.position();
+        this.limit = payload.limit();
+        return rewind();
+    }
+
+    /**
+     * Go back to the start of the wrapped payload, e.g. to look up another path.
+     * @return this
+     */
+    public JsonScanner rewind() {
+        this.index = this.start;
+        this.token = null;
+        this.tokenStart = this.tokenEnd = this.start;
+        this.tokenEscaped = false;
+        this.depth = 0;
+        this.objectBits = 0;
+        this.expectName = false;
+        return this;
+    }
+
+    /**
+     * Advance to the next token.
+     * @return the token, or {@link JsonToken#END} when the payload is exhausted
+     */
+    public JsonToken next() {
+        byte c;
+        while (true) {
+            if (this.index >= this.limit) {
+                return setToken(JsonToken.END, this.index, this.index);
+            }
+
+            c = this.buffer.get(this.index);
+            if (c == ',') {
+                this.expectName = inObject();
+            } else if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ':') {
+                break;
+            }
+            this.index++;
+        }
+
+        int begin = this.index;
+        switch (c) {
+            case '{':
+                push(true);
+                this.expectName = true;
+                this.index++;
+                return setToken(JsonToken.START_OBJECT, begin, this.index);
+            case '}':
+                pop();
+                this.expectName = false;
+                this.index++;
+                return setToken(JsonToken.END_OBJECT, begin, this.index);
+            case '[':
+                push(false);
+                this.expectName = false;
+                this.index++;
+                return setToken(JsonToken.START_ARRAY, begin, this.index);
+            case ']':
+                pop();
+                this.index++;
+                return setToken(JsonToken.END_ARRAY, begin, this.index);
+            case '"':
+                return scanString();
+            case 't':
+                this.index = Math.min(this.index + 4, this.limit);
+                return setToken(JsonToken.TRUE, begin, this.index);
+            case 'f':
+                this.index = Math.min(this.index + 5, this.limit);
+                return setToken(JsonToken.FALSE, begin, this.index);
+            case 'n':
+                this.index = Math.min(this.index + 4, this.limit);
+                return setToken(JsonToken.NULL, begin, this.index);
+            default:
+                return scanNumber();
+        }
+    }
+
+    private JsonToken scanString() {
+        boolean name = this.expectName && inObject();
+        int begin = ++this.index;
+        boolean escaped = false;
+        while (this.index < this.limit) {
+            byte c = this.buffer.get(this.index);
+            if (c == '"') {
+                break;
+            } else if (c == '\\') {
+                escaped = true;
+                this.index++; // Skip whatever is escaped, including a quote
+            }
+            this.index++;
+        }
+
+        int end = Math.min(this.index, this.limit);
+        this.index = end + 1; // Past the closing quote
+        this.expectName = false;
+        setToken(name ? JsonToken.FIELD_NAME : JsonToken.STRING, begin, end);
+        this.tokenEscaped = escaped;
+        return this.token;
+    }
+
+    private JsonToken scanNumber() {
+        int begin = this.index;
+        while (this.index < this.limit) {
+            byte c = this.buffer.get(this.index);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                this.index++;
+            } else {
+                break;
+            }
+        }
+
+        if (this.index == begin) {
+            throw new IllegalStateException("Unexpected character '" + (char) this.buffer.get(begin) + "' at " + begin);
+        }
+        return setToken(JsonToken.NUMBER, begin, this.index);
+    }
+
+    private JsonToken setToken(JsonToken token, int begin, int end) {
+        this.token = token;
+        this.tokenStart = begin;
+        this.tokenEnd = end;
+        this.tokenEscaped = false;
+        return token;
+    }
+
+    private boolean inObject() {
+        return this.depth > 0 && ((this.objectBits >>> (this.depth - 1)) & 1) == 1;
+    }
+
+    private void push(boolean object) {
+        if (this.depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        if (object) {
+            this.objectBits |= 1L << this.depth;
+        } else {
+            this.objectBits &= ~(1L << this.depth);
+        }
+        this.depth++;
+    }
+
+    private void pop() {
+        if (this.depth > 0) {
+            this.depth--;
+        }
+    }
+
+    /**
+     * Skip the value whose first token is the current token. For an object or array that means everything up
+     * to and including its closing token; for anything else it's a no-op.
+     */
+    public void skipValue() {
+        if (this.token != JsonToken.START_OBJECT && this.token != JsonToken.START_ARRAY) {
+            return;
+        }
+
+        int target = this.depth - 1;
+        while (this.depth > target) {
+            if (next() == JsonToken.END) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Look up a field path from the current position, which must be just before an object (e.g. right after
+     * {@link #wrap(ByteBuffer)}). Fields which don't match are skipped without being parsed.
+     * @param path the compiled path
+     * @return true if found, in which case the current token is the first token of the field's value
+     */
+    public boolean find(JsonPath path) {
+        JsonToken current = next();
+        for (byte[] segment : path.segments) {
+            if (current != JsonToken.START_OBJECT) {
+                return false;
+            }
+
+            boolean found = false;
+            while (next() == JsonToken.FIELD_NAME) {
+                boolean match = tokenEquals(segment);
+                current = next();
+                if (match) {
+                    found = true;
+                    break;
+                }
+                skipValue();
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Look up a field within the object the scanner is currently in, e.g. the next field of an array element.
+     * Scanning stops at the end of the current object.
+     * @param name the field name's bytes
+     * @return true if found, in which case the current token is the first token of the field's value
+     */
+    public boolean findField(byte[] name) {
+        while (next() == JsonToken.FIELD_NAME) {
+            boolean match = tokenEquals(name);
+            next();
+            if (match) {
+                return true;
+            }
+            skipValue();
+        }
+        return false;
+    }
+
+    public JsonToken token() {
+        return this.token;
+    }
+
+    /**
+     * @return the nesting depth, i.e. the number of objects and arrays we are inside of
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * @return the absolute index of the token in the buffer. For strings and field names, it's after the quote.
+     */
+    public int tokenOffset() {
+        return this.tokenStart;
+    }
+
+    public int tokenLength() {
+        return this.tokenEnd - this.tokenStart;
+    }
+
+    /**
+     * @return true if the current string token had escape sequences in it (which are not decoded)
+     */
+    public boolean tokenHasEscapes() {
+        return this.tokenEscaped;
+    }
+
+    public boolean tokenEquals(byte[] bytes) {
+        int length = this.tokenEnd - this.tokenStart;
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(this.tokenStart + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the token to an ASCII string without allocating.
+     */
+    public boolean tokenEquals(CharSequence ascii) {
+        int length = this.tokenEnd - this.tokenStart;
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(this.tokenStart + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the byte at `index` within the current token
+     */
+    public byte tokenByte(int index) {
+        return this.buffer.get(this.tokenStart + index);
+    }
+
+    /**
+     * Parse the current token as a long. Works on NUMBER tokens and on STRING tokens holding a number (lots of
+     * venues quote their numbers). Anything after the integer part is ignored. Overflow is not checked.
+     */
+    public long parseLong() {
+        int i = this.tokenStart;
+        boolean negative = i < this.tokenEnd && this.buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        long value = 0;
+        for (; i < this.tokenEnd; i++) {
+            int digit = this.buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the current token as a fixed-point decimal, e.g. {@code "123.4567"} with scale 2 is 12345.
+     * Digits beyond the scale are truncated, and never accumulated, so fractions of any length are fine; the result
+     * itself has to fit in a long. Exponents are supported. Works on NUMBER and STRING tokens.
+     * @param scale the number of decimal places in the result, at most 18
+     */
+    public long parseDecimal(int scale) {
+        if (scale < 0 || scale >= LONG_POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Invalid scale: " + scale);
+        }
+
+        int i = this.tokenStart;
+        boolean negative = i < this.tokenEnd && this.buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        // The exponent comes last but decides which fraction digits matter, so find it first
+        int end = i;
+        for (; end < this.tokenEnd; end++) {
+            byte c = this.buffer.get(end);
+            if ((c < '0' || c > '9') && c != '.') {
+                break;
+            }
+        }
+        byte marker = end < this.tokenEnd ? this.buffer.get(end) : 0;
+        int exponent = marker == 'e' || marker == 'E' ? parseExponent(end + 1) : 0;
+
+        long value = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte c = this.buffer.get(i);
+            if (c == '.') {
+                fraction = true;
+            } else if (fraction) {
+                if (fractionDigits >= scale + exponent) {
+                    break; // Truncated anyway, and accumulating them would overflow the long for long fractions
+                }
+                fractionDigits++;
+                value = value * 10 + (c - '0');
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+
+        int shift = scale - fractionDigits + exponent;
+        if (shift > 0) {
+            value *= LONG_POWERS_OF_TEN[Math.min(shift, LONG_POWERS_OF_TEN.length - 1)];
+        } else if (shift < 0) {
+            value = -shift >= LONG_POWERS_OF_TEN.length ? 0 : value / LONG_POWERS_OF_TEN[-shift];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the current token as a double. Works on NUMBER and STRING tokens. Anything with up to 15
+     * significant digits and a small exponent is parsed exactly from the bytes; anything else falls back
+     * to {@link Double#parseDouble(String)}, which allocates.
+     */
+    public double parseDouble() {
+        int i = this.tokenStart;
+        boolean negative = i < this.tokenEnd && this.buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        int exponent = 0;
+        for (; i < this.tokenEnd; i++) {
+            byte c = this.buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                if (fraction) {
+                    fractionDigits++;
+                }
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+            } else if (c == '.') {
+                fraction = true;
+            } else if (c == 'e' || c == 'E') {
+                exponent = parseExponent(i + 1);
+                break;
+            } else {
+                break;
+            }
+        }
+
+        int power = exponent - fractionDigits;
+        if (digits <= 15 && power >= -22 && power <= 22) {
+            double value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+            return negative ? -value : value;
+        }
+
+        byte[] bytes = new byte[this.tokenEnd - this.tokenStart];
+        this.buffer.get(this.tokenStart, bytes);
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    public boolean parseBoolean() {
+        return this.token == JsonToken.TRUE;
+    }
+
+    private int parseExponent(int i) {
+        boolean negative = false;
+        if (i < this.tokenEnd) {
+            byte sign = this.buffer.get(i);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                i++;
+            }
+        }
+
+        int exponent = 0;
+        for (; i < this.tokenEnd; i++) {
+            int digit = this.buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            exponent = exponent * 10 + digit;
+        }
+        return negative ? -exponent : exponent;
+    }
+}
@@ -0,0 +1,5 @@
+package group.gnometrading.websockets.codec.json;
+
+public enum JsonToken {
+    START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END
+}
@@ -0,0 +1,16 @@
+package group.gnometrading.websockets.conflation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the newest payload for a key from {@link ConflatingBuffer#drain(ConflatedHandler, int)}.
+ */
+@FunctionalInterface
+public interface ConflatedHandler {
+
+    /**
+     * @param key the key from the {@link KeyExtractor}
+     * @param payload a copy of the payload, reused between calls. Only valid until this returns.
+     */
+    void onMessage(long key, ByteBuffer payload);
+}
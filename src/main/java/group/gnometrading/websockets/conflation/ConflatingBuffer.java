@@ -0,0 +1,226 @@
+package group.gnometrading.websockets.conflation;
+
+import group.gnometrading.websockets.utils.LongIntMap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps only the newest payload per key between the poll thread and a consumer which may fall behind, e.g. a
+ * strategy thread during a volatility spike. Rather than queueing stale book updates, an update for a key which
+ * hasn't been read yet overwrites the previous one.
+ * <pre>
+ * // Poll thread
+ * buffer.offer(client.poll());
+ *
+ * // Consumer thread
+ * buffer.drain((key, payload) -&gt; book(key).apply(payload), 64);
+ * </pre>
+ * Every key gets a preallocated slot of `maxPayloadSize` bytes the first time it's seen, and nothing allocates
+ * after construction. Keys are looked up in a primitive open addressing map, so no boxing either.
+ * <p />
+ * One producer and one consumer. Slots are guarded by a sequence lock: the producer never waits, and the consumer
+ * retries its copy if the producer overwrote the slot underneath it, so it always sees a whole payload.
+ */
+public final class ConflatingBuffer {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final KeyExtractor keyExtractor;
+    private final int maxKeys;
+    private final int maxPayloadSize;
+
+    // Producer side
+    private final LongIntMap slotsByKey;
+    private int slotCount;
+
+    // Shared, per slot
+    private final byte[] data;
+    private final int[] lengths;
+    private final long[] slotKeys;
+    private final long[] versions; // Odd while the producer is writing
+    private final int[] dirty; // 1 while the slot is waiting in the ready ring
+
+    // Slots with an unread update, each at most once, so the ring never needs more than maxKeys entries
+    private final int[] ready;
+    private volatile long readyHead, readyTail;
+
+    // Consumer side
+    private final ByteBuffer scratch;
+    private final long[] readVersions;
+
+    private volatile long offered, conflated, rejected; // Written by the producer
+    private volatile long delivered, overtaken; // Written by the consumer
+
+    /**
+     * @param keyExtractor pulls the key out of every payload, on the poll thread
+     * @param maxKeys the most distinct keys to expect. Payloads for keys beyond this are rejected.
+     * @param maxPayloadSize the largest payload to keep. Larger payloads are rejected.
+     */
+    public ConflatingBuffer(KeyExtractor keyExtractor, int maxKeys, int maxPayloadSize) {
+        if (maxKeys <= 0 || maxPayloadSize <= 0) {
+            throw new IllegalArgumentException("maxKeys and maxPayloadSize must be positive");
+        }
+
+        this.keyExtractor = keyExtractor;
+        this.maxKeys = maxKeys;
+        this.maxPayloadSize = maxPayloadSize;
+        this.slotsByKey = new LongIntMap(maxKeys);
+        this.data = new byte[Math.multiplyExact(maxKeys, maxPayloadSize)];
+        this.lengths = new int[maxKeys];
+        this.slotKeys = new long[maxKeys];
+        this.versions = new long[maxKeys];
+        this.dirty = new int[maxKeys];
+        this.ready = new int[maxKeys];
+        this.scratch = ByteBuffer.allocate(maxPayloadSize);
+        this.readVersions = new long[maxKeys];
+    }
+
+    /**
+     * Store the payload as the newest for its key. Producer side only.
+     * @param payload the payload, e.g. straight from poll(). Its position is not changed.
+     * @return false if the payload was rejected: no key, too large, or too many keys
+     */
+    public boolean offer(ByteBuffer payload) {
+        offered = offered + 1;
+
+        int length = payload.remaining();
+        long key = this.keyExtractor.key(payload);
+        if (key == KeyExtractor.NO_KEY || length > this.maxPayloadSize) {
+            rejected = rejected + 1;
+            return false;
+        }
+
+        int slot = this.slotsByKey.get(key);
+        if (slot == LongIntMap.MISSING) {
+            if (this.slotCount == this.maxKeys) {
+                rejected = rejected + 1;
+                return false;
+            }
+            slot = this.slotCount++;
+            this.slotsByKey.put(key, slot);
+            this.slotKeys[slot] = key; // Published by the version bump below
+        }
+
+        long version = this.versions[slot];
+        LONGS.setOpaque(this.versions, slot, version + 1);
+        VarHandle.storeStoreFence();
+        payload.get(payload.position(), this.data, slot * this.maxPayloadSize, length);
+        this.lengths[slot] = length;
+        // Volatile on both sides: the store of the version and the load of the flag mustn't be reordered, or an
+        // update could be counted as conflated after the consumer has already copied the slot
+        LONGS.setVolatile(this.versions, slot, version + 2);
+
+        if ((int) INTS.getVolatile(this.dirty, slot) == 1) {
+            // Still waiting to be read, so whatever was there is gone for good
+            conflated = conflated + 1;
+        } else {
+            INTS.setRelease(this.dirty, slot, 1);
+            long tail = readyTail;
+            this.ready[(int) (tail % this.maxKeys)] = slot;
+            readyTail = tail + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Hand up to `limit` keys' newest payloads to the handler, oldest update first. Consumer side only.
+     * @return the number of payloads delivered
+     */
+    public int drain(ConflatedHandler handler, int limit) {
+        int count = 0;
+        while (count < limit) {
+            long head = readyHead;
+            if (head == readyTail) {
+                break;
+            }
+
+            int slot = this.ready[(int) (head % this.maxKeys)];
+            // Clear the flag before copying, so an update landing after this point queues the slot again
+            INTS.setVolatile(this.dirty, slot, 0);
+            readyHead = head + 1;
+
+            long version = copy(slot);
+            if (version == this.readVersions[slot]) {
+                // The producer beat us to the slot after we cleared the flag and we already delivered what it
+                // queued, so the payload first queued here was overwritten without us seeing it
+                overtaken = overtaken + 1;
+                continue;
+            }
+            this.readVersions[slot] = version;
+
+            delivered = delivered + 1;
+            handler.onMessage(this.slotKeys[slot], this.scratch);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the version copied
+     */
+    private long copy(int slot) {
+        byte[] out = this.scratch.array();
+        while (true) {
+            long before = (long) LONGS.getVolatile(this.versions, slot);
+            if ((before & 1) == 1) {
+                Thread.onSpinWait(); // Mid-write, which is quick
+                continue;
+            }
+
+            int length = this.lengths[slot];
+            System.arraycopy(this.data, slot * this.maxPayloadSize, out, 0, length);
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getOpaque(this.versions, slot) == before) {
+                this.scratch.clear().limit(length);
+                return before;
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys with an unread update
+     */
+    public int size() {
+        return (int) (readyTail - readyHead);
+    }
+
+    /**
+     * @return the number of distinct keys seen
+     */
+    public int keys() {
+        return this.slotCount;
+    }
+
+    public long getOffered() {
+        return offered;
+    }
+
+    /**
+     * @return the number of updates overwritten before the consumer read them
+     */
+    public long getConflated() {
+        return conflated + overtaken;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    @Override
+    public String toString() {
+        return "ConflatingBuffer{" +
+                "keys=" + keys() +
+                ", offered=" + offered +
+                ", conflated=" + getConflated() +
+                ", rejected=" + rejected +
+                ", delivered=" + delivered +
+                '}';
+    }
+}
@@ -0,0 +1,23 @@
+package group.gnometrading.websockets.conflation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pulls the conflation key (e.g. an instrument id) out of a payload. This runs on the poll thread for every
+ * message, so it must not allocate; read the bytes in place, e.g. with a
+ * {@link group.gnometrading.websockets.codec.json.JsonScanner} or a fixed offset for binary protocols.
+ */
+@FunctionalInterface
+public interface KeyExtractor {
+
+    /**
+     * Returned for payloads which have no key. These are rejected by the buffer.
+     */
+    long NO_KEY = Long.MIN_VALUE;
+
+    /**
+     * @param payload the payload. Don't change its position or limit.
+     * @return the key, or {@link #NO_KEY}
+     */
+    long key(ByteBuffer payload);
+}
@@ -6,6 +6,7 @@ import group.gnometrading.websockets.frames.DataFrame;
 
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.function.Supplier;
 import java.util.random.RandomGenerator;
 
 /**
@@ -15,16 +16,41 @@ public abstract class Draft {
 
     // TODO: What's the latency on this?
     protected final RandomGenerator secureRandom = new SecureRandom();
+    private final Supplier<DataFrame> dataFrameFactory;
     private final DataFrame dataFrame;
 
+    /**
+     * Kept for subclasses written before drafts created their own DataFrames. Every caller of
+     * {@link #createDataFrame()} gets this same instance, which the client then uses from the poll thread and the
+     * writer thread at once. That's only safe for a stateless DataFrame; pass a supplier instead.
+     * @deprecated use {@link #Draft(Supplier)}
+     */
+    @Deprecated
     public Draft(DataFrame dataFrame) {
-        this.dataFrame = dataFrame;
+        this(() -> dataFrame);
+    }
+
+    /**
+     * @param dataFrameFactory creates a new DataFrame on every call, see {@link #createDataFrame()}
+     */
+    public Draft(Supplier<DataFrame> dataFrameFactory) {
+        this.dataFrameFactory = dataFrameFactory;
+        this.dataFrame = dataFrameFactory.get();
     }
 
     public DataFrame getDataFrame() {
         return this.dataFrame;
     }
 
+    /**
+     * DataFrames are flyweights with state, so anything which wraps buffers on a different thread
+     * (or concurrently with the reader) needs its own.
+     * @return a new DataFrame instance for this draft
+     */
+    public DataFrame createDataFrame() {
+        return this.dataFrameFactory.get();
+    }
+
 
     /**
      * Construct a byte array of the input of a handshake sent to a server.
@@ -31,7 +31,7 @@ public class RFC6455 extends Draft {
     }
 
     public RFC6455() {
-        super(new DataFrame6455());
+        super(DataFrame6455::new);
     }
 
     @Override
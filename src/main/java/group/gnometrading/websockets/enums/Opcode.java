@@ -4,6 +4,14 @@ public enum Opcode {
     CONTINUOUS(0x0), TEXT(0x1), BINARY(0x2), CLOSING(0x8), PING(0x9), PONG(0xA);
 
     public final int code;
+    // values() clones its array on every call, and this runs for every frame
+    private static final Opcode[] BY_CODE = new Opcode[16];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
 
     Opcode(int code) {
         this.code = code;
@@ -23,12 +31,10 @@ public enum Opcode {
          | |1|2|3|       |
          +-+-+-+-+-------+
          */
-        input &= 0b00001111;
-        for (Opcode opcode : values()) {
-            if (opcode.code == input) {
-                return opcode;
-            }
+        Opcode opcode = BY_CODE[input & 0b00001111];
+        if (opcode == null) {
+            throw new IllegalArgumentException("Invalid opcode supplied");
         }
-        throw new IllegalArgumentException("Invalid opcode supplied");
+        return opcode;
     }
 }
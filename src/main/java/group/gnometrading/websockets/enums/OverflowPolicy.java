@@ -0,0 +1,25 @@
+package group.gnometrading.websockets.enums;
+
+/**
+ * What a write does when the writer thread has fallen behind and the data lane of the write queue is full.
+ * Control frames (pings and pongs) have their own lane, so they're never stuck behind data whatever the policy.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for the writer thread to free a slot, idling with the builder's overflow idle strategy.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued frame to make room. Fine for idempotent messages, e.g. re-sending a subscription.
+     */
+    DROP_OLDEST,
+    /**
+     * Don't send the frame and return {@link WriteStatus#REJECTED}.
+     */
+    REJECT,
+    /**
+     * Queue the frame in a larger overflow ring behind the data lane. Frames still go out in order. If the
+     * overflow ring fills up too, the frame is rejected.
+     */
+    SPILL
+}
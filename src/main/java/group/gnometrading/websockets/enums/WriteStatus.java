@@ -0,0 +1,32 @@
+package group.gnometrading.websockets.enums;
+
+/**
+ * The outcome of a write. Queued frames still go out on the writer thread, so anything other than
+ * {@link #REJECTED}, {@link #THROTTLED} or {@link #CLOSED} means "will be sent", not "has been sent".
+ */
+public enum WriteStatus {
+    /**
+     * Queued, or sent with inline writes.
+     */
+    OK,
+    /**
+     * Queued after dropping the oldest queued frame, see {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    DROPPED_OLDEST,
+    /**
+     * Queued in the overflow ring, see {@link OverflowPolicy#SPILL}.
+     */
+    SPILLED,
+    /**
+     * Not sent, the queue was full.
+     */
+    REJECTED,
+    /**
+     * Not sent, it would have gone over a rate limit, see {@link group.gnometrading.websockets.pacing.RatePacer}.
+     */
+    THROTTLED,
+    /**
+     * Not sent, the client is closed.
+     */
+    CLOSED
+}
@@ -0,0 +1,14 @@
+package group.gnometrading.websockets.exceptions;
+
+import group.gnometrading.websockets.enums.StatusCode;
+
+public class InvalidFrameException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final StatusCode statusCode;
+
+    public InvalidFrameException(StatusCode statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+}
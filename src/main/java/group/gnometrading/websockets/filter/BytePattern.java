@@ -0,0 +1,118 @@
+package group.gnometrading.websockets.filter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A byte sequence to look for in a payload: at the start, at a fixed offset, or anywhere in the first N bytes.
+ * Build them once up front; matching reads the payload in place and never allocates.
+ * <p />
+ * Every kind of pattern is this one final class, so the call in {@link FrameFilter} stays monomorphic.
+ */
+public final class BytePattern {
+
+    private static final int AT = 0, CONTAINS = 1;
+
+    private final int kind;
+    private final byte[] bytes;
+    private final int offset; // For AT
+    private final int window; // For CONTAINS
+    private final int[] shifts; // For CONTAINS: how far to slide the pattern by the byte under its last position
+
+    private BytePattern(int kind, byte[] bytes, int offset, int window) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("pattern cannot be empty");
+        }
+        this.kind = kind;
+        this.bytes = bytes.clone();
+        this.offset = offset;
+        this.window = window;
+        if (kind == CONTAINS) {
+            this.shifts = new int[256];
+            Arrays.fill(this.shifts, bytes.length);
+            for (int i = 0; i < bytes.length - 1; i++) {
+                this.shifts[bytes[i] & 0xFF] = bytes.length - 1 - i;
+            }
+        } else {
+            this.shifts = null;
+        }
+    }
+
+    /**
+     * Match payloads which start with `bytes`.
+     */
+    public static BytePattern prefix(byte[] bytes) {
+        return new BytePattern(AT, bytes, 0, 0);
+    }
+
+    public static BytePattern prefix(String text) {
+        return prefix(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Match payloads with `bytes` at `offset`, e.g. a message type field in a fixed binary layout.
+     */
+    public static BytePattern at(int offset, byte[] bytes) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset cannot be negative");
+        }
+        return new BytePattern(AT, bytes, offset, 0);
+    }
+
+    public static BytePattern at(int offset, String text) {
+        return at(offset, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Match payloads with `bytes` anywhere in their first `window` bytes. Keep the window as small as the format
+     * lets you, e.g. just past where the event type sits in the venue's JSON.
+     */
+    public static BytePattern contains(byte[] bytes, int window) {
+        if (window < bytes.length) {
+            throw new IllegalArgumentException("window must fit the pattern");
+        }
+        return new BytePattern(CONTAINS, bytes, 0, window);
+    }
+
+    public static BytePattern contains(String text, int window) {
+        return contains(text.getBytes(StandardCharsets.UTF_8), window);
+    }
+
+    /**
+     * @param payload the payload from its position to its limit, which are left untouched
+     * @return true if the pattern is there
+     */
+    public boolean matches(ByteBuffer payload) {
+        int start = payload.position();
+        int length = payload.limit() - start;
+        if (this.kind == AT) {
+            return this.offset + this.bytes.length <= length && equalsAt(payload, start + this.offset);
+        }
+
+        // Horspool: line the pattern up, compare from its end, and slide by the byte under the end on a mismatch
+        int end = start + Math.min(length, this.window);
+        int last = this.bytes.length - 1;
+        for (int i = start; i + last < end; i += this.shifts[payload.get(i + last) & 0xFF]) {
+            if (payload.get(i + last) == this.bytes[last] && equalsAt(payload, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean equalsAt(ByteBuffer payload, int index) {
+        for (int i = 0; i < this.bytes.length; i++) {
+            if (payload.get(index + i) != this.bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        String text = new String(this.bytes, StandardCharsets.UTF_8);
+        return this.kind == AT ? "at(" + this.offset + ", " + text + ")" : "contains(" + text + ", " + this.window + ")";
+    }
+}
@@ -0,0 +1,113 @@
+package group.gnometrading.websockets.filter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops frames the application doesn't want (heartbeats, status messages, subscription acks) inside poll(),
+ * before they're handed out. Set it with {@link group.gnometrading.websockets.WebSocketClient.Builder#withFrameFilter}.
+ * <pre>
+ * new FrameFilter.Builder()
+ *         .withRule("heartbeat", BytePattern.contains("\"e\":\"heartbeat\"", 48))
+ *         .withRule("ack", BytePattern.prefix("{\"result\":null"))
+ *         .build();
+ * </pre>
+ * Rules are tried in order and a frame is dropped by the first one which matches. A rule with several patterns
+ * only matches if all of them do. Each rule counts its hits, on the poll thread, so reads from other threads may
+ * be a little behind.
+ */
+public final class FrameFilter {
+
+    private final String[] names;
+    private final BytePattern[][] rules;
+    private final long[] hits;
+    private long passed;
+
+    private FrameFilter(String[] names, BytePattern[][] rules) {
+        this.names = names;
+        this.rules = rules;
+        this.hits = new long[rules.length];
+    }
+
+    /**
+     * @param payload the payload from its position to its limit, which are left untouched
+     * @return true if a rule matched and the frame should be dropped
+     */
+    public boolean drop(ByteBuffer payload) {
+        for (int rule = 0; rule < this.rules.length; rule++) {
+            if (matches(this.rules[rule], payload)) {
+                this.hits[rule]++;
+                return true;
+            }
+        }
+        this.passed++;
+        return false;
+    }
+
+    private static boolean matches(BytePattern[] patterns, ByteBuffer payload) {
+        for (BytePattern pattern : patterns) {
+            if (!pattern.matches(payload)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of frames dropped by the rule called `name`
+     */
+    public long getHits(String name) {
+        for (int rule = 0; rule < this.names.length; rule++) {
+            if (this.names[rule].equals(name)) {
+                return this.hits[rule];
+            }
+        }
+        throw new IllegalArgumentException("No rule called " + name);
+    }
+
+    /**
+     * @return the number of frames which weren't dropped
+     */
+    public long getPassed() {
+        return this.passed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FrameFilter{");
+        for (int rule = 0; rule < this.names.length; rule++) {
+            builder.append(this.names[rule]).append('=').append(this.hits[rule]).append(", ");
+        }
+        return builder.append("passed=").append(this.passed).append('}').toString();
+    }
+
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<BytePattern[]> rules = new ArrayList<>();
+
+        public Builder() {}
+
+        /**
+         * Drop frames matching all of `patterns`, counting them under `name`.
+         */
+        public Builder withRule(String name, BytePattern... patterns) {
+            if (patterns.length == 0) {
+                throw new IllegalArgumentException("A rule needs at least one pattern");
+            }
+            if (this.names.contains(name)) {
+                throw new IllegalArgumentException("There's already a rule called " + name);
+            }
+            this.names.add(name);
+            this.rules.add(patterns.clone());
+            return this;
+        }
+
+        public FrameFilter build() {
+            if (this.rules.isEmpty()) {
+                throw new IllegalArgumentException("A filter needs at least one rule");
+            }
+            return new FrameFilter(this.names.toArray(new String[0]), this.rules.toArray(new BytePattern[0][]));
+        }
+    }
+}
@@ -62,4 +62,20 @@ public interface DataFrame {
      * @param payload the payload to encode
      */
     void encode(Opcode opcode, byte[] payload);
+
+
+    /**
+     * Write the opcode, the remaining bytes of the payload, and accompanying metadata into the wrapped ByteBuffer.
+     * The payload's position is not changed.
+     * <p />
+     * The default copies the payload into a new array for {@link #encode(Opcode, byte[])}, so it allocates on every
+     * ping and pong; override it to encode straight from the buffer.
+     * @param opcode the opcode to encode
+     * @param payload the payload to encode
+     */
+    default void encode(Opcode opcode, ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(payload.position(), bytes);
+        encode(opcode, bytes);
+    }
 }
@@ -5,7 +5,7 @@ import group.gnometrading.websockets.enums.Opcode;
 import java.nio.ByteBuffer;
 import java.util.Random;
 
-public class DataFrame6455 implements DataFrame {
+public class DataFrame6455 implements StreamingDataFrame {
 
     private static final ByteBuffer MASK = ByteBuffer.allocate(4);
 
@@ -32,13 +32,31 @@ public class DataFrame6455 implements DataFrame {
 
     @Override
     public void encode(Opcode opcode, byte[] payload) {
+        encodeHeader(opcode, payload.length);
+
+        for (int i = 0; i < payload.length; i++) {
+            this.buffer.put((byte) (payload[i] ^ MASK.get(i % 4)));
+        }
+    }
+
+    @Override
+    public void encode(Opcode opcode, ByteBuffer payload) {
+        int start = payload.position();
+        int payloadLength = payload.remaining();
+        encodeHeader(opcode, payloadLength);
+
+        for (int i = 0; i < payloadLength; i++) {
+            this.buffer.put((byte) (payload.get(start + i) ^ MASK.get(i % 4)));
+        }
+    }
+
+    private void encodeHeader(Opcode opcode, int payloadLength) {
         // No support for fragmented frames
         this.buffer.put((byte) (0b10000000 | opcode.code));
 
         // Since we're the client, we will always mask
         byte mask = (byte) 0b10000000;
 
-        int payloadLength = payload.length;
         if (payloadLength > (2 << 15)) {
             this.buffer.put((byte) (mask | 127));
             this.buffer.putLong(payloadLength);
@@ -50,16 +68,17 @@ public class DataFrame6455 implements DataFrame {
         }
 
         this.buffer.putInt(MASK.getInt(0));
-
-        for (int i = 0; i < payload.length; i++) {
-            this.buffer.put((byte) (payload[i] ^ MASK.get(i % 4)));
-        }
     }
 
     private boolean fin() {
         return (this.buffer.get(offset) & 0b10000000) == 0b10000000;
     }
 
+    @Override
+    public boolean isMasked() {
+        return masked();
+    }
+
     private boolean masked() {
         return (this.buffer.get(offset + 1) & 0b10000000) == 0b10000000;
     }
@@ -75,10 +94,11 @@ public class DataFrame6455 implements DataFrame {
         }
     }
 
+    @Override
     public int getPayloadLength() {
         int length = this.buffer.get(offset + 1) & 0b01111111;
         if (length == 126) {
-            return this.buffer.getShort(offset + 2);
+            return this.buffer.getShort(offset + 2) & 0xFFFF; // Unsigned, or anything over 32kb comes out negative
         } else if (length == 127) {
             // if this is lossy, it deserves to be. if you're sending me a packet > 2^32 bytes... no
             // but if anyone ends up ever debugging this code and the issue turns out to be from downcasting this, sorry.
@@ -87,22 +107,29 @@ public class DataFrame6455 implements DataFrame {
         return length;
     }
 
-    private int getMaskingKey() {
+    @Override
+    public int getMaskingKey() {
         int index = offset + 1 + this.getPayloadLengthOctets();
         return this.buffer.getInt(index);
     }
 
+    @Override
+    public void unmask(ByteBuffer buffer, int index, int length, int key, long payloadOffset) {
+        for (int i = 0; i < length; i++) {
+            // Octet (position % 4) of the key as it was sent, so the high byte of the int first (RFC 6455 5.3)
+            int octet = (int) ((payloadOffset + i) & 3);
+            byte mask = (byte) (key >>> (24 - (octet << 3)));
+            buffer.put(i + index, (byte) (buffer.get(i + index) ^ mask));
+        }
+    }
+
     @Override
     public ByteBuffer getPayloadData() {
         int index = offset + 1 + this.getPayloadLengthOctets() + (this.masked() ? 4 : 0);
         int payloadLength = this.getPayloadLength();
 
         if (this.masked()) {
-            int key = this.getMaskingKey();
-            for (int i = 0; i < payloadLength; i++) {
-                byte mask = (byte) ((key >> (8 * (i % 4))) & 0xFF); // not ideal
-                this.buffer.put(i + index, (byte) (this.buffer.get(i + index) ^ mask));
-            }
+            unmask(this.buffer, index, payloadLength, this.getMaskingKey(), 0);
         }
 
         this.buffer.position(index);
@@ -113,14 +140,13 @@ public class DataFrame6455 implements DataFrame {
     }
 
     @Override
-    public int length() {
-        int length = 1 + this.getPayloadLengthOctets();
-
-        if (this.masked()) {
-            length += 4;
-        }
+    public int headerLength() {
+        return 1 + this.getPayloadLengthOctets() + (this.masked() ? 4 : 0);
+    }
 
-        return length + this.getPayloadLength();
+    @Override
+    public int length() {
+        return this.headerLength() + this.getPayloadLength();
     }
 
     @Override
@@ -128,6 +154,14 @@ public class DataFrame6455 implements DataFrame {
         return !this.fin();
     }
 
+    @Override
+    public boolean isHeaderIncomplete() {
+        if (this.limit < 2) {
+            return true;
+        }
+        return this.limit < this.headerLength();
+    }
+
     @Override
     public boolean isIncomplete() {
         int requiredOctets = 1;
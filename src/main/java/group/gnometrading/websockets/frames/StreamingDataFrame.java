@@ -0,0 +1,50 @@
+package group.gnometrading.websockets.frames;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What a DataFrame needs on top of the basics for its payloads to be streamed (see
+ * WebSocketClient.Builder#withPayloadStreaming): the header's readable before the payload's arrived, and the
+ * payload can be unmasked a piece at a time. Opt in by implementing this as well as DataFrame.
+ */
+public interface StreamingDataFrame extends DataFrame {
+    /**
+     * @return true if not even the header (everything before the payload) is complete
+     */
+    boolean isHeaderIncomplete();
+
+
+    /**
+     * @return the length in bytes of the header, masking key included. Only valid once the header is complete.
+     */
+    int headerLength();
+
+
+    /**
+     * @return the length in bytes of the payload. Only valid once the header is complete.
+     */
+    int getPayloadLength();
+
+
+    /**
+     * @return true if the payload is masked
+     */
+    boolean isMasked();
+
+
+    /**
+     * @return the masking key, if the payload is masked
+     */
+    int getMaskingKey();
+
+
+    /**
+     * Unmask part of a payload in place, for payloads which arrive (and are handed out) a piece at a time.
+     * @param buffer the buffer holding the piece
+     * @param index the index of the piece in `buffer`
+     * @param length the length of the piece
+     * @param key the frame's masking key
+     * @param payloadOffset how far into the payload the piece starts
+     */
+    void unmask(ByteBuffer buffer, int index, int length, int key, long payloadOffset);
+}
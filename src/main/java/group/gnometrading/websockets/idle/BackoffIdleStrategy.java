@@ -0,0 +1,65 @@
+package group.gnometrading.websockets.idle;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields, then parks for an exponentially increasing period up to `maxParkNanos`.
+ * Producers unpark the thread through {@link #wake(Thread)}, so a long park doesn't cost latency
+ * when new work shows up.
+ */
+public final class BackoffIdleStrategy implements IdleStrategy {
+
+    public static final int DEFAULT_MAX_SPINS = 100;
+    public static final int DEFAULT_MAX_YIELDS = 10;
+    public static final long DEFAULT_MIN_PARK_NANOS = 1_000; // 1us
+    public static final long DEFAULT_MAX_PARK_NANOS = 1_000_000; // 1ms
+
+    private final int maxSpins;
+    private final int maxYields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    private int spins, yields;
+    private long parkNanos;
+
+    public BackoffIdleStrategy() {
+        this(DEFAULT_MAX_SPINS, DEFAULT_MAX_YIELDS, DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS);
+    }
+
+    public BackoffIdleStrategy(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("Invalid park range: " + minParkNanos + " to " + maxParkNanos);
+        }
+
+        this.maxSpins = maxSpins;
+        this.maxYields = maxYields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        this.parkNanos = minParkNanos;
+    }
+
+    @Override
+    public void idle() {
+        if (spins < maxSpins) {
+            spins++;
+            Thread.onSpinWait();
+        } else if (yields < maxYields) {
+            yields++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+        }
+    }
+
+    @Override
+    public void reset() {
+        spins = yields = 0;
+        parkNanos = minParkNanos;
+    }
+
+    @Override
+    public void wake(Thread thread) {
+        LockSupport.unpark(thread);
+    }
+}
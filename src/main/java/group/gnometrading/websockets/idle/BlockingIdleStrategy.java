@@ -0,0 +1,27 @@
+package group.gnometrading.websockets.idle;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks until a producer calls {@link #wake(Thread)} (or the thread is interrupted). Costs nothing while
+ * idle, but every wake up goes through the scheduler.
+ * <p />
+ * Only for threads which are handed work by someone who calls wake, like the client's writer thread. Nothing
+ * calls wake when bytes arrive on a socket, so it's no good for polling; poll(IdleStrategy) rejects it.
+ */
+public final class BlockingIdleStrategy implements IdleStrategy {
+
+    @Override
+    public void idle() {
+        // If the producer unparked us before we got here, the permit makes this return immediately
+        LockSupport.park(this);
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void wake(Thread thread) {
+        LockSupport.unpark(thread);
+    }
+}
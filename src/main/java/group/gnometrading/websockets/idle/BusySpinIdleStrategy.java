@@ -0,0 +1,16 @@
+package group.gnometrading.websockets.idle;
+
+/**
+ * Never gives up the core. Lowest latency, and it will happily burn 100% of a CPU doing nothing.
+ * Only use this on a thread which is pinned to an isolated core.
+ */
+public final class BusySpinIdleStrategy implements IdleStrategy {
+
+    @Override
+    public void idle() {
+        Thread.onSpinWait();
+    }
+
+    @Override
+    public void reset() {}
+}
@@ -0,0 +1,37 @@
+package group.gnometrading.websockets.idle;
+
+/**
+ * What a thread should do when it has nothing to do. Implementations hold state (spin counters and such),
+ * so don't share a single instance between threads.
+ */
+public interface IdleStrategy {
+
+    /**
+     * Idle for a bit if no work was done. If work was done, the strategy resets its back-off.
+     * @param workCount the amount of work done in the last duty cycle
+     */
+    default void idle(int workCount) {
+        if (workCount > 0) {
+            reset();
+        } else {
+            idle();
+        }
+    }
+
+    /**
+     * Idle unconditionally, progressing the back-off if the strategy has one.
+     */
+    void idle();
+
+    /**
+     * Reset the back-off to its starting state.
+     */
+    void reset();
+
+    /**
+     * Called by a producer after handing work to `thread`, which may be idling with this strategy.
+     * Strategies which park must unpark here; spinning strategies don't need to do anything.
+     * @param thread the thread which idles with this strategy
+     */
+    default void wake(Thread thread) {}
+}
@@ -0,0 +1,35 @@
+package group.gnometrading.websockets.idle;
+
+/**
+ * Spins for a number of iterations and then yields the core on every idle after that.
+ */
+public final class SpinYieldIdleStrategy implements IdleStrategy {
+
+    public static final int DEFAULT_MAX_SPINS = 100;
+
+    private final int maxSpins;
+    private int spins;
+
+    public SpinYieldIdleStrategy() {
+        this(DEFAULT_MAX_SPINS);
+    }
+
+    public SpinYieldIdleStrategy(int maxSpins) {
+        this.maxSpins = maxSpins;
+    }
+
+    @Override
+    public void idle() {
+        if (spins < maxSpins) {
+            spins++;
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void reset() {
+        spins = 0;
+    }
+}
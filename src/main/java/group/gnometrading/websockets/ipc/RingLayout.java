@@ -0,0 +1,57 @@
+package group.gnometrading.websockets.ipc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The layout of a ring file, shared by the publisher and subscribers.
+ * <pre>
+ * 0    magic (long), written last so a half-made file is never mistaken for a ring
+ * 8    version (int)
+ * 12   capacity of the data region in bytes (int), a power of two
+ * 64   tail intent (long): where the record being written ends. Each counter gets its own cache line.
+ * 128  tail (long): where the last whole record ends
+ * 192  latest (long): where the last whole record starts, for lapped subscribers to jump to
+ * 256  data
+ * </pre>
+ * Records are aligned to 8 bytes and start with a 16 byte header: the record length (int, header included,
+ * unaligned), the opcode (int, or PADDING to skip to the end of the ring), then the sequence number (long).
+ * Counters only ever grow, and a counter's position in the data is its value modulo the capacity.
+ */
+final class RingLayout {
+
+    static final long MAGIC = 0x474E4F4D45524E47L; // "GNOMERNG"
+    static final int VERSION = 1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 12;
+    static final int TAIL_INTENT_OFFSET = 64;
+    static final int TAIL_OFFSET = 128;
+    static final int LATEST_OFFSET = 192;
+    static final int HEADER_LENGTH = 256;
+
+    static final int RECORD_LENGTH_OFFSET = 0;
+    static final int RECORD_TYPE_OFFSET = 4;
+    static final int RECORD_SEQUENCE_OFFSET = 8;
+    static final int RECORD_HEADER_LENGTH = 16;
+    static final int ALIGNMENT = 8;
+    static final int PADDING = -1;
+
+    // Volatile and ordered access to the counters in the mapped file
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private RingLayout() {}
+
+    static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * @return the largest payload a ring of `capacity` bytes takes, so a record never takes more than an eighth of it
+     */
+    static int maxPayloadLength(int capacity) {
+        return (capacity >> 3) - RECORD_HEADER_LENGTH;
+    }
+}
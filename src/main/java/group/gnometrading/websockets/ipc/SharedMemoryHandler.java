@@ -0,0 +1,18 @@
+package group.gnometrading.websockets.ipc;
+
+import group.gnometrading.websockets.enums.Opcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives messages from a {@link SharedMemorySubscriber}.
+ */
+@FunctionalInterface
+public interface SharedMemoryHandler {
+    /**
+     * @param sequence the publisher's sequence number for the message, one more than the last unless we were lapped
+     * @param opcode the opcode of the frame the payload came from
+     * @param payload the payload, only valid until this returns
+     */
+    void onMessage(long sequence, Opcode opcode, ByteBuffer payload);
+}
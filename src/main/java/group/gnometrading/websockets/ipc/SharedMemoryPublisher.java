@@ -0,0 +1,139 @@
+package group.gnometrading.websockets.ipc;
+
+import group.gnometrading.websockets.enums.Opcode;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static group.gnometrading.websockets.ipc.RingLayout.*;
+
+/**
+ * Writes payloads into a memory-mapped ring file which {@link SharedMemorySubscriber}s in any process on the host
+ * can read, so one connection (and one pinned poll thread) can feed every JVM which wants the data.
+ * <pre>
+ * try (SharedMemoryPublisher publisher = SharedMemoryPublisher.create("btc-usd", 1 &lt;&lt; 24)) {
+ *     while (running) {
+ *         ByteBuffer payload = client.poll();
+ *         publisher.publish(client.getLastOpcode(), payload);
+ *     }
+ * }
+ * </pre>
+ * It's a broadcast ring: the publisher never waits for subscribers, and a subscriber which falls more than the
+ * ring's capacity behind is lapped and skips ahead (see {@link SharedMemorySubscriber#getLapped()}). Size the
+ * ring for the longest stall you want subscribers to ride out.
+ * <p />
+ * One publisher per file, and publish from one thread. Nothing allocates after construction.
+ */
+public final class SharedMemoryPublisher implements AutoCloseable {
+
+    private static final Path SHM = Path.of("/dev/shm");
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxPayloadLength;
+    private long tail;
+    private long sequence;
+
+    /**
+     * Create the ring file, replacing any old one. Subscribers of an old file keep their mapping of it rather
+     * than seeing it truncated underneath them, but they won't see anything new until they reopen the path.
+     * @param path the file to create, best somewhere memory-backed like /dev/shm
+     * @param capacity the size in bytes of the ring, a power of two. A payload can take at most an eighth of it.
+     */
+    public SharedMemoryPublisher(Path path, int capacity) throws IOException {
+        if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two of at least 1024");
+        }
+        this.capacity = capacity;
+        this.maxPayloadLength = maxPayloadLength(capacity);
+
+        Files.deleteIfExists(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) capacity);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.buffer.putInt(VERSION_OFFSET, VERSION);
+        this.buffer.putInt(CAPACITY_OFFSET, capacity);
+        LONGS.setRelease(this.buffer, MAGIC_OFFSET, MAGIC);
+    }
+
+    /**
+     * Create a ring called `name` in /dev/shm.
+     */
+    public static SharedMemoryPublisher create(String name, int capacity) throws IOException {
+        return new SharedMemoryPublisher(SHM.resolve(name), capacity);
+    }
+
+    /**
+     * @return the largest payload {@link #publish} takes
+     */
+    public int getMaxPayloadLength() {
+        return this.maxPayloadLength;
+    }
+
+    /**
+     * Copy the remaining bytes of `payload` into the ring. The payload's position is not changed.
+     * @return the message's sequence number
+     */
+    public long publish(Opcode opcode, ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > this.maxPayloadLength) {
+            throw new IllegalArgumentException("Payload of " + length + " bytes is over the ring's limit of " + this.maxPayloadLength);
+        }
+
+        int recordLength = RECORD_HEADER_LENGTH + length;
+        int index = (int) (this.tail & (this.capacity - 1));
+        int padding = 0;
+        if (align(recordLength) > this.capacity - index) {
+            padding = this.capacity - index; // Doesn't fit before the end, so skip to the start
+        }
+        long newTail = this.tail + padding + align(recordLength);
+
+        // Claim the space first, so subscribers can tell when what they're reading is being overwritten
+        LONGS.setOpaque(this.buffer, TAIL_INTENT_OFFSET, newTail);
+        VarHandle.storeStoreFence();
+
+        if (padding > 0) {
+            this.buffer.putInt(HEADER_LENGTH + index + RECORD_LENGTH_OFFSET, padding);
+            this.buffer.putInt(HEADER_LENGTH + index + RECORD_TYPE_OFFSET, PADDING);
+            index = 0;
+        }
+        int record = HEADER_LENGTH + index;
+        this.buffer.putInt(record + RECORD_LENGTH_OFFSET, recordLength);
+        this.buffer.putInt(record + RECORD_TYPE_OFFSET, opcode.code);
+        this.buffer.putLong(record + RECORD_SEQUENCE_OFFSET, this.sequence);
+        this.buffer.put(record + RECORD_HEADER_LENGTH, payload, payload.position(), length);
+
+        LONGS.setRelease(this.buffer, LATEST_OFFSET, this.tail + padding);
+        LONGS.setRelease(this.buffer, TAIL_OFFSET, newTail);
+        this.tail = newTail;
+        return this.sequence++;
+    }
+
+    /**
+     * @return the number of messages published
+     */
+    public long getPublished() {
+        return this.sequence;
+    }
+
+    /**
+     * Close the file. The mapping (and the file, until you delete it) sticks around for the subscribers.
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
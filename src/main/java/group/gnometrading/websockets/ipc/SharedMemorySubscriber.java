@@ -0,0 +1,135 @@
+package group.gnometrading.websockets.ipc;
+
+import group.gnometrading.websockets.enums.Opcode;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static group.gnometrading.websockets.ipc.RingLayout.*;
+
+/**
+ * Reads the ring a {@link SharedMemoryPublisher} writes, from any process on the host. Each message is copied out
+ * of the ring once, into a buffer of the subscriber's own, and checked against the publisher's position before
+ * it's handed over. So the handler only ever sees whole payloads, even when the publisher laps us mid-copy.
+ * <pre>
+ * try (SharedMemorySubscriber subscriber = SharedMemorySubscriber.open("btc-usd")) {
+ *     while (running) {
+ *         subscriber.poll((sequence, opcode, payload) -&gt; book.apply(payload), 64);
+ *     }
+ * }
+ * </pre>
+ * Subscribers start at the publisher's current position, never wait on anything, and don't hold the publisher
+ * back. Poll from one thread. Nothing allocates after construction.
+ */
+public final class SharedMemorySubscriber implements AutoCloseable {
+
+    private static final Path SHM = Path.of("/dev/shm");
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ByteBuffer scratch;
+    private long cursor;
+    private long received, lapped;
+
+    /**
+     * Map a ring file. The publisher has to have created it already.
+     * @throws IllegalStateException if the file isn't a ring, or not one we can read
+     */
+    public SharedMemorySubscriber(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (this.channel.size() < HEADER_LENGTH) {
+                throw new IllegalStateException(path + " isn't a ring, or its publisher is still creating it");
+            }
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+            this.buffer.order(ByteOrder.nativeOrder());
+            if ((long) LONGS.getAcquire(this.buffer, MAGIC_OFFSET) != MAGIC) {
+                throw new IllegalStateException(path + " isn't a ring, or its publisher is still creating it");
+            }
+            if (this.buffer.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IllegalStateException(path + " is version " + this.buffer.getInt(VERSION_OFFSET) + " of the ring, not " + VERSION);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+        this.capacity = this.buffer.getInt(CAPACITY_OFFSET);
+        this.scratch = ByteBuffer.allocate(maxPayloadLength(this.capacity));
+        this.cursor = (long) LONGS.getAcquire(this.buffer, TAIL_OFFSET);
+    }
+
+    /**
+     * Map the ring called `name` in /dev/shm.
+     */
+    public static SharedMemorySubscriber open(String name) throws IOException {
+        return new SharedMemorySubscriber(SHM.resolve(name));
+    }
+
+    /**
+     * Hand up to `limit` messages to `handler`, oldest first.
+     * @return the number of messages handled, 0 if there was nothing new
+     */
+    public int poll(SharedMemoryHandler handler, int limit) {
+        int count = 0;
+        while (count < limit && this.cursor < (long) LONGS.getAcquire(this.buffer, TAIL_OFFSET)) {
+            int record = HEADER_LENGTH + (int) (this.cursor & (this.capacity - 1));
+            int length = this.buffer.getInt(record + RECORD_LENGTH_OFFSET);
+            int type = this.buffer.getInt(record + RECORD_TYPE_OFFSET);
+            long sequence = 0;
+            int payloadLength = length - RECORD_HEADER_LENGTH;
+            if (type != PADDING && payloadLength >= 0 && payloadLength <= this.scratch.capacity()) {
+                sequence = this.buffer.getLong(record + RECORD_SEQUENCE_OFFSET);
+                this.scratch.clear().put(0, this.buffer, record + RECORD_HEADER_LENGTH, payloadLength);
+            }
+
+            // Everything above could have been written over while we read it, so check it wasn't
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getVolatile(this.buffer, TAIL_INTENT_OFFSET) - this.capacity > this.cursor) {
+                this.lapped++;
+                this.cursor = (long) LONGS.getAcquire(this.buffer, LATEST_OFFSET);
+                continue;
+            }
+
+            if (type == PADDING) {
+                this.cursor += length;
+                continue;
+            }
+            if (payloadLength < 0 || payloadLength > this.scratch.capacity()) {
+                throw new IllegalStateException("Corrupt record of " + length + " bytes at " + this.cursor);
+            }
+
+            this.cursor += align(length);
+            this.received++;
+            count++;
+            handler.onMessage(sequence, Opcode.fromByte((byte) type), this.scratch.limit(payloadLength).position(0));
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of messages handled
+     */
+    public long getReceived() {
+        return this.received;
+    }
+
+    /**
+     * @return the number of times the publisher overwrote messages before we got to them. Each time, we skip to
+     * the newest message, and the gap shows in the sequence numbers.
+     */
+    public long getLapped() {
+        return this.lapped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
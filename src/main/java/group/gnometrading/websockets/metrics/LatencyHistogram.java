@@ -0,0 +1,135 @@
+package group.gnometrading.websockets.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free latency histogram in nanoseconds. Values under 64ns get a bucket each; above that,
+ * each power of two is split into 32 linear buckets, so any recorded value is off by at most ~3%. Covers the
+ * whole positive long range in ~15kb and never allocates after construction.
+ * <p />
+ * Any number of threads can record and read at once. A reader racing a writer may see a count from one
+ * value and the min/max from the next, which is fine for monitoring.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 64
+    private static final int HALF = SUB_BUCKETS >> 1; // 32
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos the latency. Negative values are clamped to 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.counts.getAndIncrement(indexOf(value));
+        this.total.getAndIncrement();
+        this.sum.getAndAdd(value);
+        this.min.getAndAccumulate(value, Math::min);
+        this.max.getAndAccumulate(value, Math::max);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift); // In [HALF, SUB_BUCKETS)
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF + (mantissa - HALF);
+    }
+
+    /**
+     * @return the largest value which lands in the bucket
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / HALF + SUB_BUCKET_BITS;
+        int mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        return (((long) mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return this.total.get();
+    }
+
+    /**
+     * @return the smallest value recorded, or 0 if nothing has been
+     */
+    public long getMin() {
+        return this.total.get() == 0 ? 0 : this.min.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long count = this.total.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * @param percentile in [0, 100], e.g. 99.9
+     * @return the value at the percentile (the top of its bucket, capped at the max), or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Clear every count. Values recorded concurrently with a reset may or may not survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.total.set(0);
+        this.sum.set(0);
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", min=" + getMin() +
+                ", mean=" + getMean() +
+                ", p50=" + getValueAtPercentile(50) +
+                ", p99=" + getValueAtPercentile(99) +
+                ", p99.9=" + getValueAtPercentile(99.9) +
+                ", max=" + getMax() +
+                '}';
+    }
+}
@@ -0,0 +1,90 @@
+package group.gnometrading.websockets.metrics;
+
+/**
+ * Counters for a single shard of a sharded client. Only the shard's poll thread records into these, so the
+ * increments don't need to be atomic. Any thread can read them.
+ */
+public final class ShardMetrics {
+
+    private final int shard;
+    private final long createdNanos = System.nanoTime();
+    private volatile long messages;
+    private volatile long bytes;
+    private volatile long reconnects;
+    private volatile int subscriptions;
+
+    public ShardMetrics(int shard) {
+        this.shard = shard;
+    }
+
+    public void recordMessage(int payloadBytes) {
+        messages = messages + 1;
+        bytes = bytes + payloadBytes;
+    }
+
+    public void recordReconnect() {
+        reconnects = reconnects + 1;
+    }
+
+    public void setSubscriptions(int subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * @return the number of keys currently subscribed on this shard
+     */
+    public int getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * @return messages per second averaged since the shard was created. Sample {@link #getMessages()} yourself
+     * for a windowed rate.
+     */
+    public double getMessagesPerSecond() {
+        double seconds = (System.nanoTime() - createdNanos) / 1e9;
+        return seconds <= 0 ? 0 : messages / seconds;
+    }
+
+    /**
+     * @return how uneven the load is: the busiest shard's message count over the mean. 1.0 is perfectly even,
+     * N (the number of shards) means one shard does all the work.
+     */
+    public static double skew(ShardMetrics[] shards) {
+        long total = 0, max = 0;
+        for (ShardMetrics metrics : shards) {
+            long count = metrics.messages;
+            total += count;
+            max = Math.max(max, count);
+        }
+        return total == 0 ? 1.0 : (double) max * shards.length / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardMetrics{" +
+                "shard=" + shard +
+                ", messages=" + messages +
+                ", bytes=" + bytes +
+                ", reconnects=" + reconnects +
+                ", subscriptions=" + subscriptions +
+                ", messagesPerSecond=" + getMessagesPerSecond() +
+                '}';
+    }
+}
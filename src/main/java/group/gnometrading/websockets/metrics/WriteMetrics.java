@@ -0,0 +1,164 @@
+package group.gnometrading.websockets.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the outbound path. Socket writes come from more than one thread (the writer, inline writes, and
+ * the on-connect messages from whichever thread connects), so those counters are atomic. The overflow policy's
+ * only have the thread calling write() recording into them, so plain increments do. Any thread can read them.
+ */
+public final class WriteMetrics {
+
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+
+    // Overflow policy outcomes
+    private volatile long rejected;
+    private volatile long droppedOldest;
+    private volatile long spilled;
+    private volatile long blocked;
+    private volatile long blockedNanos;
+    private volatile long controlRejected;
+    private volatile long throttled;
+
+    /**
+     * Record a single write to the socket.
+     * @param frames the number of WebSocket frames in the write
+     * @param bytes the number of bytes in the write
+     */
+    public void recordWrite(int frames, int bytes) {
+        framesWritten.getAndAdd(frames);
+        bytesWritten.getAndAdd(bytes);
+        writeCalls.getAndIncrement();
+        largestBatch.getAndAccumulate(frames, Math::max);
+    }
+
+    /**
+     * Record a data frame which wasn't sent because the queue was full.
+     */
+    public void recordRejected() {
+        rejected = rejected + 1;
+    }
+
+    /**
+     * Record a queued data frame dropped to make room for a newer one.
+     */
+    public void recordDroppedOldest() {
+        droppedOldest = droppedOldest + 1;
+    }
+
+    /**
+     * Record a data frame queued in the overflow ring.
+     */
+    public void recordSpilled() {
+        spilled = spilled + 1;
+    }
+
+    /**
+     * Record a write which had to wait for space in the queue.
+     * @param nanos how long it waited
+     */
+    public void recordBlocked(long nanos) {
+        blocked = blocked + 1;
+        blockedNanos = blockedNanos + nanos;
+    }
+
+    /**
+     * Record a data frame which wasn't sent because it would have gone over a rate limit.
+     */
+    public void recordThrottled() {
+        throttled = throttled + 1;
+    }
+
+    /**
+     * Record a ping or pong which wasn't sent because the control lane was full. Called under the control lane's lock.
+     */
+    public void recordControlRejected() {
+        controlRejected = controlRejected + 1;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the number of writes issued to the socket (i.e. syscalls for the JDK's socket impl)
+     */
+    public long getWriteCalls() {
+        return writeCalls.get();
+    }
+
+    public int getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * @return the average number of frames coalesced into a single socket write
+     */
+    public double getFramesPerWrite() {
+        long calls = writeCalls.get();
+        return calls == 0 ? 0 : (double) framesWritten.get() / calls;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest;
+    }
+
+    public long getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * @return the number of writes which had to wait for space in the queue
+     */
+    public long getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * @return the total time writes spent waiting for space in the queue
+     */
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    public long getControlRejected() {
+        return controlRejected;
+    }
+
+    /**
+     * @return the number of writes refused by the rate pacer
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteMetrics{" +
+                "framesWritten=" + getFramesWritten() +
+                ", bytesWritten=" + getBytesWritten() +
+                ", writeCalls=" + getWriteCalls() +
+                ", largestBatch=" + getLargestBatch() +
+                ", framesPerWrite=" + getFramesPerWrite() +
+                ", rejected=" + rejected +
+                ", droppedOldest=" + droppedOldest +
+                ", spilled=" + spilled +
+                ", blocked=" + blocked +
+                ", blockedNanos=" + blockedNanos +
+                ", controlRejected=" + controlRejected +
+                ", throttled=" + throttled +
+                '}';
+    }
+}
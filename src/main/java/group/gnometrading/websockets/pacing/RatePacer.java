@@ -0,0 +1,189 @@
+package group.gnometrading.websockets.pacing;
+
+import group.gnometrading.websockets.clock.NanoClock;
+import group.gnometrading.websockets.clock.SystemClock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Keeps a connection's writes under the venue's rate limits, so we find out we're about to go over from write()
+ * rather than from the venue throttling or disconnecting us. Set it with
+ * {@link group.gnometrading.websockets.WebSocketClient.Builder#withRatePacer}.
+ * <pre>
+ * static final int ORDERS = 1, CANCELS = 2;
+ *
+ * new RatePacer.Builder()
+ *         .withConnectionLimit(new TokenBucket(300, 10, TimeUnit.SECONDS, 20))
+ *         .withClassLimit(ORDERS, new TokenBucket(50, 1, TimeUnit.SECONDS, 10))
+ *         .withClassLimit(CANCELS, new TokenBucket(100, 1, TimeUnit.SECONDS, 20))
+ *         .build();
+ * </pre>
+ * A write takes a token from its message class's bucket (if it has one) and from the connection's; if either is
+ * empty it's refused with {@link group.gnometrading.websockets.enums.WriteStatus#THROTTLED} and neither is charged.
+ * Writes without a class are class 0. Pings, pongs and on-connect messages aren't paced.
+ * <p />
+ * {@link #getBudget(int)} and {@link #getDelayNanos(int)} are there to decide whether to send now, wait, or conflate
+ * before getting refused. Frames are paced as they're written, not as they reach the socket, so a writer thread
+ * which falls behind can still send them closer together than they were written; leave some headroom under the
+ * limit or use inline writes.
+ */
+public final class RatePacer {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final TokenBucket connectionLimit;
+    private final TokenBucket[] classLimits; // By message class, null for classes without a limit
+    private final NanoClock nanoClock;
+    private final long[] throttled; // By message class
+
+    private RatePacer(TokenBucket connectionLimit, TokenBucket[] classLimits, NanoClock nanoClock) {
+        this.connectionLimit = connectionLimit;
+        this.classLimits = classLimits;
+        this.nanoClock = nanoClock;
+        this.throttled = new long[classLimits.length];
+    }
+
+    /**
+     * Take a token for a message of class `messageClass` from every bucket it's limited by.
+     * @return false, without waiting or charging anything, if any of them are empty
+     */
+    public boolean tryAcquire(int messageClass) {
+        checkClass(messageClass);
+        long now = this.nanoClock.nanoTime();
+        TokenBucket classLimit = this.classLimits[messageClass];
+        if (classLimit != null && !classLimit.tryAcquire(now)) {
+            LONGS.getAndAdd(this.throttled, messageClass, 1L);
+            return false;
+        }
+        if (this.connectionLimit != null && !this.connectionLimit.tryAcquire(now)) {
+            if (classLimit != null) {
+                classLimit.release();
+            }
+            LONGS.getAndAdd(this.throttled, messageClass, 1L);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hand back the tokens from {@link #tryAcquire(int)} for a message which didn't get sent after all.
+     */
+    public void release(int messageClass) {
+        TokenBucket classLimit = this.classLimits[messageClass];
+        if (classLimit != null) {
+            classLimit.release();
+        }
+        if (this.connectionLimit != null) {
+            this.connectionLimit.release();
+        }
+    }
+
+    /**
+     * @return how many messages of this class could be sent right now, Long.MAX_VALUE if it's not limited at all
+     */
+    public long getBudget(int messageClass) {
+        checkClass(messageClass);
+        long now = this.nanoClock.nanoTime();
+        long budget = Long.MAX_VALUE;
+        TokenBucket classLimit = this.classLimits[messageClass];
+        if (classLimit != null) {
+            budget = classLimit.available(now);
+        }
+        if (this.connectionLimit != null) {
+            budget = Math.min(budget, this.connectionLimit.available(now));
+        }
+        return budget;
+    }
+
+    /**
+     * @return how long until a message of this class could be sent, 0 if it could be sent now
+     */
+    public long getDelayNanos(int messageClass) {
+        checkClass(messageClass);
+        long now = this.nanoClock.nanoTime();
+        long delay = 0;
+        TokenBucket classLimit = this.classLimits[messageClass];
+        if (classLimit != null) {
+            delay = classLimit.delayNanos(now);
+        }
+        if (this.connectionLimit != null) {
+            delay = Math.max(delay, this.connectionLimit.delayNanos(now));
+        }
+        return delay;
+    }
+
+    /**
+     * @return the number of messages of this class refused so far
+     */
+    public long getThrottled(int messageClass) {
+        checkClass(messageClass);
+        return (long) LONGS.getVolatile(this.throttled, messageClass);
+    }
+
+    private void checkClass(int messageClass) {
+        if (messageClass < 0 || messageClass >= this.classLimits.length) {
+            throw new IllegalArgumentException("Unknown message class " + messageClass);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RatePacer{" +
+                "connectionLimit=" + connectionLimit +
+                ", classLimits=" + Arrays.toString(classLimits) +
+                ", throttled=" + Arrays.toString(throttled) +
+                '}';
+    }
+
+    public static class Builder {
+        private TokenBucket connectionLimit;
+        private TokenBucket[] classLimits = new TokenBucket[1];
+        private NanoClock nanoClock = SystemClock.INSTANCE;
+
+        public Builder() {}
+
+        /**
+         * Limit every data frame on the connection. Share a bucket between pacers to limit several connections
+         * together.
+         */
+        public Builder withConnectionLimit(TokenBucket connectionLimit) {
+            this.connectionLimit = connectionLimit;
+            return this;
+        }
+
+        /**
+         * Limit writes of `messageClass` on top of the connection limit. Classes are small non-negative numbers of
+         * your choosing; any class up to the highest one configured can be written, limited or not.
+         */
+        public Builder withClassLimit(int messageClass, TokenBucket classLimit) {
+            if (messageClass < 0) {
+                throw new IllegalArgumentException("messageClass can't be negative");
+            }
+            if (messageClass >= this.classLimits.length) {
+                this.classLimits = Arrays.copyOf(this.classLimits, messageClass + 1);
+            }
+            this.classLimits[messageClass] = classLimit;
+            return this;
+        }
+
+        /**
+         * Set the clock buckets are refilled by. Defaults to {@link SystemClock}.
+         */
+        public Builder withNanoClock(NanoClock nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public RatePacer build() {
+            if (this.connectionLimit == null && Arrays.stream(this.classLimits).allMatch(limit -> limit == null)) {
+                throw new IllegalArgumentException("A pacer needs at least one limit");
+            }
+            if (this.nanoClock == null) {
+                throw new IllegalArgumentException("nanoClock can't be null");
+            }
+            return new RatePacer(this.connectionLimit, this.classLimits.clone(), this.nanoClock);
+        }
+    }
+}
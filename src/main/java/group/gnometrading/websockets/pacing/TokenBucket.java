@@ -0,0 +1,111 @@
+package group.gnometrading.websockets.pacing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket refilling at `permits` per `period`, holding at most `burst` tokens. Rather than a token count and
+ * a refill timestamp, it keeps the single time at which the bucket would be full again (the generic cell rate
+ * algorithm), so taking a token is one CAS: no locks, no allocation, and safe to share between threads, e.g. one
+ * bucket for an account's limit across several connections.
+ * <p />
+ * Every method takes the current time from whoever's calling, so it's as cheap (or as testable) as their clock.
+ * <p />
+ * Pick the burst with the venue's window in mind. A bucket which starts full lets `burst` through at once and then
+ * `permits` more over the following `period`, so for a hard "N per window" limit `burst` + `permits` mustn't go
+ * over N.
+ */
+public final class TokenBucket {
+
+    private static final VarHandle FULL_AT;
+
+    static {
+        try {
+            FULL_AT = MethodHandles.lookup().findVarHandle(TokenBucket.class, "fullAt", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long nanosPerPermit;
+    private final long burst;
+    private final long burstNanos; // How far ahead of now fullAt may get
+
+    private volatile long fullAt = Long.MIN_VALUE; // Before any clock's now, so it starts full
+
+    /**
+     * @param permits the sustained rate, per `period`
+     * @param burst the most tokens the bucket holds, i.e. how many can go out back to back
+     */
+    public TokenBucket(long permits, long period, TimeUnit unit, long burst) {
+        if (permits <= 0 || period <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permits, period and burst must be positive");
+        }
+        this.nanosPerPermit = unit.toNanos(period) / permits;
+        if (this.nanosPerPermit == 0) {
+            throw new IllegalArgumentException("More than one permit a nanosecond isn't much of a limit");
+        }
+        this.burst = burst;
+        this.burstNanos = Math.multiplyExact(this.nanosPerPermit, burst);
+    }
+
+    /**
+     * Take a token if there's one.
+     * @param now the current time in nanos
+     * @return false, without waiting, if the bucket's empty
+     */
+    public boolean tryAcquire(long now) {
+        while (true) {
+            long current = fullAt;
+            long next = Math.max(current, now) + this.nanosPerPermit;
+            if (next - now > this.burstNanos) {
+                return false;
+            }
+            if (FULL_AT.compareAndSet(this, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hand back a token taken by {@link #tryAcquire(long)} which wasn't used after all.
+     */
+    public void release() {
+        FULL_AT.getAndAdd(this, -this.nanosPerPermit);
+    }
+
+    /**
+     * @return the number of tokens which could be taken right now
+     */
+    public long available(long now) {
+        long current = fullAt;
+        long backlog = current > now ? current - now : 0;
+        return (this.burstNanos - backlog) / this.nanosPerPermit;
+    }
+
+    /**
+     * @return how long until the next token, 0 if there's one now
+     */
+    public long delayNanos(long now) {
+        long current = fullAt;
+        long backlog = current > now ? current - now : 0;
+        return Math.max(0, backlog + this.nanosPerPermit - this.burstNanos);
+    }
+
+    public long getBurst() {
+        return this.burst;
+    }
+
+    public long getNanosPerPermit() {
+        return this.nanosPerPermit;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket{" +
+                "nanosPerPermit=" + nanosPerPermit +
+                ", burst=" + burst +
+                '}';
+    }
+}
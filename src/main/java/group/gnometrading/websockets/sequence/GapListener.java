@@ -0,0 +1,23 @@
+package group.gnometrading.websockets.sequence;
+
+/**
+ * Told when a {@link SequenceTracker} starts waiting on missing sequence numbers, and when it stops. This is the
+ * place to request a snapshot (or a replay) and, once it's applied, call {@link SequenceTracker#recover}.
+ * Called on the poll thread, so hand anything slow off elsewhere.
+ */
+public interface GapListener {
+
+    /**
+     * @param stream the stream with the gap
+     * @param from the first missing sequence number
+     * @param to the last missing sequence number, inclusive
+     */
+    void onGap(long stream, long from, long to);
+
+    /**
+     * The stream is contiguous again, either because the missing payloads turned up or after a recovery.
+     * @param stream the stream
+     * @param sequence the last sequence number delivered
+     */
+    default void onRecovered(long stream, long sequence) {}
+}
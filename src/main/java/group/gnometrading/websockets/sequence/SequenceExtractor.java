@@ -0,0 +1,33 @@
+package group.gnometrading.websockets.sequence;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pulls the stream (e.g. an instrument or channel id) and its sequence number out of a payload. Both run on the poll
+ * thread for every message, so they must not allocate; read the bytes in place, e.g. with a
+ * {@link group.gnometrading.websockets.codec.json.JsonScanner} or a fixed offset for binary protocols.
+ */
+@FunctionalInterface
+public interface SequenceExtractor {
+
+    /**
+     * Returned for payloads which aren't sequenced, like heartbeats or subscription acks. These are passed straight
+     * through.
+     */
+    long NO_SEQUENCE = Long.MIN_VALUE;
+
+    /**
+     * @param payload the payload. Don't change its position or limit.
+     * @return the sequence number, or {@link #NO_SEQUENCE}
+     */
+    long sequence(ByteBuffer payload);
+
+    /**
+     * Only called for sequenced payloads. Feeds with a single sequence for everything can leave this alone.
+     * @param payload the payload. Don't change its position or limit.
+     * @return the stream the sequence number belongs to. Anything but Long.MIN_VALUE.
+     */
+    default long stream(ByteBuffer payload) {
+        return 0;
+    }
+}
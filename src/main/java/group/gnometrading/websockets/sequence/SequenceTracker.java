@@ -0,0 +1,368 @@
+package group.gnometrading.websockets.sequence;
+
+import group.gnometrading.websockets.utils.LongIntMap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tracks the next expected sequence number per stream on the poll thread, so a frame lost across a reconnect shows
+ * up as a gap the moment the next one arrives rather than as a crossed book some time later.
+ * <pre>
+ * SequenceTracker tracker = new SequenceTracker.Builder()
+ *         .withExtractor(payload -&gt; scanner.wrap(payload).findLong(SEQUENCE))
+ *         .withGapListener((stream, from, to) -&gt; requestSnapshot(stream))
+ *         .build();
+ *
+ * while (running) {
+ *     tracker.offer(client.poll(), (stream, sequence, payload) -&gt; book.apply(payload));
+ * }
+ *
+ * // Once the snapshot's applied, still on the poll thread
+ * tracker.recover(stream, snapshotSequence, handler);
+ * </pre>
+ * Payloads past a gap are copied into a preallocated reorder window, one per stream, and handed over in order once
+ * the gap's filled, either by the missing payloads turning up late or by {@link #recover}. So the poll loop keeps
+ * reading at wire speed while the snapshot's in flight. Payloads which don't fit (too far ahead, or too large) are
+ * dropped and counted; they leave a new gap behind once the stream gets that far.
+ * <p />
+ * Payloads behind the expected sequence number are duplicates and dropped. The first payload seen on a stream sets
+ * where it starts. Nothing allocates after construction, and streams are looked up in a primitive map. Single
+ * threaded: everything here runs on the poll thread, and the counters may be a little behind when read elsewhere.
+ */
+public final class SequenceTracker {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final SequenceExtractor extractor;
+    private final GapListener gapListener;
+    private final int maxStreams;
+    private final int window;
+    private final int maxPayloadSize;
+
+    private final LongIntMap streamsByKey;
+    private int streamCount;
+
+    // Per stream
+    private final long[] streamKeys;
+    private final long[] expected;
+    private final int[] buffered;
+    private final boolean[] gapped;
+
+    // Per stream, `window` slots each, indexed by sequence modulo the window
+    private final long[] slotSequences;
+    private final int[] slotLengths;
+    private final byte[] data;
+    private final ByteBuffer view;
+
+    private volatile long delivered, gaps, recovered, duplicates, overflowed, rejected;
+
+    private SequenceTracker(SequenceExtractor extractor, GapListener gapListener, int maxStreams, int window,
+                            int maxPayloadSize) {
+        this.extractor = extractor;
+        this.gapListener = gapListener;
+        this.maxStreams = maxStreams;
+        this.window = window;
+        this.maxPayloadSize = maxPayloadSize;
+        this.streamsByKey = new LongIntMap(maxStreams);
+        this.streamKeys = new long[maxStreams];
+        this.expected = new long[maxStreams];
+        this.buffered = new int[maxStreams];
+        this.gapped = new boolean[maxStreams];
+
+        int slots = Math.multiplyExact(maxStreams, window);
+        this.slotSequences = new long[slots];
+        this.slotLengths = new int[slots];
+        this.data = new byte[Math.multiplyExact(slots, maxPayloadSize)];
+        this.view = ByteBuffer.wrap(this.data);
+        Arrays.fill(this.slotSequences, EMPTY);
+    }
+
+    /**
+     * Hand the payload to `handler` if it's next, along with anything in the reorder window it unblocks. Otherwise
+     * hold it back or drop it.
+     * @param payload the payload, e.g. straight from poll(). Its position is not changed.
+     * @return the number of payloads delivered, which is 0 if this one was held back or dropped
+     */
+    public int offer(ByteBuffer payload, SequencedHandler handler) {
+        long sequence = this.extractor.sequence(payload);
+        if (sequence == SequenceExtractor.NO_SEQUENCE) {
+            delivered = delivered + 1;
+            handler.onMessage(0, SequenceExtractor.NO_SEQUENCE, payload);
+            return 1;
+        }
+
+        long key = this.extractor.stream(payload);
+        int stream = this.streamsByKey.get(key);
+        if (stream == LongIntMap.MISSING) {
+            if (this.streamCount == this.maxStreams) {
+                rejected = rejected + 1;
+                return 0;
+            }
+            stream = this.streamCount++;
+            this.streamsByKey.put(key, stream);
+            this.streamKeys[stream] = key;
+            this.expected[stream] = sequence;
+        }
+
+        long next = this.expected[stream];
+        if (sequence < next) {
+            duplicates = duplicates + 1;
+            return 0;
+        }
+
+        if (sequence > next) {
+            if (!this.gapped[stream]) {
+                this.gapped[stream] = true;
+                gaps = gaps + 1;
+                this.gapListener.onGap(key, next, sequence - 1);
+            }
+            hold(stream, sequence, payload);
+            return 0;
+        }
+
+        delivered = delivered + 1;
+        handler.onMessage(key, sequence, payload);
+        this.expected[stream] = sequence + 1;
+        return 1 + release(stream, handler);
+    }
+
+    /**
+     * Move a stream on past a snapshot (or any other out of band recovery) and hand over whatever the reorder window
+     * was holding after it. Payloads held back from before the snapshot are dropped as duplicates.
+     * @param stream the stream, as returned by {@link SequenceExtractor#stream}
+     * @param sequence the last sequence number the snapshot covers
+     * @return the number of payloads delivered
+     */
+    public int recover(long stream, long sequence, SequencedHandler handler) {
+        int index = this.streamsByKey.get(stream);
+        if (index == LongIntMap.MISSING) {
+            if (this.streamCount == this.maxStreams) {
+                throw new IllegalStateException("Already tracking " + this.maxStreams + " streams");
+            }
+            index = this.streamCount++;
+            this.streamsByKey.put(stream, index);
+            this.streamKeys[index] = stream;
+        }
+
+        long next = sequence + 1;
+        this.expected[index] = next;
+        if (this.buffered[index] > 0) {
+            int base = index * this.window;
+            for (int slot = base; slot < base + this.window; slot++) {
+                long held = this.slotSequences[slot];
+                // The snapshot could be ahead of, or even behind, what's held
+                if (held != EMPTY && (held < next || held - next >= this.window)) {
+                    this.slotSequences[slot] = EMPTY;
+                    this.buffered[index]--;
+                    if (held < next) {
+                        duplicates = duplicates + 1;
+                    } else {
+                        overflowed = overflowed + 1;
+                    }
+                }
+            }
+        }
+
+        this.gapped[index] = true; // So a stream which was never gapped still hears it's recovered
+        return release(index, handler);
+    }
+
+    private void hold(int stream, long sequence, ByteBuffer payload) {
+        int length = payload.remaining();
+        if (sequence - this.expected[stream] >= this.window || length > this.maxPayloadSize) {
+            overflowed = overflowed + 1;
+            return;
+        }
+
+        int slot = slot(stream, sequence);
+        if (this.slotSequences[slot] == sequence) {
+            duplicates = duplicates + 1;
+            return;
+        }
+        payload.get(payload.position(), this.data, slot * this.maxPayloadSize, length);
+        this.slotSequences[slot] = sequence;
+        this.slotLengths[slot] = length;
+        this.buffered[stream]++;
+    }
+
+    /**
+     * Deliver what's contiguous from the expected sequence number, then either report the next gap or that the
+     * stream's whole again.
+     */
+    private int release(int stream, SequencedHandler handler) {
+        long key = this.streamKeys[stream];
+        int count = 0;
+        while (this.buffered[stream] > 0) {
+            long next = this.expected[stream];
+            int slot = slot(stream, next);
+            if (this.slotSequences[slot] != next) {
+                break;
+            }
+
+            this.slotSequences[slot] = EMPTY;
+            this.buffered[stream]--;
+            this.expected[stream] = next + 1;
+            int offset = slot * this.maxPayloadSize;
+            this.view.clear().position(offset).limit(offset + this.slotLengths[slot]);
+            delivered = delivered + 1;
+            handler.onMessage(key, next, this.view);
+            count++;
+        }
+
+        if (this.gapped[stream]) {
+            long next = this.expected[stream];
+            if (this.buffered[stream] == 0) {
+                this.gapped[stream] = false;
+                recovered = recovered + 1;
+                this.gapListener.onRecovered(key, next - 1);
+            } else {
+                // Still waiting, but the stream's moved so it's on a different range than before
+                long first = next + 1;
+                while (this.slotSequences[slot(stream, first)] != first) {
+                    first++;
+                }
+                gaps = gaps + 1;
+                this.gapListener.onGap(key, next, first - 1);
+            }
+        }
+        return count;
+    }
+
+    private int slot(int stream, long sequence) {
+        return stream * this.window + (int) Math.floorMod(sequence, (long) this.window);
+    }
+
+    /**
+     * @return the next sequence number expected on `stream`, or {@link SequenceExtractor#NO_SEQUENCE} if it hasn't
+     * been seen yet
+     */
+    public long getExpected(long stream) {
+        int index = this.streamsByKey.get(stream);
+        return index == LongIntMap.MISSING ? SequenceExtractor.NO_SEQUENCE : this.expected[index];
+    }
+
+    /**
+     * @return true if `stream` is waiting on missing sequence numbers
+     */
+    public boolean isGapped(long stream) {
+        int index = this.streamsByKey.get(stream);
+        return index != LongIntMap.MISSING && this.gapped[index];
+    }
+
+    /**
+     * @return the number of payloads held back in `stream`'s reorder window
+     */
+    public int getBuffered(long stream) {
+        int index = this.streamsByKey.get(stream);
+        return index == LongIntMap.MISSING ? 0 : this.buffered[index];
+    }
+
+    /**
+     * @return the number of distinct streams seen
+     */
+    public int streams() {
+        return this.streamCount;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of gaps reported, counting each new missing range on a stream once
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    public long getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return the number of payloads dropped for being behind the stream or already held back
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of payloads dropped for being too far ahead or too large for the reorder window
+     */
+    public long getOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return the number of payloads dropped because there were already `maxStreams` streams
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceTracker{" +
+                "streams=" + streamCount +
+                ", delivered=" + delivered +
+                ", gaps=" + gaps +
+                ", recovered=" + recovered +
+                ", duplicates=" + duplicates +
+                ", overflowed=" + overflowed +
+                ", rejected=" + rejected +
+                '}';
+    }
+
+    public static class Builder {
+        private SequenceExtractor extractor;
+        private GapListener gapListener = (stream, from, to) -> {};
+        private int maxStreams = 64;
+        private int window = 64;
+        private int maxPayloadSize = 1024;
+
+        public Builder() {}
+
+        public Builder withExtractor(SequenceExtractor extractor) {
+            this.extractor = extractor;
+            return this;
+        }
+
+        public Builder withGapListener(GapListener gapListener) {
+            this.gapListener = gapListener;
+            return this;
+        }
+
+        /**
+         * The most distinct streams to expect. Payloads for streams beyond this are dropped. Defaults to 64.
+         */
+        public Builder withMaxStreams(int maxStreams) {
+            this.maxStreams = maxStreams;
+            return this;
+        }
+
+        /**
+         * Hold back up to `frames` payloads of up to `maxPayloadSize` bytes past a gap, per stream. All of it's
+         * allocated up front: maxStreams * frames * maxPayloadSize bytes. Defaults to 64 frames of 1kb.
+         */
+        public Builder withReorderWindow(int frames, int maxPayloadSize) {
+            this.window = frames;
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        public SequenceTracker build() {
+            if (this.extractor == null) {
+                throw new IllegalArgumentException("A tracker needs a SequenceExtractor");
+            }
+            if (this.gapListener == null) {
+                throw new IllegalArgumentException("gapListener can't be null");
+            }
+            if (this.maxStreams <= 0 || this.window <= 0 || this.maxPayloadSize <= 0) {
+                throw new IllegalArgumentException("maxStreams, frames and maxPayloadSize must be positive");
+            }
+            return new SequenceTracker(this.extractor, this.gapListener, this.maxStreams, this.window,
+                    this.maxPayloadSize);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package group.gnometrading.websockets.sequence;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives payloads from a {@link SequenceTracker} in sequence order, per stream.
+ */
+@FunctionalInterface
+public interface SequencedHandler {
+
+    /**
+     * @param stream the stream, or 0 if the payload isn't sequenced
+     * @param sequence the sequence number, or {@link SequenceExtractor#NO_SEQUENCE}
+     * @param payload either the payload offered or one held back in the reorder window. Only valid until this
+     *                returns.
+     */
+    void onMessage(long stream, long sequence, ByteBuffer payload);
+}
@@ -0,0 +1,17 @@
+package group.gnometrading.websockets.sharding;
+
+/**
+ * How the shards' streams are merged into the {@link ShardHandler}.
+ */
+public enum MergeMode {
+    /**
+     * Each shard's poll thread calls the handler directly, so the handler must be thread safe. Messages for a
+     * key are in order since a key lives on a single shard (except for the moment it moves during a rebalance).
+     */
+    PER_KEY,
+    /**
+     * Calls into the handler are serialized, giving one stream in arrival order. The handler doesn't need to be
+     * thread safe, but the shards contend on a lock for every message.
+     */
+    ORDERED
+}
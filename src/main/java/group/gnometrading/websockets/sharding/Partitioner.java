@@ -0,0 +1,23 @@
+package group.gnometrading.websockets.sharding;
+
+/**
+ * Decides which shard a subscription lives on.
+ * @param <K> the subscription key, e.g. a symbol or a channel name
+ */
+@FunctionalInterface
+public interface Partitioner<K> {
+
+    /**
+     * @param key the subscription key
+     * @param numShards the number of shards to choose from
+     * @return a shard in [0, numShards). Must be stable for the same key and shard count.
+     */
+    int partition(K key, int numShards);
+
+    /**
+     * Partition by the key's hash code. Fine for strings and boxed numbers.
+     */
+    static <K> Partitioner<K> hashing() {
+        return (key, numShards) -> Math.floorMod(key.hashCode(), numShards);
+    }
+}
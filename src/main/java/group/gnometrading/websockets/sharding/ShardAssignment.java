@@ -0,0 +1,138 @@
+package group.gnometrading.websockets.sharding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks which keys are subscribed on which shard. A key lives on the shard the partitioner picks for it.
+ * While that shard is down, it's partitioned again across the shards which are up, so keys on healthy shards
+ * never move. Not thread safe; {@link ShardedClient} locks around it.
+ * @param <K> the subscription key
+ */
+final class ShardAssignment<K> {
+
+    interface Changes<K> {
+        /**
+         * Called for each shard which is up and whose subscriptions changed.
+         */
+        void apply(int shard, List<K> subscribe, List<K> unsubscribe);
+    }
+
+    private final Partitioner<K> partitioner;
+    private final int numShards;
+    private final boolean[] up;
+    private final Set<K> keys = new LinkedHashSet<>();
+    private final List<Set<K>> subscribed; // What each shard has actually been sent
+
+    ShardAssignment(Partitioner<K> partitioner, int numShards) {
+        this.partitioner = partitioner;
+        this.numShards = numShards;
+        this.up = new boolean[numShards];
+        this.subscribed = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            this.subscribed.add(new LinkedHashSet<>());
+        }
+    }
+
+    boolean add(K key) {
+        return this.keys.add(key);
+    }
+
+    boolean remove(K key) {
+        return this.keys.remove(key);
+    }
+
+    /**
+     * Mark the shard as (re)connected. Whatever it was subscribed to before is gone with the old socket.
+     */
+    void up(int shard) {
+        this.up[shard] = true;
+        this.subscribed.get(shard).clear();
+    }
+
+    void down(int shard) {
+        this.up[shard] = false;
+        this.subscribed.get(shard).clear();
+    }
+
+    boolean isUp(int shard) {
+        return this.up[shard];
+    }
+
+    /**
+     * @return the shard `key` should be subscribed on right now, or -1 if every shard is down
+     */
+    int shardOf(K key) {
+        int primary = checkRange(this.partitioner.partition(key, this.numShards), this.numShards);
+        if (this.up[primary]) {
+            return primary;
+        }
+
+        int live = 0;
+        for (boolean shardUp : this.up) {
+            if (shardUp) live++;
+        }
+        if (live == 0) {
+            return -1;
+        }
+
+        int fallback = checkRange(this.partitioner.partition(key, live), live);
+        for (int shard = 0; shard < this.numShards; shard++) {
+            if (this.up[shard] && fallback-- == 0) {
+                return shard;
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    Set<K> subscriptions(int shard) {
+        return this.subscribed.get(shard);
+    }
+
+    /**
+     * Work out where every key should be and report the difference from what's subscribed now.
+     */
+    void rebalance(Changes<K> changes) {
+        List<Set<K>> desired = new ArrayList<>(this.numShards);
+        for (int i = 0; i < this.numShards; i++) {
+            desired.add(new LinkedHashSet<>());
+        }
+        for (K key : this.keys) {
+            int shard = shardOf(key);
+            if (shard >= 0) {
+                desired.get(shard).add(key);
+            }
+        }
+
+        for (int shard = 0; shard < this.numShards; shard++) {
+            if (!this.up[shard]) {
+                continue;
+            }
+
+            Set<K> current = this.subscribed.get(shard);
+            Set<K> target = desired.get(shard);
+            List<K> subscribe = new ArrayList<>();
+            List<K> unsubscribe = new ArrayList<>();
+            for (K key : target) {
+                if (!current.contains(key)) subscribe.add(key);
+            }
+            for (K key : current) {
+                if (!target.contains(key)) unsubscribe.add(key);
+            }
+
+            if (!subscribe.isEmpty() || !unsubscribe.isEmpty()) {
+                this.subscribed.set(shard, target);
+                changes.apply(shard, subscribe, unsubscribe);
+            }
+        }
+    }
+
+    private static int checkRange(int shard, int numShards) {
+        if (shard < 0 || shard >= numShards) {
+            throw new IllegalStateException("Partitioner returned " + shard + " for " + numShards + " shards");
+        }
+        return shard;
+    }
+}
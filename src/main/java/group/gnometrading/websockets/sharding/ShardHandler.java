@@ -0,0 +1,16 @@
+package group.gnometrading.websockets.sharding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the payloads from every shard.
+ */
+@FunctionalInterface
+public interface ShardHandler {
+
+    /**
+     * @param shard the shard the payload was read on
+     * @param payload the payload, straight from the shard's receive buffer. Only valid until this returns.
+     */
+    void onMessage(int shard, ByteBuffer payload);
+}
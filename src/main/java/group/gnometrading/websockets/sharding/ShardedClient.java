@@ -0,0 +1,458 @@
+package group.gnometrading.websockets.sharding;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.WebSocketListener;
+import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.idle.BackoffIdleStrategy;
+import group.gnometrading.websockets.idle.BlockingIdleStrategy;
+import group.gnometrading.websockets.idle.IdleStrategy;
+import group.gnometrading.websockets.metrics.ShardMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Spreads a set of subscriptions across N connections, for venues which cap the messages per connection.
+ * <p />
+ * Each shard is its own {@link WebSocketClient} with its own poll thread. The shard threads connect, subscribe
+ * to the keys the {@link Partitioner} gives them, and hand every payload to a single {@link ShardHandler}.
+ * When a shard drops, its keys are moved onto the shards which are still up; when it reconnects, they move back.
+ * <p />
+ * Threads come from the {@link ThreadFactory} on the builder, called once per shard in shard order, so that's
+ * where to pin them to cores.
+ * <p />
+ * Shards reconnect themselves when poll fails or the server closes the connection or hangs up, so leave automatic
+ * reconnect off on the per-shard builders unless you need the timeout detection. A shard only sees the server hang
+ * up if its poll does; over plain ws:// sockets that takes {@link Builder#withBlockingPoll(boolean)}, see
+ * {@link WebSocketClient#tryPoll()}.
+ * @param <K> the subscription key
+ */
+public class ShardedClient<K> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedClient.class);
+
+    private final List<Shard> shards;
+    private final ShardAssignment<K> assignment;
+    private final SubscriptionProtocol<K> protocol;
+    private final ShardHandler handler;
+    private final MergeMode mergeMode;
+    private final Object mergeLock = new Object();
+    private final ThreadFactory threadFactory;
+    private final long reconnectBackoffMillis;
+    private final boolean blockingPoll;
+    private volatile boolean running;
+
+    private ShardedClient(int numShards, IntFunction<WebSocketClient.Builder> clientBuilder, Partitioner<K> partitioner,
+                          SubscriptionProtocol<K> protocol, ShardHandler handler, MergeMode mergeMode,
+                          Collection<K> subscriptions, ThreadFactory threadFactory,
+                          Supplier<IdleStrategy> idleStrategy, WebSocketListener listener, long reconnectBackoffMillis,
+                          boolean blockingPoll) {
+        this.assignment = new ShardAssignment<>(partitioner, numShards);
+        this.protocol = protocol;
+        this.handler = handler;
+        this.mergeMode = mergeMode;
+        this.threadFactory = threadFactory;
+        this.reconnectBackoffMillis = reconnectBackoffMillis;
+        this.blockingPoll = blockingPoll;
+
+        for (K key : subscriptions) {
+            this.assignment.add(key);
+        }
+
+        this.shards = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            IdleStrategy strategy = idleStrategy.get();
+            if (strategy instanceof BlockingIdleStrategy && !blockingPoll) {
+                throw new IllegalArgumentException("Nothing wakes a BlockingIdleStrategy up, use withBlockingPoll(true)");
+            }
+            Shard shard = new Shard(i, strategy);
+            shard.client = clientBuilder.apply(i).withListener(shard.new ShardListener(listener)).build();
+            this.shards.add(shard);
+        }
+    }
+
+    /**
+     * Start every shard's poll thread. Shards connect and subscribe on their own threads, so this doesn't block.
+     */
+    public synchronized void start() {
+        if (this.running) {
+            throw new IllegalStateException("Already started");
+        }
+
+        this.running = true;
+        for (Shard shard : this.shards) {
+            shard.thread = this.threadFactory.newThread(shard);
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Add a subscription. It's sent on whichever shard it lands on, if that shard is up.
+     * @return false if already subscribed
+     */
+    public synchronized boolean subscribe(K key) {
+        if (!this.assignment.add(key)) {
+            return false;
+        }
+        rebalance();
+        return true;
+    }
+
+    /**
+     * Remove a subscription.
+     * @return false if not subscribed
+     */
+    public synchronized boolean unsubscribe(K key) {
+        if (!this.assignment.remove(key)) {
+            return false;
+        }
+        rebalance();
+        return true;
+    }
+
+    /**
+     * @return the shard `key` is currently subscribed on, or -1 if every shard is down
+     */
+    public synchronized int getShardOf(K key) {
+        return this.assignment.shardOf(key);
+    }
+
+    public int getNumShards() {
+        return this.shards.size();
+    }
+
+    /**
+     * @return the shard's client, e.g. for writing. Do not poll it. Anything still queued when the shard goes down
+     * is thrown away, since its subscriptions are sent again when it comes back.
+     */
+    public WebSocketClient getClient(int shard) {
+        return this.shards.get(shard).client;
+    }
+
+    public ShardMetrics getMetrics(int shard) {
+        return this.shards.get(shard).metrics;
+    }
+
+    /**
+     * @see ShardMetrics#skew(ShardMetrics[])
+     */
+    public double getSkew() {
+        ShardMetrics[] metrics = new ShardMetrics[this.shards.size()];
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i] = this.shards.get(i).metrics;
+        }
+        return ShardMetrics.skew(metrics);
+    }
+
+    private synchronized void shardUp(int index) {
+        this.assignment.up(index);
+        rebalance();
+    }
+
+    private synchronized void shardDown(int index) {
+        if (!this.assignment.isUp(index)) {
+            return;
+        }
+        // Queued writes would otherwise go out on the next connection, after the shard's subscribed all over again
+        int discarded = this.shards.get(index).client.discardPendingWrites();
+        logger.trace("Discarded {} queued writes on shard {}", discarded, index);
+        this.assignment.down(index);
+        rebalance();
+    }
+
+    /**
+     * Only called with the lock held, which is also what keeps the shards' write queues single producer.
+     */
+    private void rebalance() {
+        this.assignment.rebalance((index, subscribe, unsubscribe) -> {
+            WebSocketClient client = this.shards.get(index).client;
+            try {
+                if (!unsubscribe.isEmpty()) {
+                    logger.trace("Unsubscribing {} keys on shard {}", unsubscribe.size(), index);
+                    this.protocol.unsubscribe(client, unsubscribe);
+                }
+                if (!subscribe.isEmpty()) {
+                    logger.trace("Subscribing {} keys on shard {}", subscribe.size(), index);
+                    this.protocol.subscribe(client, subscribe);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error updating subscriptions on shard {}", index, e);
+            }
+        });
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            this.shards.get(i).metrics.setSubscriptions(this.assignment.subscriptions(i).size());
+        }
+    }
+
+    /**
+     * Stop the poll threads and close every shard's client.
+     */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        for (Shard shard : this.shards) {
+            shard.client.close();
+        }
+
+        for (Shard shard : this.shards) {
+            if (shard.thread != null) {
+                shard.thread.interrupt();
+                try {
+                    shard.thread.join();
+                } catch (InterruptedException ignored) {}
+                shard.thread = null;
+            }
+        }
+    }
+
+    private class Shard implements Runnable {
+        private final int index;
+        private final IdleStrategy idleStrategy;
+        private final ShardMetrics metrics;
+        private WebSocketClient client;
+        private Thread thread;
+        private volatile boolean connected; // Set by onConnect, which may come from the client's timeout thread
+        private volatile boolean dropped; // Set by onDisconnect, in case the timeout thread's already reconnected
+
+        private Shard(int index, IdleStrategy idleStrategy) {
+            this.index = index;
+            this.idleStrategy = idleStrategy;
+            this.metrics = new ShardMetrics(index);
+        }
+
+        @Override
+        public void run() {
+            boolean firstConnect = true;
+            while (running) {
+                try {
+                    if (client.getSocketState() == SocketState.CLOSED) {
+                        if (!firstConnect) {
+                            metrics.recordReconnect();
+                        }
+                        firstConnect = false;
+                        client.connect();
+                    }
+
+                    if (connected) {
+                        connected = false;
+                        shardUp(index);
+                    }
+
+                    ByteBuffer payload = blockingPoll ? client.poll() : client.poll(idleStrategy);
+                    if (dropped || client.getSocketState() != SocketState.OPEN) {
+                        // Closed or dropped by the server (or by a reconnect from the timeout thread)
+                        dropped = false;
+                        shardDown(index);
+                        if (client.getSocketState() != SocketState.OPEN) {
+                            backoff();
+                        }
+                        continue;
+                    }
+
+                    metrics.recordMessage(payload.remaining());
+                    if (mergeMode == MergeMode.ORDERED) {
+                        synchronized (mergeLock) {
+                            handler.onMessage(index, payload);
+                        }
+                    } else {
+                        handler.onMessage(index, payload);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (!running) {
+                        break;
+                    }
+
+                    logger.error("Shard {} failed, reconnecting", index, e);
+                    shardDown(index);
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {} // We throw nothing
+                    backoff();
+                }
+            }
+        }
+
+        private void backoff() {
+            try {
+                Thread.sleep(reconnectBackoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+
+        private class ShardListener implements WebSocketListener {
+            private final WebSocketListener delegate;
+
+            private ShardListener(WebSocketListener delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void onConnect() {
+                connected = true;
+                if (delegate != null) delegate.onConnect();
+            }
+
+            @Override
+            public void onWriteError(Exception e) {
+                if (delegate != null) delegate.onWriteError(e);
+            }
+
+            @Override
+            public void onClose() {
+                if (delegate != null) delegate.onClose();
+            }
+
+            @Override
+            public void onDisconnect() {
+                dropped = true;
+                if (delegate != null) delegate.onDisconnect();
+            }
+
+            @Override
+            public void onTimeout() {
+                if (delegate != null) delegate.onTimeout();
+            }
+
+            @Override
+            public void onPong(long roundTripNanos) {
+                if (delegate != null) delegate.onPong(roundTripNanos);
+            }
+        }
+    }
+
+    public static class Builder<K> {
+        private int numShards = 1;
+        private IntFunction<WebSocketClient.Builder> clientBuilder;
+        private Partitioner<K> partitioner = Partitioner.hashing();
+        private SubscriptionProtocol<K> protocol;
+        private ShardHandler handler;
+        private MergeMode mergeMode = MergeMode.PER_KEY;
+        private final List<K> subscriptions = new ArrayList<>();
+        private ThreadFactory threadFactory;
+        private Supplier<IdleStrategy> idleStrategy = BackoffIdleStrategy::new;
+        private WebSocketListener listener;
+        private long reconnectBackoffMillis = 1_000;
+        private boolean blockingPoll = false;
+
+        public Builder() {}
+
+        public Builder<K> withShards(int numShards) {
+            if (numShards <= 0) {
+                throw new IllegalArgumentException("numShards must be positive");
+            }
+            this.numShards = numShards;
+            return this;
+        }
+
+        /**
+         * Set the client builder for each shard, e.g. to bind each shard to a different local address.
+         * Any listener set on these builders is replaced; use {@link #withListener(WebSocketListener)}.
+         */
+        public Builder<K> withClientBuilder(IntFunction<WebSocketClient.Builder> clientBuilder) {
+            this.clientBuilder = clientBuilder;
+            return this;
+        }
+
+        public Builder<K> withPartitioner(Partitioner<K> partitioner) {
+            this.partitioner = partitioner;
+            return this;
+        }
+
+        public Builder<K> withSubscriptionProtocol(SubscriptionProtocol<K> protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        public Builder<K> withHandler(ShardHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public Builder<K> withMergeMode(MergeMode mergeMode) {
+            this.mergeMode = mergeMode;
+            return this;
+        }
+
+        public Builder<K> withSubscriptions(Collection<K> subscriptions) {
+            this.subscriptions.addAll(subscriptions);
+            return this;
+        }
+
+        /**
+         * Set where the shards' poll threads come from. Called once per shard, in shard order, so pin them here.
+         * Defaults to daemon threads named websocket-shard-N.
+         */
+        public Builder<K> withThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Set how each poll thread idles between frames. Called once per shard. Defaults to a
+         * {@link BackoffIdleStrategy}; use a busy spin if the threads have cores to themselves. Not a
+         * {@link BlockingIdleStrategy}, which nothing would wake; use {@link #withBlockingPoll(boolean)} instead.
+         */
+        public Builder<K> withIdleStrategy(Supplier<IdleStrategy> idleStrategy) {
+            this.idleStrategy = idleStrategy;
+            return this;
+        }
+
+        /**
+         * Block each shard's thread in {@link WebSocketClient#poll()} instead of idling between non-blocking polls.
+         * The idle strategy's ignored. Use it for transports whose non-blocking reads can't see the server hang up
+         * (plain ws:// sockets), or to keep the shard threads off the CPU. Defaults to false.
+         */
+        public Builder<K> withBlockingPoll(boolean blockingPoll) {
+            this.blockingPoll = blockingPoll;
+            return this;
+        }
+
+        /**
+         * Set a listener which is called for every shard's client.
+         */
+        public Builder<K> withListener(WebSocketListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Builder<K> withReconnectBackoffMillis(long reconnectBackoffMillis) {
+            this.reconnectBackoffMillis = reconnectBackoffMillis;
+            return this;
+        }
+
+        public ShardedClient<K> build() {
+            if (clientBuilder == null) {
+                throw new IllegalArgumentException("clientBuilder cannot be null");
+            } else if (protocol == null) {
+                throw new IllegalArgumentException("protocol cannot be null");
+            } else if (handler == null) {
+                throw new IllegalArgumentException("handler cannot be null");
+            }
+
+            ThreadFactory factory = threadFactory;
+            if (factory == null) {
+                AtomicInteger counter = new AtomicInteger();
+                factory = runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-shard-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            }
+
+            return new ShardedClient<>(numShards, clientBuilder, partitioner, protocol, handler, mergeMode,
+                    subscriptions, factory, idleStrategy, listener, reconnectBackoffMillis, blockingPoll);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package group.gnometrading.websockets.sharding;
+
+import group.gnometrading.websockets.WebSocketClient;
+
+import java.util.List;
+
+/**
+ * How to (un)subscribe on a venue, e.g. by writing a JSON subscribe message with the list of symbols.
+ * Both are called while the sharded client's lock is held, so a single client is never written to
+ * from two threads at once by the sharded client.
+ * @param <K> the subscription key
+ */
+public interface SubscriptionProtocol<K> {
+
+    /**
+     * Subscribe to `keys` on `client`. Called with every key a shard is responsible for after it (re)connects,
+     * and with the keys it picks up when another shard goes down.
+     */
+    void subscribe(WebSocketClient client, List<K> keys);
+
+    /**
+     * Unsubscribe from `keys` on `client`. Called when keys move off a healthy shard, e.g. back to their own
+     * shard once it reconnects. Defaults to doing nothing, in which case you may see duplicates for a bit.
+     */
+    default void unsubscribe(WebSocketClient client, List<K> keys) {}
+}
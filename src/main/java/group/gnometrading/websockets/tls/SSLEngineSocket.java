@@ -0,0 +1,591 @@
+package group.gnometrading.websockets.tls;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A TLS socket built on an {@link SSLEngine} over a {@link SocketChannel}. It's a {@link Socket}
+ * so the client can't tell the difference, but under the hood:
+ * <ul>
+ *     <li>ciphertext is read from and written to the channel through direct buffers (no JDK temp copies)</li>
+ *     <li>records are decrypted straight into the caller's array (i.e. the client's frame buffer) whenever it
+ *     has room for them, and through a staging buffer otherwise</li>
+ *     <li>engines come from a {@link TlsSessionCache}, so reconnects to the same host resume the session</li>
+ *     <li>once connected the channel is non-blocking, like {@link group.gnometrading.websockets.transport.ChannelTransport},
+ *     so {@link InputStream#available()} can read and decrypt whatever the kernel has without ever blocking.
+ *     That's what makes {@code tryPoll()} work over wss://. Blocking reads and writes wait on a selector.</li>
+ * </ul>
+ * Only the Socket methods the client (and sane callers) use are implemented.
+ */
+public class SSLEngineSocket extends Socket {
+
+    private static final Logger logger = LoggerFactory.getLogger(SSLEngineSocket.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final TlsSessionCache sessionCache;
+    private final SocketChannel channel;
+    private final String host;
+    private Selector readSelector, writeSelector;
+    private SSLEngine engine;
+    private ByteBuffer netIn, netOut, staged;
+    private final ReentrantLock writeLock = new ReentrantLock(); // Not a monitor, so close() can give up on it
+    // SSLEngine's single buffer wrap/unwrap overloads allocate an array per call, so we keep our own
+    private final ByteBuffer[] unwrapDsts = new ByteBuffer[1];
+    private final ByteBuffer[] wrapSrcs = new ByteBuffer[1];
+    // Views over the last arrays we were handed, the client always passes the same ones
+    private byte[] readArray, writeArray;
+    private ByteBuffer readView, writeView;
+    private final InputStream inputStream = new EngineInputStream();
+    private final OutputStream outputStream = new EngineOutputStream();
+    private volatile boolean closed;
+    private boolean eof; // The server's gone, but there may still be staged bytes to hand out first
+    private long handshakeNanos;
+    private boolean resumed;
+
+    /**
+     * Create an unconnected socket. The handshake happens in {@link #connect(SocketAddress, int)}.
+     * @param sessionCache where engines and sessions come from
+     * @param host the host name used for SNI, session lookup and hostname verification. If null, the host
+     *             string of the address passed to connect is used.
+     */
+    public SSLEngineSocket(TlsSessionCache sessionCache, String host) throws IOException {
+        super((SocketImpl) null);
+        this.sessionCache = sessionCache;
+        this.host = host;
+        this.channel = SocketChannel.open();
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+        if (!(endpoint instanceof InetSocketAddress)) {
+            throw new IllegalArgumentException("Unsupported address type");
+        }
+
+        InetSocketAddress address = (InetSocketAddress) endpoint;
+        this.channel.socket().connect(address, timeout);
+        this.channel.configureBlocking(false);
+        this.readSelector = Selector.open();
+        this.writeSelector = Selector.open();
+        this.channel.register(this.readSelector, SelectionKey.OP_READ);
+        this.channel.register(this.writeSelector, SelectionKey.OP_WRITE);
+
+        String peerHost = this.host != null ? this.host : address.getHostString();
+        this.engine = this.sessionCache.createEngine(peerHost, address.getPort());
+        SSLSession session = this.engine.getSession();
+        this.netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        this.netOut = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        this.staged = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.staged.flip(); // Staged is kept in read mode
+
+        long start = System.nanoTime();
+        handshake();
+        this.handshakeNanos = System.nanoTime() - start;
+        this.resumed = this.sessionCache.onHandshake(peerHost, address.getPort(), this.engine.getSession(), this.handshakeNanos);
+        logger.trace("TLS handshake with {} took {}ns (resumed: {})", peerHost, this.handshakeNanos, this.resumed);
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint) throws IOException {
+        connect(endpoint, 0);
+    }
+
+    private void handshake() throws IOException {
+        this.engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = this.engine.getHandshakeStatus();
+
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_WRAP: {
+                    status = wrap(EMPTY);
+                    break;
+                }
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN: {
+                    ByteBuffer dst = this.staged.compact();
+                    SSLEngineResult result;
+                    try {
+                        result = unwrap(dst, true);
+                    } finally {
+                        dst.flip();
+                    }
+                    if (result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during TLS handshake");
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+                }
+                case NEED_TASK: {
+                    Runnable task;
+                    while ((task = this.engine.getDelegatedTask()) != null) {
+                        task.run(); // We're blocking anyway, no point handing these off
+                    }
+                    status = this.engine.getHandshakeStatus();
+                    break;
+                }
+                default:
+                    throw new SSLException("Unexpected handshake status: " + status);
+            }
+        }
+    }
+
+    /**
+     * Unwrap at least one record into `dst`, reading from the channel as needed.
+     * @param block if false, give up as soon as the channel has nothing for us
+     * @return the result of the last unwrap (BUFFER_UNDERFLOW if we gave up), or null on EOF
+     */
+    private SSLEngineResult unwrap(ByteBuffer dst, boolean block) throws IOException {
+        while (true) {
+            this.netIn.flip();
+            SSLEngineResult result;
+            try {
+                this.unwrapDsts[0] = dst;
+                result = this.engine.unwrap(this.netIn, this.unwrapDsts, 0, 1);
+            } finally {
+                this.unwrapDsts[0] = null;
+                this.netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+                case OK:
+                case CLOSED:
+                case BUFFER_OVERFLOW:
+                    return result;
+                case BUFFER_UNDERFLOW: {
+                    int read = readChannel(block);
+                    if (read < 0) {
+                        if (this.netIn.position() == 0) {
+                            return null;
+                        }
+                        throw new EOFException("Socket closed mid TLS record");
+                    } else if (read == 0) {
+                        return result;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private int readChannel(boolean block) throws IOException {
+        int read;
+        while ((read = this.channel.read(this.netIn)) == 0 && block && this.netIn.hasRemaining()) {
+            await(this.readSelector);
+        }
+        return read;
+    }
+
+    /**
+     * Wait for the channel to be ready. close() from another thread closes the selector underneath us, which
+     * would otherwise escape as an unchecked ClosedSelectorException rather than the IOException a socket gives.
+     */
+    private static void await(Selector selector) throws IOException {
+        try {
+            selector.select();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw (IOException) new ClosedChannelException().initCause(e);
+        }
+    }
+
+    private SSLEngineResult.HandshakeStatus wrap(ByteBuffer src) throws IOException {
+        this.writeLock.lock();
+        try {
+            SSLEngineResult result;
+            do {
+                this.netOut.clear();
+                this.wrapSrcs[0] = src;
+                result = this.engine.wrap(this.wrapSrcs, 0, 1, this.netOut);
+                this.wrapSrcs[0] = null;
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    throw new SSLException("Packet buffer too small for TLS record");
+                }
+
+                this.netOut.flip();
+                while (this.netOut.hasRemaining()) {
+                    if (this.channel.write(this.netOut) == 0) {
+                        // The kernel's send buffer is full, rare enough that waiting on a syscall doesn't matter
+                        await(this.writeSelector);
+                    }
+                }
+            } while (src.hasRemaining() && result.getStatus() == SSLEngineResult.Status.OK);
+            return result.getHandshakeStatus();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Run anything the engine needs after the handshake (key updates, new session tickets).
+     */
+    private void afterUnwrap(SSLEngineResult result) throws IOException {
+        SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+        while (status == SSLEngineResult.HandshakeStatus.NEED_TASK || status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = this.engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                status = this.engine.getHandshakeStatus();
+            } else {
+                status = wrap(EMPTY);
+            }
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (this.staged.hasRemaining()) {
+                int n = Math.min(len, this.staged.remaining());
+                this.staged.get(b, off, n);
+                return n;
+            } else if (this.eof) {
+                return -1;
+            }
+
+            // Decrypt straight into the caller's buffer. If the record doesn't fit, the engine tells us
+            // with BUFFER_OVERFLOW and we go through the staging buffer instead.
+            if (b != this.readArray) {
+                this.readArray = b;
+                this.readView = ByteBuffer.wrap(b);
+            }
+            ByteBuffer dst = this.readView;
+            dst.limit(off + len).position(off);
+            SSLEngineResult result = unwrap(dst, true);
+            if (result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                this.eof = true;
+                return -1;
+            }
+
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                this.staged.clear();
+                try {
+                    result = unwrap(this.staged, true);
+                } finally {
+                    this.staged.flip();
+                }
+                if (result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    this.eof = true;
+                    return -1;
+                }
+            }
+
+            afterUnwrap(result);
+            if (result.bytesProduced() > 0 && dst.position() > off) {
+                return dst.position() - off;
+            }
+            // Otherwise it was a non-application record (or went to the staging buffer), so go around again
+        }
+    }
+
+    /**
+     * Read whatever the kernel has without blocking, and decrypt it into the staging buffer. Unlike JDK's
+     * SSLSocket this counts bytes which haven't been decrypted yet, at the cost of a copy out of the staging
+     * buffer on the non-blocking path.
+     * @return the number of decrypted bytes ready, or 1 once the server's closed so the next read returns -1
+     */
+    private int available() throws IOException {
+        if (this.staged.hasRemaining()) {
+            return this.staged.remaining();
+        } else if (this.eof) {
+            return 1;
+        }
+
+        SSLEngineResult result;
+        do {
+            this.staged.clear();
+            try {
+                result = unwrap(this.staged, false);
+            } finally {
+                this.staged.flip();
+            }
+            if (result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                this.eof = true;
+                return 1;
+            }
+            afterUnwrap(result);
+            // A record with nothing for us (a session ticket, say) may have more behind it
+        } while (result.getStatus() == SSLEngineResult.Status.OK && !this.staged.hasRemaining());
+        return this.staged.remaining();
+    }
+
+    /**
+     * @return how long the TLS handshake took in nanoseconds
+     */
+    public long getHandshakeNanos() {
+        return this.handshakeNanos;
+    }
+
+    /**
+     * @return true if the TLS session was resumed from an earlier connection to the same host
+     */
+    public boolean isResumed() {
+        return this.resumed;
+    }
+
+    public SSLSession getSession() {
+        return this.engine == null ? null : this.engine.getSession();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!isConnected()) {
+            throw new SocketException("Socket is not connected");
+        }
+        return this.inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!isConnected()) {
+            throw new SocketException("Socket is not connected");
+        }
+        return this.outputStream;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        if (this.engine != null && this.channel.isConnected()) {
+            sendCloseNotify();
+        }
+        try {
+            this.channel.close();
+        } finally {
+            if (this.readSelector != null) {
+                this.readSelector.close();
+                this.writeSelector.close();
+            }
+        }
+    }
+
+    /**
+     * Best effort, and never waits. A writer stuck on a stalled peer holds the write lock (and the send buffer's
+     * full anyway), which is exactly when the timeout thread closes us to reconnect, so then we skip it.
+     */
+    private void sendCloseNotify() {
+        if (!this.writeLock.tryLock()) {
+            logger.trace("Writer is busy, closing without close_notify");
+            return;
+        }
+        try {
+            this.engine.closeOutbound();
+            this.netOut.clear();
+            this.wrapSrcs[0] = EMPTY;
+            this.engine.wrap(this.wrapSrcs, 0, 1, this.netOut);
+            this.netOut.flip();
+            this.channel.write(this.netOut); // Once, whatever fits
+        } catch (IOException e) {
+            logger.trace("Failed to send close_notify", e);
+        } finally {
+            this.wrapSrcs[0] = null;
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.channel.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.channel.socket().isBound();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return null; // The channel carries ciphertext, don't let anyone write to it directly
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) throws IOException {
+        this.channel.socket().bind(bindpoint);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return this.channel.socket().getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return this.channel.socket().getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.channel.socket().getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.channel.socket().getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return this.channel.socket().getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return this.channel.socket().getLocalSocketAddress();
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        this.channel.socket().setTcpNoDelay(on);
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return this.channel.socket().getTcpNoDelay();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        // The channel's socket adaptor ignores SO_TIMEOUT for channel reads, so this is accepted and unused
+        this.channel.socket().setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return this.channel.socket().getSoTimeout();
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) throws SocketException {
+        this.channel.socket().setReceiveBufferSize(size);
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws SocketException {
+        return this.channel.socket().getReceiveBufferSize();
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws SocketException {
+        this.channel.socket().setSendBufferSize(size);
+    }
+
+    @Override
+    public int getSendBufferSize() throws SocketException {
+        return this.channel.socket().getSendBufferSize();
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException {
+        this.channel.socket().setKeepAlive(on);
+    }
+
+    @Override
+    public boolean getKeepAlive() throws SocketException {
+        return this.channel.socket().getKeepAlive();
+    }
+
+    @Override
+    public void setReuseAddress(boolean on) throws SocketException {
+        this.channel.socket().setReuseAddress(on);
+    }
+
+    @Override
+    public boolean getReuseAddress() throws SocketException {
+        return this.channel.socket().getReuseAddress();
+    }
+
+    @Override
+    public String toString() {
+        return "SSLEngineSocket[" + this.channel + "]";
+    }
+
+    private class EngineInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n <= 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SSLEngineSocket.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return SSLEngineSocket.this.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            SSLEngineSocket.this.close();
+        }
+    }
+
+    private class EngineOutputStream extends OutputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeLock.lock();
+            try {
+                if (b != writeArray) {
+                    writeArray = b;
+                    writeView = ByteBuffer.wrap(b);
+                }
+                writeView.limit(off + len).position(off);
+                wrap(writeView);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            SSLEngineSocket.this.close();
+        }
+    }
+}
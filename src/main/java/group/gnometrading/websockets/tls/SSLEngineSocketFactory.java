@@ -0,0 +1,88 @@
+package group.gnometrading.websockets.tls;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Creates {@link SSLEngineSocket}s. All sockets from one factory share its {@link TlsSessionCache}, so
+ * reconnects resume their TLS sessions.
+ */
+public class SSLEngineSocketFactory extends SocketFactory {
+
+    private static volatile SSLEngineSocketFactory defaultFactory;
+
+    private final TlsSessionCache sessionCache;
+
+    public SSLEngineSocketFactory(TlsSessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    /**
+     * @return a factory over {@link TlsSessionCache#getDefault()}
+     */
+    public static SocketFactory getDefault() {
+        SSLEngineSocketFactory factory = defaultFactory;
+        if (factory == null) {
+            synchronized (SSLEngineSocketFactory.class) {
+                factory = defaultFactory;
+                if (factory == null) {
+                    factory = defaultFactory = new SSLEngineSocketFactory(TlsSessionCache.getDefault());
+                }
+            }
+        }
+        return factory;
+    }
+
+    public TlsSessionCache getSessionCache() {
+        return this.sessionCache;
+    }
+
+    /**
+     * Creates an unconnected socket. The host name for SNI and session lookup is taken from the address
+     * passed to connect, so use an unresolved address or one created with a host name.
+     */
+    @Override
+    public Socket createSocket() throws IOException {
+        return new SSLEngineSocket(this.sessionCache, null);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        SSLEngineSocket socket = new SSLEngineSocket(this.sessionCache, host);
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        SSLEngineSocket socket = new SSLEngineSocket(this.sessionCache, host);
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    /**
+     * The host name for SNI and session lookup is whatever `host` was created with, or its IP literal. It's never
+     * looked up, since a reverse DNS lookup blocks and may well give a name the certificate isn't for.
+     */
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        SSLEngineSocket socket = new SSLEngineSocket(this.sessionCache, null);
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    /**
+     * See {@link #createSocket(InetAddress, int)} for where the host name comes from.
+     */
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        SSLEngineSocket socket = new SSLEngineSocket(this.sessionCache, null);
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+}
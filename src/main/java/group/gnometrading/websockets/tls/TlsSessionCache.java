@@ -0,0 +1,133 @@
+package group.gnometrading.websockets.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the SSLContext which engines are created from, plus the last session negotiated per host.
+ * <p />
+ * JSSE keeps its client session cache (session IDs and TLS 1.3 tickets) on the SSLContext and looks it up
+ * by the peer host and port given to {@link SSLContext#createSSLEngine(String, int)}. So as long as every
+ * reconnect to a host goes through the same cache, the handshake is a resumption rather than a full one.
+ * The per-host map here is only used to tell the two apart and for stats.
+ */
+public class TlsSessionCache {
+
+    private static volatile TlsSessionCache defaultCache;
+
+    private final SSLContext sslContext;
+    private final boolean verifyHostname;
+    private final Map<String, SessionInfo> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * @param sslContext the context to create engines from (and which holds the JSSE session cache)
+     * @param verifyHostname if true, the server's certificate must match the host connected to
+     */
+    public TlsSessionCache(SSLContext sslContext, boolean verifyHostname) {
+        this.sslContext = sslContext;
+        this.verifyHostname = verifyHostname;
+    }
+
+    public TlsSessionCache(SSLContext sslContext) {
+        this(sslContext, true);
+    }
+
+    /**
+     * @return a process wide cache over the JDK's default SSLContext
+     */
+    public static TlsSessionCache getDefault() {
+        TlsSessionCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (TlsSessionCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    try {
+                        cache = defaultCache = new TlsSessionCache(SSLContext.getDefault());
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException("No default SSLContext available", e);
+                    }
+                }
+            }
+        }
+        return cache;
+    }
+
+    public SSLEngine createEngine(String host, int port) {
+        SSLEngine engine = sslContext.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (verifyHostname) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        return engine;
+    }
+
+    /**
+     * Record a finished handshake.
+     * @return true if the session was resumed from an earlier connection to the same host
+     */
+    boolean onHandshake(String host, int port, SSLSession session, long handshakeNanos) {
+        String key = host + ":" + port;
+        SessionInfo previous = sessions.get(key);
+        // A resumed session keeps the original session's creation time, a new one gets a new one
+        boolean resumed = previous != null && previous.session.getCreationTime() == session.getCreationTime();
+        sessions.put(key, new SessionInfo(session, handshakeNanos, resumed));
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+        return resumed;
+    }
+
+    /**
+     * Drop what we know about a host and invalidate its session, forcing a full handshake next time.
+     */
+    public void invalidate(String host, int port) {
+        SessionInfo info = sessions.remove(host + ":" + port);
+        if (info != null) {
+            info.session.invalidate();
+        }
+    }
+
+    /**
+     * @return how long the last handshake to the host took in nanoseconds, or -1 if we haven't connected
+     */
+    public long getLastHandshakeNanos(String host, int port) {
+        SessionInfo info = sessions.get(host + ":" + port);
+        return info == null ? -1 : info.handshakeNanos;
+    }
+
+    /**
+     * @return true if the last handshake to the host was a resumption
+     */
+    public boolean wasLastHandshakeResumed(String host, int port) {
+        SessionInfo info = sessions.get(host + ":" + port);
+        return info != null && info.resumed;
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    private static final class SessionInfo {
+        private final SSLSession session;
+        private final long handshakeNanos;
+        private final boolean resumed;
+
+        private SessionInfo(SSLSession session, long handshakeNanos, boolean resumed) {
+            this.session = session;
+            this.handshakeNanos = handshakeNanos;
+            this.resumed = resumed;
+        }
+    }
+}
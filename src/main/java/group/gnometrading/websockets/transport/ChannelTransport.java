@@ -0,0 +1,151 @@
+package group.gnometrading.websockets.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * A {@link Transport} over an NIO {@link SocketChannel}, either TCP or a Unix domain socket. The channel is kept
+ * non-blocking, so {@link #readNow(ByteBuffer)} is a plain read; blocking reads and writes wait on a selector
+ * which is only ever touched when the channel has nothing for us.
+ * <p />
+ * There's no TLS here. Over a Unix domain socket that's the point: talk plain WebSockets to a local proxy which
+ * terminates TLS (stunnel, haproxy, envoy) and keep the handshake and the crypto off the poll thread.
+ */
+public final class ChannelTransport implements Transport {
+
+    private final SocketChannel channel;
+    private final Selector readSelector, writeSelector;
+
+    /**
+     * @param channel a connected channel. It's switched to non-blocking mode.
+     */
+    public ChannelTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(false);
+        this.readSelector = Selector.open();
+        this.writeSelector = Selector.open();
+        this.channel.register(this.readSelector, SelectionKey.OP_READ);
+        this.channel.register(this.writeSelector, SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * @return a factory connecting over TCP to the URI's host and port, with TCP_NODELAY set. Only for ws://.
+     */
+    public static TransportFactory tcp() {
+        return uri -> {
+            if (!"ws".equals(uri.getScheme())) {
+                throw new IllegalArgumentException("ChannelTransport doesn't do TLS: " + uri);
+            }
+
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(new InetSocketAddress(uri.getHost(), uri.getPort() == -1 ? 80 : uri.getPort()));
+                return new ChannelTransport(channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * @param path the Unix domain socket, e.g. one a local TLS terminating proxy listens on
+     * @return a factory connecting to `path` whatever the URI. The URI's host still goes in the handshake.
+     */
+    public static TransportFactory unixDomain(Path path) {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        return uri -> {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(address);
+                return new ChannelTransport(channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        };
+    }
+
+    public SocketChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read;
+        while ((read = this.channel.read(dst)) == 0 && dst.hasRemaining()) {
+            await(this.readSelector);
+        }
+        return read;
+    }
+
+    @Override
+    public int readNow(ByteBuffer dst) throws IOException {
+        return this.channel.read(dst);
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (this.channel.write(src) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += srcs[i].remaining();
+        }
+
+        while (remaining > 0) {
+            long written = this.channel.write(srcs, offset, length);
+            if (written == 0) {
+                awaitWritable();
+            }
+            remaining -= written;
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        // The kernel's send buffer is full, which is rare enough that a syscall to wait on it doesn't matter
+        await(this.writeSelector);
+    }
+
+    /**
+     * close() from another thread (the client's timeout thread, say) closes the selector underneath us. Turn that
+     * into the IOException a socket would throw, rather than an unchecked exception which kills the poll loop.
+     */
+    private static void await(Selector selector) throws IOException {
+        try {
+            selector.select();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw (IOException) new ClosedChannelException().initCause(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close();
+        } finally {
+            this.readSelector.close();
+            this.writeSelector.close();
+        }
+    }
+}
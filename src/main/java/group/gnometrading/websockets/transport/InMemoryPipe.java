@@ -0,0 +1,169 @@
+package group.gnometrading.websockets.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Two in-memory transports wired back to back, for tests and benchmarks which want the whole client without the
+ * kernel. The client gets {@link #getClient()} (e.g. through {@link #factory()}) and whatever plays the server
+ * reads and writes {@link #getServer()}.
+ * <p />
+ * Each direction is a fixed-size SPSC byte ring, so nothing allocates once it's built. A blocked reader or writer
+ * parks and is woken by the other side.
+ */
+public final class InMemoryPipe {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16; // 64kb each way
+
+    private final Ring toServer, toClient;
+    private final InMemoryTransport client, server;
+
+    public InMemoryPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the bytes buffered in each direction, rounded up to a power of two
+     */
+    public InMemoryPipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.toServer = new Ring(Math.max(size, 1));
+        this.toClient = new Ring(Math.max(size, 1));
+        this.client = new InMemoryTransport(this.toClient, this.toServer);
+        this.server = new InMemoryTransport(this.toServer, this.toClient);
+    }
+
+    public Transport getClient() {
+        return this.client;
+    }
+
+    public Transport getServer() {
+        return this.server;
+    }
+
+    /**
+     * @return a factory which hands out this pipe's client side. A pipe is single use, so reconnecting
+     * needs a new pipe; give each connect its own with a factory of your own.
+     */
+    public TransportFactory factory() {
+        return uri -> this.client;
+    }
+
+    /**
+     * One direction. `head` is the next byte to read and `tail` the next to write; both only ever grow.
+     */
+    private static final class Ring {
+        private final byte[] bytes;
+        private final int mask;
+        private volatile long head, tail;
+        private volatile boolean closed;
+        private volatile Thread waitingReader, waitingWriter;
+
+        private Ring(int capacity) {
+            this.bytes = new byte[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int read(ByteBuffer dst, boolean block) throws IOException {
+            long available;
+            while ((available = tail - head) == 0) {
+                if (closed) {
+                    return -1;
+                } else if (!block || !dst.hasRemaining()) {
+                    return 0;
+                }
+                waitingReader = Thread.currentThread();
+                if (tail == head && !closed) {
+                    LockSupport.park(this);
+                }
+                waitingReader = null;
+            }
+
+            int count = (int) Math.min(available, dst.remaining());
+            long from = head;
+            for (int i = 0; i < count; ) {
+                int index = (int) ((from + i) & mask);
+                int chunk = Math.min(count - i, bytes.length - index);
+                dst.put(bytes, index, chunk);
+                i += chunk;
+            }
+            head = from + count;
+            LockSupport.unpark(waitingWriter);
+            return count;
+        }
+
+        private void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                if (closed) {
+                    throw new EOFException("Pipe closed");
+                }
+
+                long free = bytes.length - (tail - head);
+                if (free == 0) {
+                    waitingWriter = Thread.currentThread();
+                    if (bytes.length == tail - head && !closed) {
+                        LockSupport.park(this);
+                    }
+                    waitingWriter = null;
+                    continue;
+                }
+
+                int count = (int) Math.min(free, src.remaining());
+                long from = tail;
+                for (int i = 0; i < count; ) {
+                    int index = (int) ((from + i) & mask);
+                    int chunk = Math.min(count - i, bytes.length - index);
+                    src.get(bytes, index, chunk);
+                    i += chunk;
+                }
+                tail = from + count;
+                LockSupport.unpark(waitingReader);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            LockSupport.unpark(waitingReader);
+            LockSupport.unpark(waitingWriter);
+        }
+    }
+
+    private static final class InMemoryTransport implements Transport {
+        private final Ring in, out;
+
+        private InMemoryTransport(Ring in, Ring out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return this.in.read(dst, true);
+        }
+
+        @Override
+        public int readNow(ByteBuffer dst) throws IOException {
+            return this.in.read(dst, false);
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            this.out.write(src);
+        }
+
+        /**
+         * Closing either side closes the pipe both ways, like a socket.
+         */
+        @Override
+        public void close() {
+            this.in.close();
+            this.out.close();
+        }
+    }
+}
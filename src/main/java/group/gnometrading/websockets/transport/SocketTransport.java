@@ -0,0 +1,68 @@
+package group.gnometrading.websockets.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Transport} over a connected blocking {@link Socket}, including {@link group.gnometrading.websockets.tls.SSLEngineSocket}s.
+ * This is what the client uses unless it's given a {@link TransportFactory}. Streams only take arrays, so only
+ * heap buffers work here, which is all the client uses.
+ * <p />
+ * {@link #readNow(ByteBuffer)} relies on {@link InputStream#available()}. SSLEngineSocket's reads and decrypts
+ * whatever the kernel has, but some sockets (JDK's SSLSocket for one) only report bytes which are already decrypted,
+ * so they may look idle when they're not. And plain sockets report 0 at the end of the stream too, so over those
+ * readNow never returns -1; only a blocking {@link #read(ByteBuffer)} sees the server hang up.
+ */
+public final class SocketTransport implements Transport {
+
+    private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+
+    public SocketTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.inputStream = socket.getInputStream();
+        this.outputStream = socket.getOutputStream();
+    }
+
+    public Socket getSocket() {
+        return this.socket;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = this.inputStream.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public int readNow(ByteBuffer dst) throws IOException {
+        int available = this.inputStream.available();
+        if (available <= 0) {
+            return 0;
+        }
+
+        int read = this.inputStream.read(dst.array(), dst.arrayOffset() + dst.position(), Math.min(available, dst.remaining()));
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        this.outputStream.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        src.position(src.limit());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,46 @@
+package group.gnometrading.websockets.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A connected byte stream to the server. The client reads from it on the poll thread and writes to it from the
+ * writer thread (or the calling thread, with inline writes), never more than one of each at a time.
+ * <p />
+ * Implementations should be final classes. The client calls each method from a single call site, so as long as a
+ * process only uses one or two transport types the JIT inlines them; the more types share the call sites, the
+ * closer we get to a megamorphic virtual call on every read.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Read into `dst` from its position up to its limit, blocking until at least one byte is available.
+     * @return the number of bytes read, or -1 if the server closed the stream
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Read whatever is ready into `dst` without blocking.
+     * @return the number of bytes read, 0 if none were ready, or -1 if the server closed the stream
+     */
+    int readNow(ByteBuffer dst) throws IOException;
+
+    /**
+     * Write everything from `src`'s position up to its limit, blocking until it's all written.
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    /**
+     * Gathering write of `length` buffers from `srcs[offset]` on. Blocks until they're all written. Transports
+     * which can hand the kernel several buffers at once (e.g. writev) should override this.
+     */
+    default void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(srcs[i]);
+        }
+    }
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,19 @@
+package group.gnometrading.websockets.transport;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Opens a connected {@link Transport} to the server at `uri`. Called on every connect, so return a fresh
+ * transport each time.
+ */
+@FunctionalInterface
+public interface TransportFactory {
+
+    /**
+     * @param uri the client's URI. The WebSocket handshake still goes to this host, whatever the transport
+     *            actually connects to.
+     * @return a connected transport
+     */
+    Transport open(URI uri) throws IOException;
+}
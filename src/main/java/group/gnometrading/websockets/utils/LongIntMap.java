@@ -0,0 +1,75 @@
+package group.gnometrading.websockets.utils;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity open addressing map from long to (non-negative) int with linear probing. Entries are never
+ * removed, which is fine for a set of instruments. Single threaded, no boxing.
+ * <p />
+ * Long.MIN_VALUE marks an empty bucket, so it can't be used as a key.
+ */
+public final class LongIntMap {
+
+    public static final int MISSING = -1;
+    private static final long EMPTY = Long.MIN_VALUE; // Same as KeyExtractor.NO_KEY, which never gets stored
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+    private final int maxSize;
+    private int size;
+
+    public LongIntMap(int maxSize) {
+        // Keep the load factor at or below a half so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.maxSize = maxSize;
+        Arrays.fill(this.keys, EMPTY);
+    }
+
+    public int get(long key) {
+        int index = hash(key) & this.mask;
+        long current;
+        while ((current = this.keys[index]) != EMPTY) {
+            if (current == key) {
+                return this.values[index];
+            }
+            index = (index + 1) & this.mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return false if the map is full
+     */
+    public boolean put(long key, int value) {
+        int index = hash(key) & this.mask;
+        long current;
+        while ((current = this.keys[index]) != EMPTY) {
+            if (current == key) {
+                this.values[index] = value;
+                return true;
+            }
+            index = (index + 1) & this.mask;
+        }
+
+        if (this.size == this.maxSize) {
+            return false;
+        }
+        this.keys[index] = key;
+        this.values[index] = value;
+        this.size++;
+        return true;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing, ids are often sequential
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,249 @@
+package group.gnometrading.websockets.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable CharSequence for decoding UTF-8 payloads (i.e. TEXT frames) without building a String per
+ * message. The backing char array only grows, so once it's big enough for your largest message, decoding
+ * doesn't allocate.
+ * <p />
+ * Pure ASCII payloads, which is most JSON, take a fast path which checks 8 bytes at a time.
+ */
+public final class Utf8CharSequence implements CharSequence {
+
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private char[] chars;
+    private int length;
+
+    public Utf8CharSequence() {
+        this(256);
+    }
+
+    public Utf8CharSequence(int initialCapacity) {
+        this.chars = new char[initialCapacity];
+    }
+
+    /**
+     * Decode the remaining bytes of the payload, replacing malformed sequences with U+FFFD.
+     * The payload's position is not changed.
+     * @param payload the UTF-8 payload
+     * @return this
+     */
+    public Utf8CharSequence decode(ByteBuffer payload) {
+        decode(payload, false);
+        return this;
+    }
+
+    /**
+     * Decode the remaining bytes of the payload, rejecting anything which isn't valid UTF-8 as RFC 6455 requires
+     * of TEXT frames (no overlong encodings, no surrogates, nothing above U+10FFFF, no truncated sequences).
+     * The payload's position is not changed.
+     * @param payload the UTF-8 payload
+     * @return true if the payload was valid. If false, the contents of this sequence are undefined.
+     */
+    public boolean decodeStrict(ByteBuffer payload) {
+        return decode(payload, true);
+    }
+
+    /**
+     * Check a payload is valid UTF-8 without decoding it.
+     * @param payload the payload, its position is not changed
+     * @return true if valid
+     */
+    public static boolean isValid(ByteBuffer payload) {
+        int index = payload.position();
+        int limit = payload.limit();
+        while (index < limit) {
+            int b = payload.get(index);
+            if (b >= 0) {
+                index++;
+                continue;
+            }
+            int width = sequenceWidth(payload, index, limit);
+            if (width < 0) {
+                return false;
+            }
+            index += width;
+        }
+        return true;
+    }
+
+    private boolean decode(ByteBuffer payload, boolean strict) {
+        int index = payload.position();
+        int limit = payload.limit();
+        ensureCapacity(limit - index); // Never more chars than bytes
+
+        int out = 0;
+        char[] dst = this.chars;
+
+        if (payload.hasArray()) {
+            // ASCII fast path: find the run of ASCII a word at a time, then copy it in one simple loop
+            // which the JIT can vectorize
+            byte[] src = payload.array();
+            int offset = payload.arrayOffset();
+            int asciiEnd = index;
+            while (asciiEnd + 8 <= limit && ((long) LONG_VIEW.get(src, offset + asciiEnd) & NON_ASCII_MASK) == 0) {
+                asciiEnd += 8;
+            }
+            while (asciiEnd < limit && src[offset + asciiEnd] >= 0) {
+                asciiEnd++;
+            }
+
+            int start = offset + index;
+            int count = asciiEnd - index;
+            for (int i = 0; i < count; i++) {
+                dst[i] = (char) src[start + i];
+            }
+            out = count;
+            index = asciiEnd;
+        }
+
+        while (index < limit) {
+            int b = payload.get(index);
+            if (b >= 0) {
+                dst[out++] = (char) b;
+                index++;
+                continue;
+            }
+
+            int width = sequenceWidth(payload, index, limit);
+            if (width < 0) {
+                if (strict) {
+                    this.length = out;
+                    return false;
+                }
+                dst[out++] = REPLACEMENT;
+                index++;
+                continue;
+            }
+
+            int codePoint;
+            if (width == 2) {
+                codePoint = ((b & 0x1F) << 6) | (payload.get(index + 1) & 0x3F);
+            } else if (width == 3) {
+                codePoint = ((b & 0x0F) << 12) | ((payload.get(index + 1) & 0x3F) << 6) | (payload.get(index + 2) & 0x3F);
+            } else {
+                codePoint = ((b & 0x07) << 18) | ((payload.get(index + 1) & 0x3F) << 12)
+                        | ((payload.get(index + 2) & 0x3F) << 6) | (payload.get(index + 3) & 0x3F);
+            }
+
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                dst[out++] = Character.highSurrogate(codePoint);
+                dst[out++] = Character.lowSurrogate(codePoint);
+            } else {
+                dst[out++] = (char) codePoint;
+            }
+            index += width;
+        }
+
+        this.length = out;
+        return true;
+    }
+
+    /**
+     * @return the width of the multi-byte sequence starting at `index`, or -1 if it's malformed
+     */
+    private static int sequenceWidth(ByteBuffer payload, int index, int limit) {
+        int b = payload.get(index) & 0xFF;
+        int width;
+        int min, max; // Allowed range of the second byte, which is where overlongs/surrogates/out of range show up
+        if (b >= 0xC2 && b <= 0xDF) {
+            width = 2; min = 0x80; max = 0xBF;
+        } else if (b == 0xE0) {
+            width = 3; min = 0xA0; max = 0xBF;
+        } else if (b == 0xED) {
+            width = 3; min = 0x80; max = 0x9F; // Excludes U+D800 to U+DFFF
+        } else if (b >= 0xE1 && b <= 0xEF) {
+            width = 3; min = 0x80; max = 0xBF;
+        } else if (b == 0xF0) {
+            width = 4; min = 0x90; max = 0xBF;
+        } else if (b >= 0xF1 && b <= 0xF3) {
+            width = 4; min = 0x80; max = 0xBF;
+        } else if (b == 0xF4) {
+            width = 4; min = 0x80; max = 0x8F; // Nothing above U+10FFFF
+        } else {
+            return -1; // Continuation byte, C0/C1 overlong lead, or F5+
+        }
+
+        if (index + width > limit) {
+            return -1;
+        }
+
+        int second = payload.get(index + 1) & 0xFF;
+        if (second < min || second > max) {
+            return -1;
+        }
+        for (int i = 2; i < width; i++) {
+            if ((payload.get(index + i) & 0xC0) != 0x80) {
+                return -1;
+            }
+        }
+        return width;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (this.chars.length < capacity) {
+            this.chars = new char[Math.max(capacity, this.chars.length << 1)];
+        }
+    }
+
+    /**
+     * @return the backing array. Only the first {@link #length()} chars are valid.
+     */
+    public char[] array() {
+        return this.chars;
+    }
+
+    /**
+     * Compare the decoded contents to another sequence without allocating.
+     */
+    public boolean contentEquals(CharSequence other) {
+        if (other.length() != this.length) {
+            return false;
+        }
+        for (int i = 0; i < this.length; i++) {
+            if (this.chars[i] != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return this.chars[index];
+    }
+
+    /**
+     * Note, this allocates a new String.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new String(this.chars, start, end - start);
+    }
+
+    /**
+     * Note, this allocates a new String.
+     */
+    @Override
+    public String toString() {
+        return new String(this.chars, 0, this.length);
+    }
+}
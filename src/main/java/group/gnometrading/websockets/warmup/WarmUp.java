@@ -0,0 +1,253 @@
+package group.gnometrading.websockets.warmup;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.enums.Opcode;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Pushes synthetic frames through a throwaway client on the calling thread so the JIT has compiled the read path
+ * before the first real frame shows up. The client is the real thing: frames go through the same decode, unmask,
+ * ping/pong and (optionally) UTF-8 validation code as live traffic. Only the socket is swapped for an
+ * {@link InMemoryPipe}. JIT profiles are per method, not per instance, so the live client gets the compiled code.
+ * <p />
+ * Give it a handler and the payloads go through your parsing code as well, which is usually where most of the
+ * cold-start cost is. Sample payloads with {@link Builder#withPayloads(byte[]...)} so the handler sees messages
+ * it understands, otherwise it gets ASCII filler in a few size classes.
+ * <p />
+ * Run it directly before connecting, or hand it to {@link WebSocketClient.Builder#withWarmUp(WarmUp)}.
+ */
+public final class WarmUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+    private static final URI URI = java.net.URI.create("ws://warmup");
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final int[] DEFAULT_SIZES = {16, 128, 1024, 4096};
+    private static final int MASKING_KEY = 0x5A3C96E1;
+    private static final int PING_EVERY = 16, PONG_EVERY = 64; // Control frames interleaved with the data frames
+    private static final int ROUND = 500; // Frames between checks on the JIT
+    private static final int SETTLED_ROUNDS = 4; // Rounds without compiling anything before we call it settled
+
+    private final long frames;
+    private final byte[][] payloads;
+    private final boolean masking;
+    private final boolean validateUtf8;
+    private final Consumer<ByteBuffer> handler;
+
+    private WarmUp(long frames, byte[][] payloads, boolean masking, boolean validateUtf8, Consumer<ByteBuffer> handler) {
+        this.frames = frames;
+        this.payloads = payloads;
+        this.masking = masking;
+        this.validateUtf8 = validateUtf8;
+        this.handler = handler;
+    }
+
+    /**
+     * Run the warm-up on the calling thread. This takes as long as it takes to poll the frames plus a bit, and
+     * allocates the frames and a pipe up front.
+     * @return how it went, including whether the JIT settled
+     */
+    public WarmUpReport run() throws IOException {
+        // Every frame kind is built once up front, so the loop itself only copies bytes into the pipe
+        ByteBuffer[] data = new ByteBuffer[this.payloads.length * 2 * (this.masking ? 2 : 1)];
+        int kinds = 0;
+        int largest = 0;
+        for (byte[] payload : this.payloads) {
+            for (Opcode opcode : new Opcode[] {Opcode.TEXT, Opcode.BINARY}) {
+                data[kinds++] = serverFrame(opcode, payload, false);
+                if (this.masking) {
+                    data[kinds++] = serverFrame(opcode, payload, true);
+                }
+            }
+            largest = Math.max(largest, payload.length);
+        }
+        ByteBuffer ping = serverFrame(Opcode.PING, new byte[0], false);
+        ByteBuffer pong = serverFrame(Opcode.PONG, ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array(), false);
+
+        InMemoryPipe pipe = new InMemoryPipe(2 * (largest + WebSocketClient.MAX_HEADER) + (1 << 10));
+        Transport server = pipe.getServer();
+        ByteBuffer scratch = ByteBuffer.allocate(1 << 10);
+        server.write(ByteBuffer.wrap(HANDSHAKE));
+
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean timed = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+        long compileStart = timed ? compiler.getTotalCompilationTime() : -1;
+        long lastCompile = compileStart, lastChange = 0;
+        double lastRound = 0;
+
+        long start = System.nanoTime(), roundStart = start;
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withTransportFactory(pipe.factory())
+                .withInlineWrites(true) // Pongs go out on this thread, rather than warming a writer thread we throw away
+                .withUtf8Validation(this.validateUtf8)
+                .build()) {
+            client.connect();
+
+            for (long i = 0; i < this.frames; i++) {
+                if (i % PONG_EVERY == 0) {
+                    server.write(pong.clear());
+                }
+                if (i % PING_EVERY == 0) {
+                    server.write(ping.clear());
+                }
+                server.write(data[(int) (i % kinds)].clear());
+
+                ByteBuffer payload = client.poll();
+                if (this.handler != null) {
+                    this.handler.accept(payload);
+                }
+
+                if (i % PING_EVERY == 0) {
+                    // Throw away the client's pong (and the handshake request, the first time round)
+                    while (server.readNow(scratch.clear()) > 0);
+                }
+
+                if ((i + 1) % ROUND == 0) {
+                    long now = System.nanoTime();
+                    lastRound = (double) (now - roundStart) / ROUND;
+                    roundStart = now;
+                    if (timed) {
+                        long compile = compiler.getTotalCompilationTime();
+                        if (compile != lastCompile) {
+                            lastCompile = compile;
+                            lastChange = i + 1;
+                        }
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // The compilation counter is JVM-wide, so anything else compiling at the same time delays this
+        boolean settled = timed && this.frames - lastChange >= (long) SETTLED_ROUNDS * ROUND;
+        WarmUpReport report = new WarmUpReport(this.frames, elapsed, timed ? lastCompile - compileStart : -1,
+                settled ? lastChange : -1, lastRound);
+        if (settled) {
+            logger.info("Warm-up settled after {} of {} frames: {}", lastChange, this.frames, report);
+        } else {
+            logger.warn("Warm-up finished without the JIT settling, consider more frames: {}", report);
+        }
+        return report;
+    }
+
+    /**
+     * Frame a payload the way a server would. Masked frames aren't something servers send, but they take the
+     * client's unmasking path, which we want compiled too.
+     */
+    private static ByteBuffer serverFrame(Opcode opcode, byte[] payload, boolean masked) {
+        int header = payload.length < 126 ? 2 : 4;
+        ByteBuffer frame = ByteBuffer.allocate(header + (masked ? 4 : 0) + payload.length);
+        frame.put((byte) (0x80 | opcode.code));
+        int mask = masked ? 0x80 : 0;
+        if (payload.length < 126) {
+            frame.put((byte) (mask | payload.length));
+        } else {
+            frame.put((byte) (mask | 126)).putShort((short) payload.length);
+        }
+        if (masked) {
+            frame.putInt(MASKING_KEY);
+        }
+        int start = frame.position();
+        frame.put(payload);
+        if (masked) {
+            for (int i = 0; i < payload.length; i++) {
+                // Octet i % 4 of the key as it was put above, high byte first (RFC 6455 5.3)
+                frame.put(start + i, (byte) (payload[i] ^ (MASKING_KEY >>> (24 - ((i & 3) << 3)))));
+            }
+        }
+        return frame.flip();
+    }
+
+    public static class Builder {
+        private long frames = 20_000;
+        private byte[][] payloads;
+        private boolean masking = true;
+        private boolean validateUtf8 = false;
+        private Consumer<ByteBuffer> handler;
+
+        public Builder() {}
+
+        /**
+         * Set how many data frames to push through. C2 usually kicks in after around 10k calls of a method, so the
+         * default of 20k is about the least that's useful. Check {@link WarmUpReport#isSettled()} to tune it.
+         */
+        public Builder withFrames(long frames) {
+            if (frames <= 0) {
+                throw new IllegalArgumentException("frames must be positive");
+            }
+            this.frames = frames;
+            return this;
+        }
+
+        /**
+         * Use samples of real messages rather than filler, cycled through in order. Each goes out as both a text
+         * and a binary frame, so samples should be valid UTF-8 if UTF-8 validation is on.
+         */
+        public Builder withPayloads(byte[]... payloads) {
+            if (payloads.length == 0) {
+                throw new IllegalArgumentException("payloads cannot be empty");
+            }
+            for (byte[] payload : payloads) {
+                if (payload.length > WebSocketClient.RECV_BUF - WebSocketClient.MAX_HEADER) {
+                    throw new IllegalArgumentException("payloads can be at most " +
+                            (WebSocketClient.RECV_BUF - WebSocketClient.MAX_HEADER) + " bytes");
+                }
+            }
+            this.payloads = payloads;
+            return this;
+        }
+
+        /**
+         * Also send masked frames, to warm up unmasking. On by default.
+         */
+        public Builder withMasking(boolean masking) {
+            this.masking = masking;
+            return this;
+        }
+
+        /**
+         * Match this to the live client's {@link WebSocketClient.Builder#withUtf8Validation(boolean)}.
+         */
+        public Builder withUtf8Validation(boolean validateUtf8) {
+            this.validateUtf8 = validateUtf8;
+            return this;
+        }
+
+        /**
+         * Hand every payload to `handler`, as your poll loop would.
+         */
+        public Builder withHandler(Consumer<ByteBuffer> handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public WarmUp build() {
+            byte[][] samples = payloads;
+            if (samples == null) {
+                samples = new byte[DEFAULT_SIZES.length][];
+                for (int i = 0; i < DEFAULT_SIZES.length; i++) {
+                    samples[i] = new byte[DEFAULT_SIZES[i]];
+                    for (int j = 0; j < DEFAULT_SIZES[i]; j++) {
+                        samples[i][j] = (byte) ('a' + j % 26);
+                    }
+                }
+            }
+            return new WarmUp(frames, samples, masking, validateUtf8, handler);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package group.gnometrading.websockets.warmup;
+
+/**
+ * What a {@link WarmUp} run did, and whether the JIT had settled by the end of it.
+ */
+public final class WarmUpReport {
+
+    private final long frames;
+    private final long elapsedNanos;
+    private final long compilationMillis;
+    private final long settledAfterFrames;
+    private final double lastRoundNanosPerFrame;
+
+    WarmUpReport(long frames, long elapsedNanos, long compilationMillis, long settledAfterFrames, double lastRoundNanosPerFrame) {
+        this.frames = frames;
+        this.elapsedNanos = elapsedNanos;
+        this.compilationMillis = compilationMillis;
+        this.settledAfterFrames = settledAfterFrames;
+        this.lastRoundNanosPerFrame = lastRoundNanosPerFrame;
+    }
+
+    /**
+     * @return the number of data frames polled, not counting the control frames in between
+     */
+    public long getFrames() {
+        return this.frames;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return the time the JIT spent compiling during the run, on any thread, or -1 if the JVM doesn't say
+     */
+    public long getCompilationMillis() {
+        return this.compilationMillis;
+    }
+
+    /**
+     * @return true if the JIT stopped compiling well before the end of the run
+     */
+    public boolean isSettled() {
+        return this.settledAfterFrames >= 0;
+    }
+
+    /**
+     * @return the number of frames after which nothing more was compiled, or -1 if it never settled
+     */
+    public long getSettledAfterFrames() {
+        return this.settledAfterFrames;
+    }
+
+    /**
+     * @return the cost of a frame in the last round, which is roughly what the first live frames will see
+     */
+    public double getLastRoundNanosPerFrame() {
+        return this.lastRoundNanosPerFrame;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpReport{" +
+                "frames=" + frames +
+                ", elapsedNanos=" + elapsedNanos +
+                ", compilationMillis=" + compilationMillis +
+                ", settledAfterFrames=" + settledAfterFrames +
+                ", lastRoundNanosPerFrame=" + lastRoundNanosPerFrame +
+                '}';
+    }
+}
@@ -0,0 +1,146 @@
+package group.gnometrading.websockets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DNS is a stand in which hands out whatever address the test says, and counts how often it's asked.
+ */
+class AddressCacheTest {
+
+    private static final String HOST = "venue.example";
+
+    private final AtomicReference<InetAddress> current = new AtomicReference<>(address(1));
+    private final AtomicInteger lookups = new AtomicInteger();
+    private AddressCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    private static InetAddress address(int last) {
+        try {
+            return InetAddress.getByAddress(HOST, new byte[] {10, 0, 0, (byte) last});
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private InetAddress[] lookUp(String host) throws UnknownHostException {
+        lookups.incrementAndGet();
+        InetAddress address = current.get();
+        if (address == null) {
+            throw new UnknownHostException(host);
+        }
+        return new InetAddress[] {address};
+    }
+
+    private AddressCache cache(long refreshIntervalMillis) {
+        return cache = new AddressCache(refreshIntervalMillis, this::lookUp);
+    }
+
+    @Test
+    void testResolvesOnceThenServesFromTheCache() throws Exception {
+        AddressCache cache = cache(60_000);
+        InetAddress first = cache.resolve(HOST);
+        current.set(address(2));
+
+        assertEquals(address(1), first);
+        assertEquals(HOST, first.getHostName()); // Kept for SNI, not reverse looked up
+        assertSame(first, cache.resolve(HOST));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void testEvictedHostIsLookedUpAgain() throws Exception {
+        AddressCache cache = cache(60_000);
+        cache.prefetch(HOST);
+        current.set(address(2));
+
+        cache.evict(HOST);
+        assertEquals(address(2), cache.resolve(HOST));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void testUnknownHostIsNotCached() throws Exception {
+        AddressCache cache = cache(60_000);
+        current.set(null);
+        assertThrows(UnknownHostException.class, () -> cache.resolve(HOST));
+
+        current.set(address(1));
+        assertEquals(address(1), cache.resolve(HOST));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void testRefresherPicksUpNewAddresses() throws Exception {
+        AddressCache cache = cache(10);
+        cache.resolve(HOST);
+        current.set(address(2));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!cache.resolve(HOST).equals(address(2))) {
+            assertTrue(System.nanoTime() < deadline, "Never refreshed");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void testFailedRefreshKeepsTheLastAddresses() throws Exception {
+        AddressCache cache = cache(60_000);
+        cache.resolve(HOST);
+        current.set(null); // DNS is having a bad day
+
+        cache.refresh();
+        assertEquals(2, lookups.get());
+        assertEquals(address(1), cache.resolve(HOST));
+    }
+
+    @Test
+    void testHostEvictedDuringARefreshStaysEvicted() throws Exception {
+        CountDownLatch refreshing = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        AddressCache cache = cache = new AddressCache(60_000, host -> {
+            if (lookups.incrementAndGet() == 2) {
+                // The refresh's lookup, held up until the host's been evicted
+                refreshing.countDown();
+                try {
+                    evicted.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return new InetAddress[] {current.get()};
+        });
+        cache.resolve(HOST);
+
+        CompletableFuture<Void> refresh = CompletableFuture.runAsync(cache::refresh);
+        assertTrue(refreshing.await(5, TimeUnit.SECONDS));
+        cache.evict(HOST);
+        evicted.countDown();
+        refresh.get(5, TimeUnit.SECONDS);
+
+        current.set(address(2));
+        assertEquals(address(2), cache.resolve(HOST)); // A fresh lookup, not what the refresh found
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    void testInvalidRefreshInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new AddressCache(0));
+    }
+}
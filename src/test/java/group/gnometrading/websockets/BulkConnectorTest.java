@@ -0,0 +1,103 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every connect takes a little while, so they overlap as much as the parallelism lets them.
+ */
+class BulkConnectorTest {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger connects = new AtomicInteger();
+    private final List<WebSocketClient> clients = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (WebSocketClient client : clients) {
+            client.close();
+        }
+    }
+
+    private WebSocketClient client(boolean reachable) {
+        WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .withTransportFactory(uri -> {
+                    connects.incrementAndGet();
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                        if (!reachable) {
+                            throw new IOException("Connection refused");
+                        }
+                        InMemoryPipe pipe = new InMemoryPipe();
+                        pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+                        return pipe.getClient();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                })
+                .build();
+        clients.add(client);
+        return client;
+    }
+
+    @Test
+    void testReportsOnlyTheClientsWhichFailed() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            client(i % 3 != 0);
+        }
+
+        Map<WebSocketClient, Exception> failures = BulkConnector.connectAll(clients, 3);
+
+        assertEquals(Set.of(clients.get(0), clients.get(3), clients.get(6)), failures.keySet());
+        failures.values().forEach(e -> assertEquals("Connection refused", e.getMessage()));
+        for (int i = 0; i < clients.size(); i++) {
+            SocketState expected = i % 3 != 0 ? SocketState.OPEN : SocketState.CLOSED;
+            assertEquals(expected, clients.get(i).getSocketState(), "Client " + i);
+        }
+        assertEquals(8, connects.get());
+        assertTrue(maxInFlight.get() <= 3, "Up to " + maxInFlight.get() + " connects at once");
+        assertTrue(maxInFlight.get() > 1, "Connects never overlapped");
+    }
+
+    @Test
+    void testReconnectAllClosesFirst() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            client(true);
+        }
+        assertTrue(BulkConnector.connectAll(clients, 2).isEmpty());
+
+        assertTrue(BulkConnector.reconnectAll(clients, 2).isEmpty());
+        assertEquals(8, connects.get());
+        clients.forEach(client -> assertEquals(SocketState.OPEN, client.getSocketState()));
+    }
+
+    @Test
+    void testNothingToConnect() throws Exception {
+        assertTrue(BulkConnector.connectAll(List.of(), 4).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> BulkConnector.connectAll(List.of(), 0));
+    }
+}
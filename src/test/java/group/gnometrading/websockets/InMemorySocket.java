@@ -0,0 +1,200 @@
+package group.gnometrading.websockets;
+
+import javax.net.SocketFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A socket with a scripted server on the other end: it answers the handshake, then plays `frames` on a loop
+ * forever, at most `chunkSize` bytes per read so frames arrive in pieces. Everything written is counted and
+ * dropped, unless there's a recorder to keep it. Nothing on the read or write path allocates (without a recorder),
+ * so it doesn't show up in allocation measurements.
+ */
+class InMemorySocket extends Socket {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] frames;
+    private final int chunkSize;
+    private final ByteArrayOutputStream recorder;
+    private int handshakeOffset, frameOffset;
+    private volatile long bytesWritten;
+    private volatile boolean closed;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                return -1;
+            } else if (handshakeOffset < HANDSHAKE.length) {
+                int n = Math.min(len, HANDSHAKE.length - handshakeOffset);
+                System.arraycopy(HANDSHAKE, handshakeOffset, b, off, n);
+                handshakeOffset += n;
+                return n;
+            }
+
+            int n = Math.min(Math.min(len, chunkSize), frames.length - frameOffset);
+            System.arraycopy(frames, frameOffset, b, off, n);
+            frameOffset = (frameOffset + n) % frames.length;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return closed ? 0 : Math.min(chunkSize, frames.length - frameOffset);
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+            bytesWritten = bytesWritten + 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytesWritten = bytesWritten + len;
+            if (recorder != null) {
+                synchronized (recorder) {
+                    recorder.write(b, off, len);
+                }
+            }
+        }
+    };
+
+    InMemorySocket(byte[] frames, int chunkSize, ByteArrayOutputStream recorder) throws IOException {
+        super((SocketImpl) null);
+        this.frames = frames;
+        this.chunkSize = chunkSize;
+        this.recorder = recorder;
+    }
+
+    long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * Encode an unfragmented frame as the server would send it.
+     * @param masked servers must not mask, but we don't trust them not to
+     */
+    static byte[] serverFrame(int opcode, byte[] payload, boolean masked) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0b10000000 | opcode);
+        int mask = masked ? 0b10000000 : 0;
+        if (payload.length > 0xFFFF) {
+            frame.write(mask | 127);
+            frame.writeBytes(ByteBuffer.allocate(Long.BYTES).putLong(payload.length).array());
+        } else if (payload.length > 125) {
+            frame.write(mask | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length & 0xFF);
+        } else {
+            frame.write(mask | payload.length);
+        }
+
+        if (!masked) {
+            frame.writeBytes(payload);
+            return frame.toByteArray();
+        }
+
+        // Octet i % 4 of the key, in the order it goes out on the wire (RFC 6455 5.3)
+        byte[] key = {0x1A, 0x2B, 0x3C, 0x4D};
+        frame.writeBytes(key);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ key[i % 4]);
+        }
+        return frame.toByteArray();
+    }
+
+    static SocketFactory factory(byte[] frames, int chunkSize) {
+        return factory(frames, chunkSize, null);
+    }
+
+    /**
+     * @param recorder if not null, everything the client writes (handshake included) is kept here
+     */
+    static SocketFactory factory(byte[] frames, int chunkSize, ByteArrayOutputStream recorder) {
+        return new SocketFactory() {
+            @Override
+            public Socket createSocket() throws IOException {
+                return new InMemorySocket(frames, chunkSize, recorder);
+            }
+
+            @Override
+            public Socket createSocket(String host, int port) throws IOException {
+                return createSocket();
+            }
+
+            @Override
+            public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+                return createSocket();
+            }
+
+            @Override
+            public Socket createSocket(InetAddress host, int port) throws IOException {
+                return createSocket();
+            }
+
+            @Override
+            public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+                return createSocket();
+            }
+        };
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) {}
+
+    @Override
+    public void bind(SocketAddress bindpoint) {}
+
+    @Override
+    public void setTcpNoDelay(boolean on) {}
+
+    @Override
+    public void setReceiveBufferSize(int size) {}
+
+    @Override
+    public void setSendBufferSize(int size) {}
+
+    @Override
+    public InputStream getInputStream() {
+        return this.in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.out;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+    }
+}
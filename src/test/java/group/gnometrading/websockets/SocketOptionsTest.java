@@ -0,0 +1,93 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.SocketState;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SocketOptionsTest {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testApply() throws Exception {
+        SocketOptions options = new SocketOptions();
+        options.tcpNoDelay = false;
+        options.receiveBufferSize = 256 * 1024;
+        try (Socket socket = new Socket()) {
+            int defaultSendBuffer = socket.getSendBufferSize();
+            options.apply(socket);
+
+            assertFalse(socket.getTcpNoDelay());
+            assertTrue(socket.getReceiveBufferSize() >= 256 * 1024); // The OS is free to round it up
+            assertEquals(defaultSendBuffer, socket.getSendBufferSize()); // 0 leaves it alone
+        }
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        SocketOptions options = new SocketOptions();
+        options.connectTimeoutInMillis = 500;
+        options.localAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+        SocketOptions copy = options.copy();
+        options.connectTimeoutInMillis = 0;
+        options.tcpNoDelay = false;
+
+        assertEquals(500, copy.connectTimeoutInMillis);
+        assertTrue(copy.tcpNoDelay);
+        assertEquals(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), copy.localAddress);
+    }
+
+    @Test
+    void testClientConnectsThroughTheCacheWithItsOptions() throws Exception {
+        AddressCache cache = new AddressCache(60_000,
+                host -> new InetAddress[] {InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1})});
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Socket> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    Socket socket = server.accept();
+                    InputStream in = socket.getInputStream();
+                    int matched = 0;
+                    while (matched < 4) {
+                        int b = in.read();
+                        matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+                    }
+                    socket.getOutputStream().write(HANDSHAKE);
+                    return socket;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            // Not a real host, so this only connects if the cache is what resolves it
+            try (WebSocketClient client = new WebSocketClient.Builder()
+                    .withURI(URI.create("ws://venue.invalid:" + server.getLocalPort()))
+                    .withAddressCache(cache)
+                    .withLocalAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                    .withConnectTimeoutInMillis(5_000)
+                    .build()) {
+                client.connect();
+                assertEquals(SocketState.OPEN, client.getSocketState());
+                try (Socket socket = accepted.get(5, TimeUnit.SECONDS)) {
+                    assertEquals(InetAddress.getLoopbackAddress(), socket.getInetAddress());
+                }
+            }
+        } finally {
+            cache.shutdown();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.Opcode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The README promises no allocations on the hot path; this holds us to it. Each case warms up long enough for
+ * the JIT to settle, then counts the bytes the thread allocates over a few rounds of iterations. The best round
+ * has to be zero: a real regression allocates every round, while a one-off (a deopt, a late compile) doesn't.
+ */
+class WebSocketClientAllocationTest {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+    private static final int WARM_UP = 20_000;
+    private static final int ITERATIONS = 2_000;
+    private static final int ROUNDS = 5;
+    private static final int PENDING_WRITES = 6; // Of the default queue capacity of 10
+
+    private interface Iteration {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return the fewest bytes allocated by `thread` in any round of ITERATIONS
+     */
+    private static long allocated(Thread thread, Iteration iteration) throws Exception {
+        for (int i = 0; i < WARM_UP; i++) {
+            iteration.run();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && best > 0; round++) {
+            long before = allocatedBytes(thread);
+            for (int i = 0; i < ITERATIONS; i++) {
+                iteration.run();
+            }
+            best = Math.min(best, allocatedBytes(thread) - before);
+        }
+        return best;
+    }
+
+    private static long allocatedBytes(Thread thread) {
+        return thread == Thread.currentThread() ? THREADS.getCurrentThreadAllocatedBytes() :
+                THREADS.getThreadAllocatedBytes(thread.getId());
+    }
+
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) ('a' + i % 26); // ASCII, so it's valid as text too
+        }
+        return payload;
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.writeBytes(frame);
+        }
+        return out.toByteArray();
+    }
+
+    private static WebSocketClient connect(byte[] frames, int chunkSize, WebSocketClient.Builder builder) throws Exception {
+        WebSocketClient client = builder
+                .withURI(URI)
+                .withSocketFactory(InMemorySocket.factory(frames, chunkSize))
+                .build();
+        client.connect();
+        return client;
+    }
+
+    @ParameterizedTest
+    @MethodSource("testPollArguments")
+    void testPoll(int size, boolean masked, int chunkSize) throws Exception {
+        byte[] frames = concat(
+                InMemorySocket.serverFrame(Opcode.BINARY.code, payload(size), masked),
+                InMemorySocket.serverFrame(Opcode.TEXT.code, payload(size), masked));
+
+        try (WebSocketClient client = connect(frames, chunkSize, new WebSocketClient.Builder().withUtf8Validation(true))) {
+            assertEquals(0, allocated(Thread.currentThread(), () -> {
+                if (client.poll().remaining() != size) {
+                    throw new AssertionError("Bad payload");
+                }
+            }));
+        }
+    }
+
+    private static Stream<Arguments> testPollArguments() {
+        return Stream.of(0, 1, 125, 126, 1000, 4000).flatMap(size -> Stream.of(
+                Arguments.of(size, false, Integer.MAX_VALUE),
+                Arguments.of(size, true, Integer.MAX_VALUE),
+                Arguments.of(size, false, 7), // Partial reads
+                Arguments.of(size, true, 7)
+        ));
+    }
+
+    @Test
+    void testTryPollPartialFrames() throws Exception {
+        byte[] frames = InMemorySocket.serverFrame(Opcode.BINARY.code, payload(500), false);
+        try (WebSocketClient client = connect(frames, 64, new WebSocketClient.Builder())) {
+            assertEquals(0, allocated(Thread.currentThread(), client::tryPoll));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testControlFrames(boolean inlineWrites) throws Exception {
+        // Pings get answered with a pong echoing their payload, pongs get timed
+        byte[] pong = ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array();
+        byte[] frames = concat(
+                InMemorySocket.serverFrame(Opcode.PING.code, payload(16), false),
+                InMemorySocket.serverFrame(Opcode.PONG.code, pong, false),
+                InMemorySocket.serverFrame(Opcode.BINARY.code, payload(64), false));
+
+        WebSocketClient.Builder builder = new WebSocketClient.Builder().withInlineWrites(inlineWrites);
+        try (WebSocketClient client = connect(frames, Integer.MAX_VALUE, builder)) {
+            assertEquals(0, allocated(Thread.currentThread(), () -> {
+                client.poll();
+                awaitWritten(client);
+            }));
+            assertTrue(client.getRoundTripHistogram().getCount() > 0);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("testWriteArguments")
+    void testWrite(int size, boolean inlineWrites) throws Exception {
+        byte[] frames = InMemorySocket.serverFrame(Opcode.BINARY.code, payload(1), false);
+        byte[] bytes = payload(size);
+
+        AtomicReference<Thread> writer = new AtomicReference<>();
+        WebSocketClient.Builder builder = new WebSocketClient.Builder()
+                .withInlineWrites(inlineWrites)
+                .withThreadFactory(runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-writer");
+                    thread.setDaemon(true);
+                    writer.set(thread);
+                    return thread;
+                });
+
+        try (WebSocketClient client = connect(frames, Integer.MAX_VALUE, builder)) {
+            Iteration write = () -> {
+                client.write(bytes);
+                client.ping();
+                awaitWritten(client);
+            };
+            assertEquals(0, allocated(Thread.currentThread(), write));
+
+            if (!inlineWrites) {
+                // And the writer thread on the other side of the queue
+                Thread thread = writer.get();
+                assertEquals(0, allocated(thread, write));
+            }
+        }
+    }
+
+    private static Stream<Arguments> testWriteArguments() {
+        return Stream.of(0, 100, 2000).flatMap(size -> Stream.of(
+                Arguments.of(size, false),
+                Arguments.of(size, true)
+        ));
+    }
+
+    /**
+     * Let the writer thread catch up before the queue fills. Parks rather than spins, since on a small box the
+     * writer may need our core. A no-op with inline writes.
+     */
+    private static void awaitWritten(WebSocketClient client) {
+        if (client.getPendingWrites() < PENDING_WRITES) {
+            return;
+        }
+        while (client.getPendingWrites() > 0) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+}
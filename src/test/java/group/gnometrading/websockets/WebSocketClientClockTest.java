@@ -0,0 +1,114 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.clock.CachedClock;
+import group.gnometrading.websockets.clock.ManualClock;
+import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every connection is a fresh pipe with the handshake already answered, and the server only sends what the test
+ * tells it to. Time only moves when the test moves it.
+ */
+class WebSocketClientClockTest {
+
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+    private final BlockingQueue<Transport> servers = new LinkedBlockingQueue<>();
+    private final AtomicInteger timeouts = new AtomicInteger();
+
+    private WebSocketClient client() {
+        return new WebSocketClient.Builder()
+                .withURI(URI)
+                .withTransportFactory(uri -> {
+                    InMemoryPipe pipe = new InMemoryPipe();
+                    pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+                    servers.add(pipe.getServer());
+                    return pipe.getClient();
+                })
+                .withInlineWrites(true)
+                .withAutomaticReconnect(true)
+                .withTimeoutInMillis(1_000)
+                .withEpochClock(clock)
+                .withNanoClock(clock)
+                .withReceiveTimestamps(true)
+                .withListener(new WebSocketListener() {
+                    @Override
+                    public void onTimeout() {
+                        timeouts.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    void testTimeoutFollowsTheClock() throws Exception {
+        try (WebSocketClient client = client()) {
+            client.connect();
+            servers.take();
+
+            clock.advance(1_000, TimeUnit.MILLISECONDS);
+            Thread.sleep(50); // Plenty of checks by the timeout thread, none of which should fire
+            assertEquals(0, timeouts.get());
+
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            assertNotNull(servers.poll(10, TimeUnit.SECONDS), "Never reconnected");
+            assertEquals(1, timeouts.get());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (client.getSocketState() != SocketState.OPEN) {
+                assertTrue(System.nanoTime() < deadline, "Reconnect never finished");
+                Thread.sleep(1);
+            }
+
+            // Only the new connection's timeout thread is watching now
+            Thread.sleep(50);
+            assertEquals(1, timeouts.get());
+            assertTrue(servers.isEmpty());
+        }
+    }
+
+    @Test
+    void testReadsResetTheTimeoutAndAreStamped() throws Exception {
+        try (WebSocketClient client = client()) {
+            client.connect();
+            Transport server = servers.take();
+
+            clock.advance(800, TimeUnit.MILLISECONDS);
+            server.write(ByteBuffer.wrap(InMemorySocket.serverFrame(0x2, new byte[] {42}, false)));
+            assertEquals(42, client.poll().get());
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(800), client.getLastReceiveNanos());
+
+            clock.advance(800, TimeUnit.MILLISECONDS); // 1600 since connecting, but only 800 since the read
+            Thread.sleep(50);
+            assertEquals(0, timeouts.get());
+        }
+    }
+
+    @Test
+    void testDefaultCachedClockCantBeClosed() throws Exception {
+        CachedClock shared = CachedClock.getDefault();
+        assertThrows(IllegalStateException.class, shared::close);
+        long before = shared.time();
+        Thread.sleep(20);
+        assertTrue(shared.time() > before, "The shared clock stopped ticking");
+
+        CachedClock own = new CachedClock(TimeUnit.MILLISECONDS.toNanos(1));
+        own.close();
+    }
+}
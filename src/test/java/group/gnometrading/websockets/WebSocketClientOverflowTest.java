@@ -0,0 +1,222 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.clock.ManualClock;
+import group.gnometrading.websockets.enums.Opcode;
+import group.gnometrading.websockets.enums.OverflowPolicy;
+import group.gnometrading.websockets.enums.WriteStatus;
+import group.gnometrading.websockets.idle.BlockingIdleStrategy;
+import group.gnometrading.websockets.pacing.RatePacer;
+import group.gnometrading.websockets.pacing.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes made before connecting sit in the queue with nobody draining it, which makes full queues easy to set up.
+ * Connecting then lets the writer thread send everything, in the order it comes off the lanes.
+ */
+class WebSocketClientOverflowTest {
+
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+
+    private final ByteArrayOutputStream recorder = new ByteArrayOutputStream();
+
+    private WebSocketClient client(int capacity, OverflowPolicy policy) {
+        return client(capacity, policy, null);
+    }
+
+    private WebSocketClient client(int capacity, OverflowPolicy policy, RatePacer ratePacer) {
+        return builder(capacity, policy).withRatePacer(ratePacer).build();
+    }
+
+    private WebSocketClient.Builder builder(int capacity, OverflowPolicy policy) {
+        return new WebSocketClient.Builder()
+                .withURI(URI)
+                .withSocketFactory(InMemorySocket.factory(
+                        InMemorySocket.serverFrame(Opcode.BINARY.code, new byte[1], false), Integer.MAX_VALUE, recorder))
+                .withWriteQueueCapacity(capacity)
+                .withControlQueueCapacity(1)
+                .withSpillCapacity(2)
+                .withOverflowPolicy(policy);
+    }
+
+    /**
+     * Connect, wait for the writer thread to send everything, and decode what it sent as "opcode:payload".
+     */
+    private List<String> connectAndSend(WebSocketClient client) throws Exception {
+        long frames = client.getPendingWrites();
+        client.connect();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (client.getWriteMetrics().getFramesWritten() < frames) {
+            assertTrue(System.nanoTime() < deadline, "Writer thread never sent the queued frames");
+            LockSupport.parkNanos(100_000);
+        }
+
+        byte[] written;
+        synchronized (recorder) {
+            written = recorder.toByteArray();
+        }
+        String text = new String(written, StandardCharsets.ISO_8859_1);
+        int offset = text.indexOf("\r\n\r\n") + 4; // Skip the handshake
+
+        List<String> sent = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(written);
+        while (offset < written.length) {
+            int opcode = buffer.get(offset) & 0x0F;
+            int length = buffer.get(offset + 1) & 0x7F; // Short frames only
+            byte[] payload = new byte[length];
+            for (int i = 0; i < length; i++) {
+                payload[i] = (byte) (buffer.get(offset + 6 + i) ^ buffer.get(offset + 2 + i % 4));
+            }
+            sent.add(Opcode.fromByte((byte) opcode) + ":" + (opcode == Opcode.PING.code ? "" : new String(payload, StandardCharsets.UTF_8)));
+            offset += 6 + length;
+        }
+        return sent;
+    }
+
+    @Test
+    void testReject() throws Exception {
+        try (WebSocketClient client = client(2, OverflowPolicy.REJECT)) {
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.OK, client.write("b"));
+            assertEquals(WriteStatus.REJECTED, client.write("c"));
+            assertEquals(1, client.getWriteMetrics().getRejected());
+            assertEquals(List.of("TEXT:a", "TEXT:b"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testDropOldest() throws Exception {
+        try (WebSocketClient client = client(2, OverflowPolicy.DROP_OLDEST)) {
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.OK, client.write("b"));
+            assertEquals(WriteStatus.DROPPED_OLDEST, client.write("c"));
+            assertEquals(WriteStatus.DROPPED_OLDEST, client.write("d"));
+            assertEquals(2, client.getWriteMetrics().getDroppedOldest());
+            assertEquals(List.of("TEXT:c", "TEXT:d"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testSpill() throws Exception {
+        try (WebSocketClient client = client(2, OverflowPolicy.SPILL)) {
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.OK, client.write("b"));
+            assertEquals(WriteStatus.SPILLED, client.write("c"));
+            assertEquals(WriteStatus.SPILLED, client.write("d"));
+            assertEquals(WriteStatus.REJECTED, client.write("e"));
+            assertEquals(4, client.getPendingWrites());
+            assertEquals(2, client.getWriteMetrics().getSpilled());
+            assertEquals(1, client.getWriteMetrics().getRejected());
+            assertEquals(List.of("TEXT:a", "TEXT:b", "TEXT:c", "TEXT:d"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testDiscardPendingWrites() throws Exception {
+        try (WebSocketClient client = client(2, OverflowPolicy.SPILL)) {
+            client.write("a");
+            client.write("b");
+            client.write("c"); // Spilled
+            client.ping();
+
+            assertEquals(3, client.discardPendingWrites());
+            assertEquals(1, client.getPendingWrites()); // Pings stay
+            client.write("d");
+            assertEquals(List.of("PING:", "TEXT:d"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testBlockGivesUpWhenClosed() throws Exception {
+        try (WebSocketClient client = client(1, OverflowPolicy.BLOCK)) {
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.CLOSED, client.write("b"));
+        }
+    }
+
+    @Test
+    void testBlockIsWokenByTheWriter() throws Exception {
+        // Parks without a timeout, so only the writer thread freeing a slot gets a write going again
+        try (WebSocketClient client = builder(1, OverflowPolicy.BLOCK)
+                .withOverflowIdleStrategy(new BlockingIdleStrategy())
+                .build()) {
+            client.connect();
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                for (int i = 0; i < 1_000; i++) {
+                    assertEquals(WriteStatus.OK, client.write("a"));
+                }
+                while (client.getWriteMetrics().getFramesWritten() < 1_000) {
+                    LockSupport.parkNanos(100_000);
+                }
+            });
+            assertTrue(client.getWriteMetrics().getBlocked() > 0, "Never had to wait, so nothing was tested");
+        }
+    }
+
+    @Test
+    void testControlFramesJumpTheQueue() throws Exception {
+        try (WebSocketClient client = client(4, OverflowPolicy.REJECT)) {
+            client.write("a");
+            client.write("b");
+            assertEquals(WriteStatus.OK, client.ping());
+            assertEquals(WriteStatus.REJECTED, client.ping()); // The control lane only fits one
+            assertEquals(1, client.getWriteMetrics().getControlRejected());
+            assertEquals(List.of("PING:", "TEXT:a", "TEXT:b"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testThrottled() throws Exception {
+        ManualClock clock = new ManualClock();
+        RatePacer pacer = new RatePacer.Builder()
+                .withConnectionLimit(new TokenBucket(1, 1, TimeUnit.SECONDS, 3))
+                .withClassLimit(1, new TokenBucket(1, 1, TimeUnit.SECONDS, 1))
+                .withNanoClock(clock)
+                .build();
+
+        try (WebSocketClient client = client(8, OverflowPolicy.REJECT, pacer)) {
+            assertEquals(WriteStatus.OK, client.write("a", 1));
+            assertEquals(WriteStatus.THROTTLED, client.write("b", 1));
+            assertEquals(2, pacer.getBudget(0)); // The connection wasn't charged for b
+
+            assertEquals(WriteStatus.OK, client.write("c"));
+            assertEquals(WriteStatus.OK, client.write("d"));
+            assertEquals(WriteStatus.THROTTLED, client.write("e"));
+            assertEquals(0, pacer.getBudget(0));
+            assertEquals(TimeUnit.SECONDS.toNanos(1), pacer.getDelayNanos(0));
+
+            clock.advance(1, TimeUnit.SECONDS);
+            assertEquals(0, pacer.getDelayNanos(0));
+            assertEquals(WriteStatus.OK, client.write("f"));
+
+            assertEquals(2, client.getWriteMetrics().getThrottled());
+            assertEquals(1, pacer.getThrottled(0));
+            assertEquals(1, pacer.getThrottled(1));
+            assertEquals(List.of("TEXT:a", "TEXT:c", "TEXT:d", "TEXT:f"), connectAndSend(client));
+        }
+    }
+
+    @Test
+    void testRejectedWritesAreNotCharged() throws Exception {
+        RatePacer pacer = new RatePacer.Builder()
+                .withConnectionLimit(new TokenBucket(1, 1, TimeUnit.MINUTES, 2))
+                .build();
+
+        try (WebSocketClient client = client(1, OverflowPolicy.REJECT, pacer)) {
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.REJECTED, client.write("b"));
+            assertEquals(1, pacer.getBudget(0));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.enums.SocketState;
+import group.gnometrading.websockets.enums.WriteStatus;
+import group.gnometrading.websockets.idle.BackoffIdleStrategy;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every connection is a fresh pipe with the handshake already answered. The test reads what the client sends
+ * from the server end of each.
+ */
+class WebSocketClientReconnectTest {
+
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final BlockingQueue<Transport> servers = new LinkedBlockingQueue<>();
+    private final AtomicBoolean failNextOpen = new AtomicBoolean();
+    private final AtomicInteger threadsCreated = new AtomicInteger();
+    private final AtomicBoolean failWrites = new AtomicBoolean();
+    private final AtomicInteger failedWrites = new AtomicInteger();
+
+    private WebSocketClient client() {
+        return client(false, null);
+    }
+
+    private WebSocketClient client(boolean automaticReconnect, WebSocketListener listener) {
+        return new WebSocketClient.Builder()
+                .withURI(URI)
+                .withAutomaticReconnect(automaticReconnect)
+                .withListener(listener)
+                .withTransportFactory(uri -> {
+                    if (failNextOpen.getAndSet(false)) {
+                        throw new IOException("Venue's down");
+                    }
+                    InMemoryPipe pipe = new InMemoryPipe();
+                    pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+                    servers.add(pipe.getServer());
+                    return new FailingTransport(pipe.getClient());
+                })
+                .withThreadFactory(runnable -> {
+                    threadsCreated.incrementAndGet();
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                .withOnConnectMessage("login")
+                .withOnConnectMessage("subscribe")
+                .build();
+    }
+
+    /**
+     * Throws on writes while `failWrites` is set, like a connection that died underneath us.
+     */
+    private final class FailingTransport implements Transport {
+        private final Transport delegate;
+
+        private FailingTransport(Transport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public int readNow(ByteBuffer dst) throws IOException {
+            return delegate.readNow(dst);
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            if (failWrites.get()) {
+                failedWrites.incrementAndGet();
+                throw new IOException("Connection reset");
+            }
+            delegate.write(src);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Skip the handshake request and unmask the next `count` (short) frames the client sends.
+     */
+    private static List<String> receive(Transport server, int count) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (!request.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\n")) {
+            server.read(one.clear());
+            request.write(one.get(0));
+        }
+
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer header = ByteBuffer.allocate(6);
+            while (header.hasRemaining()) {
+                server.read(header);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(header.get(1) & 0x7F);
+            while (payload.hasRemaining()) {
+                server.read(payload);
+            }
+            for (int j = 0; j < payload.capacity(); j++) {
+                payload.put(j, (byte) (payload.get(j) ^ header.get(2 + j % 4)));
+            }
+            received.add(new String(payload.array(), StandardCharsets.UTF_8));
+        }
+        return received;
+    }
+
+    @Test
+    void testOnConnectMessagesGoFirstEveryTime() throws Exception {
+        try (WebSocketClient client = client()) {
+            client.connect();
+            client.write("hello");
+            assertEquals(List.of("login", "subscribe", "hello"), receive(servers.take(), 3));
+
+            client.reconnect();
+            client.write("again");
+            assertEquals(List.of("login", "subscribe", "again"), receive(servers.take(), 3));
+            assertEquals(1, threadsCreated.get()); // Still the first writer thread
+        }
+    }
+
+    @Test
+    void testQueuedWritesSurviveAFailedReconnect() throws Exception {
+        try (WebSocketClient client = client()) {
+            client.connect();
+            assertEquals(List.of("login", "subscribe"), receive(servers.take(), 2));
+
+            failNextOpen.set(true);
+            assertThrows(IOException.class, client::reconnect);
+            assertEquals(SocketState.CLOSED, client.getSocketState());
+
+            // Nothing to send them on, so they wait for the next connection
+            assertEquals(WriteStatus.OK, client.write("a"));
+            assertEquals(WriteStatus.OK, client.write("b"));
+            assertEquals(2, client.getPendingWrites());
+
+            client.reconnect();
+            assertEquals(List.of("login", "subscribe", "a", "b"), receive(servers.take(), 4));
+            assertEquals(1, threadsCreated.get());
+        }
+    }
+
+    @Test
+    void testFailedBatchGoesOutOnTheNextConnection() throws Exception {
+        try (WebSocketClient client = client()) {
+            client.connect();
+            assertEquals(List.of("login", "subscribe"), receive(servers.take(), 2));
+
+            failWrites.set(true);
+            assertEquals(WriteStatus.OK, client.write("a"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (failedWrites.get() == 0) {
+                assertTrue(System.nanoTime() < deadline, "The writer never tried to send");
+                Thread.sleep(1);
+            }
+            assertEquals(WriteStatus.OK, client.write("b"));
+            Thread.sleep(20); // Nothing more is tried on the dead connection
+            assertEquals(1, failedWrites.get());
+            assertEquals(2, client.getPendingWrites());
+
+            failWrites.set(false);
+            client.reconnect();
+            assertEquals(List.of("login", "subscribe", "a", "b"), receive(servers.take(), 4));
+        }
+    }
+
+    @Test
+    void testServerHangingUpReconnectsStraightAway() throws Exception {
+        AtomicInteger disconnects = new AtomicInteger();
+        AtomicInteger timeouts = new AtomicInteger();
+        WebSocketListener listener = new WebSocketListener() {
+            @Override
+            public void onDisconnect() {
+                disconnects.incrementAndGet();
+            }
+
+            @Override
+            public void onTimeout() {
+                timeouts.incrementAndGet();
+            }
+        };
+
+        try (WebSocketClient client = client(true, listener)) {
+            client.connect();
+            Transport server = servers.take();
+            assertEquals(List.of("login", "subscribe"), receive(server, 2));
+
+            server.close();
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                // The timeout thread may have us open again before poll(IdleStrategy) looks, so go on the listener
+                while (disconnects.get() == 0) {
+                    client.tryPoll();
+                }
+            });
+
+            // Well inside the 5s timeout, and without pretending it was one
+            Transport next = servers.poll(2, TimeUnit.SECONDS);
+            assertNotNull(next, "Never reconnected");
+            assertEquals(List.of("login", "subscribe"), receive(next, 2));
+            assertEquals(1, disconnects.get());
+            assertEquals(0, timeouts.get());
+
+            next.write(ByteBuffer.wrap(InMemorySocket.serverFrame(0x1, "back".getBytes(StandardCharsets.UTF_8), false)));
+            assertEquals("back", StandardCharsets.UTF_8.decode(client.poll()).toString());
+        }
+    }
+
+    @Test
+    void testServerHangingUpStopsPolling() throws Exception {
+        AtomicInteger disconnects = new AtomicInteger();
+        try (WebSocketClient client = client(false, new WebSocketListener() {
+            @Override
+            public void onDisconnect() {
+                disconnects.incrementAndGet();
+            }
+        })) {
+            client.connect();
+            Transport server = servers.take();
+            assertEquals(List.of("login", "subscribe"), receive(server, 2));
+
+            server.close();
+            // This used to spin forever with the socket still OPEN
+            ByteBuffer payload = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> client.poll(new BackoffIdleStrategy()));
+            assertFalse(payload.hasRemaining());
+            assertEquals(SocketState.CLOSED, client.getSocketState());
+            assertEquals(1, disconnects.get());
+
+            // It's a disconnect rather than a close, so writes wait for the next connection
+            assertEquals(WriteStatus.OK, client.write("a"));
+            client.reconnect();
+            assertEquals(List.of("login", "subscribe", "a"), receive(servers.take(), 3));
+        }
+    }
+
+    @Test
+    void testCloseStopsTheThreads() throws Exception {
+        WebSocketClient client = client();
+        client.connect();
+        client.close();
+        client.connect(); // A fresh start after a close
+        assertEquals(List.of("login", "subscribe"), receive(servers.take(), 2));
+        assertEquals(List.of("login", "subscribe"), receive(servers.take(), 2));
+        assertEquals(2, threadsCreated.get());
+        client.close();
+        assertNull(servers.poll(10, TimeUnit.MILLISECONDS));
+    }
+}
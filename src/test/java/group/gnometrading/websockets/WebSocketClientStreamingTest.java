@@ -0,0 +1,236 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.drafts.Draft;
+import group.gnometrading.websockets.drafts.RFC6455;
+import group.gnometrading.websockets.enums.HandshakeState;
+import group.gnometrading.websockets.enums.Opcode;
+import group.gnometrading.websockets.frames.DataFrame;
+import group.gnometrading.websockets.frames.DataFrame6455;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSocketClientStreamingTest {
+
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+
+    /**
+     * Keeps everything it's handed, and checks the calls come in the right order.
+     */
+    private static class RecordingHandler implements PayloadStreamHandler {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final List<String> events = new ArrayList<>();
+        int chunks, largestChunk;
+
+        @Override
+        public void onStart(Opcode opcode, long payloadLength) {
+            events.add("start " + opcode + " " + payloadLength);
+        }
+
+        @Override
+        public void onChunk(ByteBuffer chunk) {
+            assertEquals("start", events.get(events.size() - 1).split(" ")[0]);
+            largestChunk = Math.max(largestChunk, chunk.remaining());
+            chunks++;
+            while (chunk.hasRemaining()) {
+                payload.write(chunk.get());
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            events.add("end");
+        }
+    }
+
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+
+    private static WebSocketClient connect(byte[] frames, int chunkSize, int threshold, PayloadStreamHandler handler) throws Exception {
+        WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withSocketFactory(InMemorySocket.factory(frames, chunkSize))
+                .withPayloadStreaming(threshold, handler)
+                .build();
+        client.connect();
+        return client;
+    }
+
+    @ParameterizedTest
+    @MethodSource("testStreamingArguments")
+    void testStreaming(int size, boolean masked, int chunkSize) throws Exception {
+        byte[] large = payload(size);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.writeBytes(InMemorySocket.serverFrame(Opcode.BINARY.code, large, masked));
+        frames.writeBytes(InMemorySocket.serverFrame(Opcode.TEXT.code, "after".getBytes(), masked));
+
+        RecordingHandler handler = new RecordingHandler();
+        try (WebSocketClient client = connect(frames.toByteArray(), chunkSize, 1000, handler)) {
+            // The large frame goes to the handler, then poll carries on to the small one
+            ByteBuffer after = client.poll();
+            assertEquals("after", new String(after.array(), after.position(), after.remaining()));
+            assertEquals(List.of("start BINARY " + size, "end"), handler.events);
+            assertArrayEquals(large, handler.payload.toByteArray());
+            assertTrue(handler.largestChunk <= WebSocketClient.RECV_BUF);
+
+            // And again, with the stream starting wherever the last frame left the buffer
+            client.poll();
+            assertEquals(4, handler.events.size());
+            assertEquals(2 * size, handler.payload.size());
+        }
+    }
+
+    private static Stream<Arguments> testStreamingArguments() {
+        return Stream.of(1001, 8000, 40_000, 200_000).flatMap(size -> Stream.of(
+                Arguments.of(size, false, Integer.MAX_VALUE),
+                Arguments.of(size, true, Integer.MAX_VALUE),
+                Arguments.of(size, false, 999),
+                Arguments.of(size, true, 999)
+        ));
+    }
+
+    @Test
+    void testTryPollResumesStream() throws Exception {
+        // A pipe rather than the looping socket, so the test decides when the bytes arrive
+        InMemoryPipe pipe = new InMemoryPipe(1 << 20);
+        Transport server = pipe.getServer();
+        server.write(ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+
+        RecordingHandler handler = new RecordingHandler();
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withTransportFactory(pipe.factory())
+                .withPayloadStreaming(1000, handler)
+                .withInlineWrites(true)
+                .build()) {
+            client.connect();
+
+            byte[] large = payload(50_000);
+            ByteBuffer frame = ByteBuffer.wrap(InMemorySocket.serverFrame(Opcode.BINARY.code, large, true));
+            for (int end : new int[] {1, 5, 3000, 20_000, frame.capacity() - 1}) {
+                server.write(frame.limit(end));
+                assertSame(WebSocketClient.EMPTY, client.tryPoll());
+                assertEquals(handler.events.isEmpty() ? 0 : end - 8, handler.payload.size()); // 8 byte header
+            }
+            assertEquals(List.of("start BINARY 50000"), handler.events);
+
+            server.write(frame.limit(frame.capacity()));
+            server.write(ByteBuffer.wrap(InMemorySocket.serverFrame(Opcode.BINARY.code, new byte[] {42}, false)));
+            assertEquals(42, client.tryPoll().get());
+            assertEquals(List.of("start BINARY 50000", "end"), handler.events);
+            assertArrayEquals(large, handler.payload.toByteArray());
+        }
+    }
+
+    @Test
+    void testTooLargeWithoutStreaming() throws Exception {
+        byte[] frames = InMemorySocket.serverFrame(Opcode.BINARY.code, payload(WebSocketClient.RECV_BUF), false);
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withSocketFactory(InMemorySocket.factory(frames, Integer.MAX_VALUE))
+                .build()) {
+            client.connect();
+            assertThrows(BufferOverflowException.class, client::poll);
+        }
+    }
+
+    /**
+     * A third-party frame which only does the basics, borrowing 6455's framing to do them.
+     */
+    private static class BasicDataFrame implements DataFrame {
+        private final DataFrame6455 delegate = new DataFrame6455();
+
+        @Override
+        public DataFrame wrap(ByteBuffer buffer, int offset, int n) {
+            delegate.wrap(buffer, offset, n);
+            return this;
+        }
+
+        @Override
+        public boolean isIncomplete() {
+            return delegate.isIncomplete();
+        }
+
+        @Override
+        public boolean isFragment() {
+            return delegate.isFragment();
+        }
+
+        @Override
+        public int length() {
+            return delegate.length();
+        }
+
+        @Override
+        public Opcode getOpcode() {
+            return delegate.getOpcode();
+        }
+
+        @Override
+        public ByteBuffer getPayloadData() {
+            return delegate.getPayloadData();
+        }
+
+        @Override
+        public void encode(Opcode opcode, byte[] payload) {
+            delegate.encode(opcode, payload);
+        }
+    }
+
+    private static class BasicDraft extends Draft {
+        private final RFC6455 handshakes = new RFC6455();
+
+        BasicDraft() {
+            super(BasicDataFrame::new);
+        }
+
+        @Override
+        public byte[] createHandshake(HandshakeInput input) {
+            return handshakes.createHandshake(input);
+        }
+
+        @Override
+        public HandshakeState parseHandshake(ByteBuffer buffer) {
+            return handshakes.parseHandshake(buffer);
+        }
+    }
+
+    @Test
+    void testFramesWhichCantStream() throws Exception {
+        WebSocketClient.Builder builder = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withDraft(new BasicDraft())
+                .withSocketFactory(InMemorySocket.factory(
+                        InMemorySocket.serverFrame(Opcode.TEXT.code, "basic".getBytes(), true), Integer.MAX_VALUE));
+
+        // Fine as long as nothing needs streaming
+        try (WebSocketClient client = builder.build()) {
+            client.connect();
+            assertEquals("basic", StandardCharsets.UTF_8.decode(client.poll()).toString());
+            client.write("and back");
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> builder.withPayloadStreaming(0, new RecordingHandler()).build());
+    }
+}
@@ -0,0 +1,112 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.clock.ManualClock;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Streams the client's events out of a live recording. JFR flushes about once a second, so everything waits on
+ * what's been recorded rather than for a fixed time.
+ */
+class WebSocketEventsTest {
+
+    private static final String PREFIX = "group.gnometrading.websockets.";
+    private static final URI URI = java.net.URI.create("ws://events-test:8080"); // Other tests' clients may still be about
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final List<RecordedEvent> events = new CopyOnWriteArrayList<>();
+
+    private List<RecordedEvent> events(String name) {
+        return ours().filter(event -> event.getEventType().getName().equals(PREFIX + name)).collect(Collectors.toList());
+    }
+
+    private Stream<RecordedEvent> ours() {
+        return events.stream().filter(event -> URI.toString().equals(event.getString("uri")));
+    }
+
+    private long framesRead() {
+        return events("Throughput").stream().mapToLong(event -> event.getLong("framesRead")).sum();
+    }
+
+    private void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Never recorded " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testLifecycleSlowFramesAndThroughput() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe();
+        Transport server = pipe.getServer();
+        server.write(ByteBuffer.wrap(HANDSHAKE));
+        ManualClock clock = new ManualClock();
+
+        try (RecordingStream recording = new RecordingStream()) {
+            for (String name : List.of("Connect", "Handshake", "SlowFrame", "Close")) {
+                recording.enable(PREFIX + name);
+            }
+            recording.enable(PREFIX + "Throughput").withPeriod(Duration.ofMillis(10));
+            recording.setReuse(false); // We hang on to them
+            recording.onEvent(events::add);
+            recording.startAsync();
+
+            try (WebSocketClient client = new WebSocketClient.Builder()
+                    .withURI(URI)
+                    .withTransportFactory(pipe.factory())
+                    .withInlineWrites(true)
+                    .withNanoClock(clock)
+                    .withSlowFrameThreshold(1, TimeUnit.MILLISECONDS)
+                    .build()) {
+                client.connect();
+                for (int i = 0; i < 3; i++) {
+                    server.write(ByteBuffer.wrap(InMemorySocket.serverFrame(0x2, new byte[i + 1], false)));
+                }
+
+                client.poll();
+                clock.advance(500, TimeUnit.MICROSECONDS); // Quick enough
+                client.poll();
+                clock.advance(5, TimeUnit.MILLISECONDS); // Too slow
+                client.poll();
+
+                await("the frames read", () -> framesRead() == 3);
+            }
+            await("the close", () -> !events("Close").isEmpty());
+        }
+
+        List<String> names = ours()
+                .map(event -> event.getEventType().getName().substring(PREFIX.length()))
+                .filter(name -> !name.equals("Throughput"))
+                .collect(Collectors.toList());
+        assertEquals(List.of("Handshake", "Connect", "SlowFrame", "Close"), names);
+
+        RecordedEvent connect = events("Connect").get(0);
+        assertTrue(connect.getBoolean("succeeded"));
+
+        RecordedEvent slow = events("SlowFrame").get(0);
+        assertEquals(2, slow.getInt("payloadLength")); // The second frame, which was only finished by the third poll
+        assertEquals("BINARY", slow.getString("opcode"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), slow.getDuration("time").toNanos());
+        assertEquals(3, framesRead());
+    }
+}
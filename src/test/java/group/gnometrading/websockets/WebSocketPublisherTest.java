@@ -0,0 +1,204 @@
+package group.gnometrading.websockets;
+
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The server end of the pipe has the handshake and whatever frames the test wants already written, so the
+ * publisher's reader thread only ever sees what's scripted.
+ */
+class WebSocketPublisherTest {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final InMemoryPipe pipe = new InMemoryPipe();
+    private WebSocketPublisher publisher;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (publisher != null) {
+            publisher.getClient().close();
+        }
+    }
+
+    private WebSocketPublisher publisher(String... messages) throws IOException {
+        pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+        for (String message : messages) {
+            send(message);
+        }
+        publisher = new WebSocketPublisher(new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .withTransportFactory(pipe.factory()), 2);
+        return publisher;
+    }
+
+    private void send(String message) throws IOException {
+        byte[] frame = InMemorySocket.serverFrame(0x1, message.getBytes(StandardCharsets.UTF_8), false);
+        pipe.getServer().write(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Copies each payload out, since it's only good until onNext returns.
+     */
+    private static final class Recorder implements Flow.Subscriber<ByteBuffer> {
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Throwable> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            messages.add(StandardCharsets.UTF_8.decode(item).toString());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+
+        private String next() throws InterruptedException {
+            return messages.poll(5, TimeUnit.SECONDS);
+        }
+
+        private Throwable awaitDone() throws Exception {
+            return done.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testOnlyDeliversWhatsRequested() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher("a", "b", "c", "d", "e").subscribe(recorder);
+
+        recorder.subscription.request(2);
+        assertEquals("a", recorder.next());
+        assertEquals("b", recorder.next());
+        assertNull(recorder.messages.poll(200, TimeUnit.MILLISECONDS)); // The rest stay in the pipe
+
+        // More than the batch size, so it takes a couple of trips round the demand check
+        recorder.subscription.request(3);
+        assertEquals("c", recorder.next());
+        assertEquals("d", recorder.next());
+        assertEquals("e", recorder.next());
+        assertFalse(recorder.done.isDone());
+    }
+
+    @Test
+    void testCancelStopsDelivery() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher("a", "b", "c").subscribe(recorder);
+
+        recorder.subscription.request(1);
+        assertEquals("a", recorder.next());
+        recorder.subscription.cancel();
+        recorder.subscription.request(2);
+
+        assertNull(recorder.messages.poll(200, TimeUnit.MILLISECONDS));
+        assertFalse(recorder.done.isDone()); // Cancelling isn't an error or a completion
+    }
+
+    @Test
+    void testInvalidRequestSignalsError() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher("a").subscribe(recorder);
+
+        recorder.subscription.request(0);
+        assertInstanceOf(IllegalArgumentException.class, recorder.awaitDone());
+        assertTrue(recorder.messages.isEmpty());
+    }
+
+    @Test
+    void testServerCloseCompletes() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher("a");
+        pipe.getServer().write(ByteBuffer.wrap(InMemorySocket.serverFrame(0x8, new byte[0], false)));
+        publisher.subscribe(recorder);
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals("a", recorder.next());
+        assertNull(recorder.awaitDone());
+    }
+
+    @Test
+    void testDroppedSocketSignalsError() throws Exception {
+        Recorder recorder = new Recorder();
+        publisher("a").subscribe(recorder);
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals("a", recorder.next());
+        pipe.getServer().close();
+        assertInstanceOf(EOFException.class, recorder.awaitDone());
+    }
+
+    @Test
+    void testSecondSubscriberIsRejected() throws Exception {
+        publisher("a").subscribe(new Recorder());
+
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+        assertInstanceOf(IllegalStateException.class, second.awaitDone());
+    }
+
+    @Test
+    void testConcurrentSubscribersOnlyOneWins() throws Exception {
+        publisher("a");
+        Recorder[] recorders = new Recorder[8];
+        CyclicBarrier barrier = new CyclicBarrier(recorders.length);
+        Thread[] threads = new Thread[recorders.length];
+        for (int i = 0; i < recorders.length; i++) {
+            Recorder recorder = recorders[i] = new Recorder();
+            threads[i] = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                publisher.subscribe(recorder);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Recorder winner = null;
+        for (Recorder recorder : recorders) {
+            if (recorder.done.isDone()) {
+                assertInstanceOf(IllegalStateException.class, recorder.awaitDone());
+            } else {
+                assertNull(winner, "More than one subscriber was accepted");
+                winner = recorder;
+            }
+        }
+        assertNotNull(winner);
+        winner.subscription.request(1);
+        assertEquals("a", winner.next());
+    }
+}
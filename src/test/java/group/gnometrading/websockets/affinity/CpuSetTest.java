@@ -0,0 +1,71 @@
+package group.gnometrading.websockets.affinity;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class CpuSetTest {
+
+    @ParameterizedTest
+    @MethodSource("testParseArguments")
+    void testParse(String input, String expected, int size) {
+        CpuSet cpus = CpuSet.parse(input);
+        assertEquals(expected, cpus.toString());
+        assertEquals(size, cpus.size());
+        assertEquals(cpus, CpuSet.parse(expected));
+    }
+
+    private static Stream<Arguments> testParseArguments() {
+        return Stream.of(
+                Arguments.of("0", "0", 1),
+                Arguments.of(" 2-3 ", "2-3", 2),
+                Arguments.of("0-3,6,8-9", "0-3,6,8-9", 7),
+                Arguments.of("1,2,3,5", "1-3,5", 4),
+                Arguments.of("4-4", "4", 1)
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "a", "3-1", "1-", ","})
+    void testParseInvalid(String input) {
+        assertThrows(IllegalArgumentException.class, () -> CpuSet.parse(input));
+    }
+
+    @Test
+    void testOf() {
+        CpuSet cpus = CpuSet.of(7, 1, 2);
+        assertEquals("1-2,7", cpus.toString());
+        assertTrue(cpus.contains(7));
+        assertFalse(cpus.contains(3));
+        assertThrows(IllegalArgumentException.class, CpuSet::of);
+        assertThrows(IllegalArgumentException.class, () -> CpuSet.of(-1));
+    }
+
+    @Test
+    void testPinThread() throws Exception {
+        assumeTrue(LinuxAffinity.isSupported());
+        CpuSet allowed = LinuxAffinity.getCurrentThreadAffinity();
+        CpuSet first = CpuSet.parse(allowed.toString().split("[,-]")[0]);
+
+        // Pin a thread of our own rather than the test runner's
+        AtomicReference<CpuSet> pinned = new AtomicReference<>();
+        Thread thread = new AffinityThreadFactory(first, Thread::new).newThread(() -> {
+            try {
+                pinned.set(LinuxAffinity.getCurrentThreadAffinity());
+            } catch (Exception ignored) {}
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(first, pinned.get());
+        assertEquals(allowed, LinuxAffinity.getCurrentThreadAffinity());
+    }
+}
@@ -0,0 +1,205 @@
+package group.gnometrading.websockets.codec.json;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static group.gnometrading.websockets.codec.json.JsonToken.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonScannerTest {
+
+    private static final String BOOK_UPDATE = "{\"e\":\"depthUpdate\",\"E\":1672515782136,\"s\":\"BNBBTC\"," +
+            "\"meta\":{\"skip\":[1,{\"a\":[]},\"x\"],\"seq\":42}," +
+            "\"b\":[[\"0.0024\",\"10\"],[\"0.0023\",\"1.5\"]],\"a\":[[\"0.0026\",\"100\"]]}";
+
+    private static ByteBuffer payload(String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTokens() {
+        JsonScanner scanner = new JsonScanner().wrap(payload(" { \"a\" : [1, -2.5e3, true, false, null, \"s\\\"q\"], \"b\": {} } "));
+        List<JsonToken> tokens = new ArrayList<>();
+        JsonToken token;
+        while ((token = scanner.next()) != END) {
+            tokens.add(token);
+        }
+
+        assertEquals(List.of(START_OBJECT, FIELD_NAME, START_ARRAY, NUMBER, NUMBER, TRUE, FALSE, NULL, STRING,
+                END_ARRAY, FIELD_NAME, START_OBJECT, END_OBJECT, END_OBJECT), tokens);
+        assertEquals(0, scanner.depth());
+    }
+
+    @Test
+    void testEscapedString() {
+        JsonScanner scanner = new JsonScanner().wrap(payload("[\"s\\\"q\", \"plain\"]"));
+        scanner.next();
+        assertEquals(STRING, scanner.next());
+        assertTrue(scanner.tokenHasEscapes());
+        assertEquals(4, scanner.tokenLength());
+        assertEquals(STRING, scanner.next());
+        assertFalse(scanner.tokenHasEscapes());
+        assertTrue(scanner.tokenEquals("plain"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFindArguments")
+    void testFind(String path, JsonToken expectedToken, String expectedText) {
+        ByteBuffer payload = payload(BOOK_UPDATE);
+        JsonScanner scanner = new JsonScanner().wrap(payload);
+        if (expectedToken == null) {
+            assertFalse(scanner.find(JsonPath.compile(path)));
+            return;
+        }
+
+        assertTrue(scanner.find(JsonPath.compile(path)));
+        assertEquals(expectedToken, scanner.token());
+        if (expectedText != null) {
+            assertTrue(scanner.tokenEquals(expectedText));
+        }
+        assertEquals(0, payload.position());
+    }
+
+    private static Stream<Arguments> testFindArguments() {
+        return Stream.of(
+                Arguments.of("e", STRING, "depthUpdate"),
+                Arguments.of("E", NUMBER, "1672515782136"),
+                Arguments.of("meta.seq", NUMBER, "42"),
+                Arguments.of("b", START_ARRAY, null),
+                Arguments.of("a", START_ARRAY, null),
+                Arguments.of("missing", null, null),
+                Arguments.of("meta.missing", null, null),
+                Arguments.of("e.nested", null, null)
+        );
+    }
+
+    @Test
+    void testRewindAndIterateLevels() {
+        JsonScanner scanner = new JsonScanner().wrap(payload(BOOK_UPDATE));
+        assertTrue(scanner.find(JsonPath.compile("meta.seq")));
+        assertEquals(42, scanner.parseLong());
+
+        assertTrue(scanner.rewind().find(JsonPath.compile("b")));
+        long[] prices = new long[2];
+        long[] sizes = new long[2];
+        int levels = 0;
+        while (scanner.next() == START_ARRAY) {
+            scanner.next();
+            prices[levels] = scanner.parseDecimal(4);
+            scanner.next();
+            sizes[levels] = scanner.parseDecimal(2);
+            scanner.next();
+            levels++;
+        }
+
+        assertEquals(2, levels);
+        assertArrayEquals(new long[] {24, 23}, prices);
+        assertArrayEquals(new long[] {1000, 150}, sizes);
+    }
+
+    @Test
+    void testFindField() {
+        JsonScanner scanner = new JsonScanner().wrap(payload("[{\"p\":1,\"q\":2},{\"q\":3}]"));
+        assertEquals(START_ARRAY, scanner.next());
+        assertEquals(START_OBJECT, scanner.next());
+        assertTrue(scanner.findField("q".getBytes()));
+        assertEquals(2, scanner.parseLong());
+        assertFalse(scanner.findField("p".getBytes()));
+        assertEquals(START_OBJECT, scanner.next());
+        assertTrue(scanner.findField("q".getBytes()));
+        assertEquals(3, scanner.parseLong());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testParseDecimalArguments")
+    void testParseDecimal(String number, int scale, long expected) {
+        JsonScanner scanner = new JsonScanner().wrap(payload(number));
+        scanner.next();
+        assertEquals(expected, scanner.parseDecimal(scale));
+    }
+
+    private static Stream<Arguments> testParseDecimalArguments() {
+        return Stream.of(
+                Arguments.of("0", 2, 0),
+                Arguments.of("123", 0, 123),
+                Arguments.of("123", 3, 123000),
+                Arguments.of("1.5", 2, 150),
+                Arguments.of("-1.5", 2, -150),
+                Arguments.of("\"0.00012345\"", 8, 12345),
+                Arguments.of("0.123456789", 4, 1234),
+                Arguments.of("1.5e2", 0, 150),
+                Arguments.of("15E-1", 1, 15),
+                Arguments.of("1e-30", 8, 0),
+                // More significant digits than a long holds, past the scale
+                Arguments.of("650000.12345678901234", 8, 65000012345678L),
+                Arguments.of("\"0.000000000000000000012\"", 8, 0),
+                Arguments.of("0.12345678901234567890123", 18, 123456789012345678L),
+                Arguments.of("1.23456789012345678901234e2", 4, 1234567)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("testParseDoubleArguments")
+    void testParseDouble(String number) {
+        JsonScanner scanner = new JsonScanner().wrap(payload(number));
+        scanner.next();
+        assertEquals(Double.parseDouble(number), scanner.parseDouble());
+    }
+
+    private static Stream<Arguments> testParseDoubleArguments() {
+        return Stream.of(
+                Arguments.of("0"),
+                Arguments.of("-0.0"),
+                Arguments.of("1.1"),
+                Arguments.of("0.1"),
+                Arguments.of("26123.45"),
+                Arguments.of("-0.00012345"),
+                Arguments.of("1.7976931348623157E308"),
+                Arguments.of("3.141592653589793238"),
+                Arguments.of("2.5e-3"),
+                Arguments.of("1e-40")
+        );
+    }
+
+    @Test
+    void testParseLong() {
+        JsonScanner scanner = new JsonScanner().wrap(payload("[1672515782136, -7, \"99\", 3.9]"));
+        scanner.next();
+        scanner.next();
+        assertEquals(1672515782136L, scanner.parseLong());
+        scanner.next();
+        assertEquals(-7, scanner.parseLong());
+        scanner.next();
+        assertEquals(99, scanner.parseLong());
+        scanner.next();
+        assertEquals(3, scanner.parseLong());
+    }
+
+    @Test
+    void testWrapUsesRemainingBytes() {
+        ByteBuffer payload = payload("xxx{\"a\":1}yyy");
+        payload.position(3).limit(10);
+        JsonScanner scanner = new JsonScanner().wrap(payload);
+        assertTrue(scanner.find(JsonPath.compile("a")));
+        assertEquals(1, scanner.parseLong());
+        assertEquals(END_OBJECT, scanner.next());
+        assertEquals(END, scanner.next());
+    }
+
+    @Test
+    void testTooDeep() {
+        JsonScanner scanner = new JsonScanner().wrap(payload("[".repeat(JsonScanner.MAX_DEPTH + 1)));
+        for (int i = 0; i < JsonScanner.MAX_DEPTH; i++) {
+            scanner.next();
+        }
+        assertThrows(IllegalStateException.class, scanner::next);
+    }
+}
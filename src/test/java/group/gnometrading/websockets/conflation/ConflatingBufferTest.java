@@ -0,0 +1,167 @@
+package group.gnometrading.websockets.conflation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConflatingBufferTest {
+
+    // Payloads are the key, then a sequence number repeated to fill the rest
+    private static final KeyExtractor FIRST_LONG = payload -> payload.getLong(payload.position());
+
+    private static ByteBuffer payload(long key, long sequence, int longs) {
+        ByteBuffer buffer = ByteBuffer.allocate(longs * Long.BYTES);
+        buffer.putLong(key);
+        while (buffer.hasRemaining()) {
+            buffer.putLong(sequence);
+        }
+        return buffer.flip();
+    }
+
+    private static List<long[]> drain(ConflatingBuffer buffer, int limit) {
+        List<long[]> out = new ArrayList<>();
+        buffer.drain((key, payload) -> out.add(new long[] {key, payload.getLong(Long.BYTES)}), limit);
+        return out;
+    }
+
+    @Test
+    void testConflatesUnreadUpdates() {
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, 4, 32);
+        assertTrue(buffer.offer(payload(1, 1, 2)));
+        assertTrue(buffer.offer(payload(2, 1, 2)));
+        assertTrue(buffer.offer(payload(1, 2, 2)));
+        assertTrue(buffer.offer(payload(1, 3, 2)));
+        assertEquals(2, buffer.size());
+
+        List<long[]> drained = drain(buffer, 10);
+        // Key 1 keeps its place in line but only its newest payload survives
+        assertArrayEquals(new long[] {1, 3}, drained.get(0));
+        assertArrayEquals(new long[] {2, 1}, drained.get(1));
+        assertEquals(2, drained.size());
+
+        assertEquals(4, buffer.getOffered());
+        assertEquals(2, buffer.getConflated());
+        assertEquals(2, buffer.getDelivered());
+        assertEquals(0, buffer.size());
+        assertTrue(drain(buffer, 10).isEmpty());
+    }
+
+    @Test
+    void testUpdateAfterDrainIsDeliveredAgain() {
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, 4, 32);
+        buffer.offer(payload(7, 1, 2));
+        assertEquals(1, drain(buffer, 10).size());
+
+        buffer.offer(payload(7, 2, 2));
+        List<long[]> drained = drain(buffer, 10);
+        assertArrayEquals(new long[] {7, 2}, drained.get(0));
+        assertEquals(0, buffer.getConflated());
+    }
+
+    @Test
+    void testDrainLimit() {
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, 4, 32);
+        for (int key = 0; key < 4; key++) {
+            buffer.offer(payload(key, 0, 2));
+        }
+        assertEquals(3, drain(buffer, 3).size());
+        assertEquals(1, buffer.size());
+        assertArrayEquals(new long[] {3, 0}, drain(buffer, 3).get(0));
+    }
+
+    @Test
+    void testPayloadPositionUntouched() {
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, 1, 32);
+        ByteBuffer payload = payload(1, 1, 3);
+        buffer.offer(payload);
+        assertEquals(0, payload.position());
+        assertEquals(24, payload.limit());
+
+        buffer.drain((key, copy) -> assertEquals(24, copy.remaining()), 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"noKey", "tooLarge", "tooManyKeys"})
+    void testRejected(String reason) {
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, 2, 16);
+        buffer.offer(payload(1, 0, 2));
+        buffer.offer(payload(2, 0, 2));
+
+        ByteBuffer payload = switch (reason) {
+            case "noKey" -> payload(KeyExtractor.NO_KEY, 0, 2);
+            case "tooLarge" -> payload(1, 0, 3);
+            default -> payload(3, 0, 2);
+        };
+        assertFalse(buffer.offer(payload));
+        assertEquals(1, buffer.getRejected());
+        assertEquals(2, buffer.keys());
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    void testInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new ConflatingBuffer(FIRST_LONG, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new ConflatingBuffer(FIRST_LONG, 16, 0));
+    }
+
+    @Test
+    void testConcurrentReadsAreWholeAndInOrder() throws Exception {
+        int keys = 8;
+        int longs = 64; // Big enough that a torn copy would show
+        long updates = 200_000;
+        ConflatingBuffer buffer = new ConflatingBuffer(FIRST_LONG, keys, longs * Long.BYTES);
+
+        Thread producer = new Thread(() -> {
+            ByteBuffer[] payloads = new ByteBuffer[keys];
+            for (int key = 0; key < keys; key++) {
+                payloads[key] = ByteBuffer.allocate(longs * Long.BYTES);
+            }
+            for (long sequence = 1; sequence <= updates; sequence++) {
+                int key = (int) (sequence % keys);
+                ByteBuffer payload = payloads[key].clear();
+                payload.putLong(key);
+                while (payload.hasRemaining()) {
+                    payload.putLong(sequence);
+                }
+                buffer.offer(payload.flip());
+            }
+        });
+
+        long[] lastSeen = new long[keys];
+        AtomicReference<String> failure = new AtomicReference<>();
+        ConflatedHandler check = (key, payload) -> {
+            long sequence = payload.getLong(Long.BYTES);
+            for (int i = 2; i < longs; i++) {
+                if (payload.getLong(i * Long.BYTES) != sequence) {
+                    failure.compareAndSet(null, "Torn payload for key " + key);
+                }
+            }
+            if (sequence <= lastSeen[(int) key]) {
+                failure.compareAndSet(null, "Key " + key + " went backwards from " + lastSeen[(int) key] + " to " + sequence);
+            }
+            lastSeen[(int) key] = sequence;
+        };
+
+        producer.start();
+        while (producer.isAlive()) {
+            if (buffer.drain(check, 4) == 0) {
+                Thread.yield();
+            }
+        }
+        buffer.drain(check, keys);
+
+        assertNull(failure.get());
+        // Whatever was skipped, every key ends on its newest value
+        for (int key = 0; key < keys; key++) {
+            assertEquals(updates - (updates - key) % keys, lastSeen[key]);
+        }
+        assertEquals(updates, buffer.getDelivered() + buffer.getConflated());
+    }
+}
@@ -0,0 +1,120 @@
+package group.gnometrading.websockets.filter;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameFilterTest {
+
+    private static ByteBuffer text(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'{\"e\":\"heartbeat\"}', true",
+            "'{\"e\":\"trade\",\"x\":\"heartbeat\"}', false", // Past the window
+            "'{\"e\":\"heart', false",
+            "'heartbeat', true",
+            "'', false",
+    })
+    void testContains(String payload, boolean matches) {
+        assertEquals(matches, BytePattern.contains("heartbeat", 16).matches(text(payload)));
+    }
+
+    @Test
+    void testContainsFindsRepeatsAndOverlaps() {
+        BytePattern pattern = BytePattern.contains("abab", 64);
+        assertTrue(pattern.matches(text("aabaabababx")));
+        assertFalse(pattern.matches(text("abaabaab")));
+    }
+
+    @Test
+    void testPrefixAndOffset() {
+        assertTrue(BytePattern.prefix("{\"result\"").matches(text("{\"result\":null,\"id\":1}")));
+        assertFalse(BytePattern.prefix("{\"result\"").matches(text("{\"resul")));
+        assertTrue(BytePattern.at(2, new byte[] {7, 8}).matches(ByteBuffer.wrap(new byte[] {0, 0, 7, 8, 0})));
+        assertFalse(BytePattern.at(3, new byte[] {7, 8}).matches(ByteBuffer.wrap(new byte[] {0, 0, 7, 8})));
+    }
+
+    @Test
+    void testMatchesFromPosition() {
+        ByteBuffer payload = text("xxheartbeat");
+        payload.position(2);
+        assertTrue(BytePattern.prefix("heart").matches(payload));
+        assertEquals(2, payload.position());
+    }
+
+    @Test
+    void testRules() {
+        FrameFilter filter = new FrameFilter.Builder()
+                .withRule("heartbeat", BytePattern.contains("heartbeat", 32))
+                .withRule("status", BytePattern.prefix("{\"status\""), BytePattern.contains("\"ok\"", 32))
+                .build();
+
+        assertTrue(filter.drop(text("{\"type\":\"heartbeat\"}")));
+        assertTrue(filter.drop(text("{\"status\":\"ok\"}")));
+        assertFalse(filter.drop(text("{\"status\":\"halted\"}"))); // Only one of the two patterns
+        assertFalse(filter.drop(text("{\"type\":\"trade\"}")));
+
+        assertEquals(1, filter.getHits("heartbeat"));
+        assertEquals(1, filter.getHits("status"));
+        assertEquals(2, filter.getPassed());
+        assertThrows(IllegalArgumentException.class, () -> filter.getHits("missing"));
+    }
+
+    @Test
+    void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> BytePattern.prefix(""));
+        assertThrows(IllegalArgumentException.class, () -> BytePattern.contains("heartbeat", 4));
+        assertThrows(IllegalArgumentException.class, () -> new FrameFilter.Builder().build());
+        assertThrows(IllegalArgumentException.class, () -> new FrameFilter.Builder()
+                .withRule("a", BytePattern.prefix("a"))
+                .withRule("a", BytePattern.prefix("b")));
+    }
+
+    @Test
+    void testDroppedInsidePoll() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe(1 << 16);
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        server.writeBytes(("HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        // Lots of heartbeats in a row, all in the read buffer at once
+        for (int i = 0; i < 1000; i++) {
+            String payload = i % 500 == 499 ? "{\"e\":\"trade\",\"i\":" + i + "}" : "{\"e\":\"heartbeat\"}";
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            server.write(0x81);
+            server.write(bytes.length);
+            server.writeBytes(bytes);
+        }
+        pipe.getServer().write(ByteBuffer.wrap(server.toByteArray()));
+
+        FrameFilter filter = new FrameFilter.Builder()
+                .withRule("heartbeat", BytePattern.contains("heartbeat", 16))
+                .build();
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .withTransportFactory(pipe.factory())
+                .withInlineWrites(true)
+                .withFrameFilter(filter)
+                .build()) {
+            client.connect();
+            assertEquals("{\"e\":\"trade\",\"i\":499}", StandardCharsets.UTF_8.decode(client.poll()).toString());
+            assertEquals("{\"e\":\"trade\",\"i\":999}", StandardCharsets.UTF_8.decode(client.poll()).toString());
+            assertEquals(0, client.tryPoll().remaining());
+        }
+        assertEquals(998, filter.getHits("heartbeat"));
+        assertEquals(2, filter.getPassed());
+    }
+}
@@ -0,0 +1,41 @@
+package group.gnometrading.websockets.frames;
+
+import group.gnometrading.websockets.enums.Opcode;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataFrame6455Test {
+
+    // The masked "Hello" from RFC 6455 5.7
+    private static final byte[] MASKED_HELLO = {
+            (byte) 0x81, (byte) 0x85, 0x37, (byte) 0xfa, 0x21, 0x3d, 0x7f, (byte) 0x9f, 0x4d, 0x51, 0x58
+    };
+
+    @Test
+    void testUnmasksInKeyOctetOrder() {
+        DataFrame6455 frame = new DataFrame6455();
+        frame.wrap(ByteBuffer.wrap(MASKED_HELLO.clone()), 0, MASKED_HELLO.length);
+
+        assertFalse(frame.isIncomplete());
+        assertEquals(Opcode.TEXT, frame.getOpcode());
+        assertEquals("Hello", StandardCharsets.UTF_8.decode(frame.getPayloadData()).toString());
+    }
+
+    @Test
+    void testUnmasksAPieceAtATime() {
+        ByteBuffer buffer = ByteBuffer.wrap(MASKED_HELLO.clone());
+        DataFrame6455 frame = new DataFrame6455();
+        frame.wrap(buffer, 0, MASKED_HELLO.length);
+        int key = frame.getMaskingKey();
+        int start = frame.headerLength();
+
+        // Pieces which don't line up with the key, so the offset into it has to carry over
+        frame.unmask(buffer, start, 3, key, 0);
+        frame.unmask(buffer, start + 3, 2, key, 3);
+        assertEquals("Hello", new String(buffer.array(), start, 5, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,103 @@
+package group.gnometrading.websockets.idle;
+
+import group.gnometrading.websockets.WebSocketClient;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Park lengths only have a floor (the scheduler can always be late), so the timings here only ever check
+ * that something took at least as long as it should, or came back well before a park it shouldn't have done.
+ */
+class IdleStrategyTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static long timed(Runnable idle) {
+        long start = System.nanoTime();
+        idle.run();
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    void testBackoffSpinsAndYieldsBeforeParking() {
+        BackoffIdleStrategy strategy = new BackoffIdleStrategy(10, 10, TimeUnit.SECONDS.toNanos(30), TimeUnit.SECONDS.toNanos(30));
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // A park would eat the permit, and then the last idle below would sit there for 30s
+            LockSupport.unpark(Thread.currentThread());
+            for (int i = 0; i < 20; i++) {
+                strategy.idle();
+            }
+            strategy.idle();
+        });
+    }
+
+    @Test
+    void testBackoffParksLongerEachTimeUpToTheMax() {
+        BackoffIdleStrategy strategy = new BackoffIdleStrategy(0, 0, MILLI, 64 * MILLI);
+        LockSupport.parkNanos(1); // Clear out any permit left lying around
+
+        long[] expected = {1, 2, 4, 8, 16, 32, 64, 64};
+        for (long millis : expected) {
+            long nanos = timed(strategy::idle);
+            assertTrue(nanos >= millis * MILLI, "Parked " + nanos + "ns, expected " + millis + "ms");
+        }
+
+        // Back to the shortest park, well clear of the 64ms it was up to
+        strategy.reset();
+        long nanos = timed(strategy::idle);
+        assertTrue(nanos >= MILLI);
+        assertTrue(nanos < 32 * MILLI, "Parked " + nanos + "ns after a reset");
+    }
+
+    @Test
+    void testBackoffWakeCutsAParkShort() throws Exception {
+        assertWakes(new BackoffIdleStrategy(0, 0, TimeUnit.SECONDS.toNanos(30), TimeUnit.SECONDS.toNanos(30)));
+    }
+
+    @Test
+    void testBlockingIsWoken() throws Exception {
+        assertWakes(new BlockingIdleStrategy());
+    }
+
+    @Test
+    void testBlockingWokenBeforeItParksReturnsStraightAway() {
+        BlockingIdleStrategy strategy = new BlockingIdleStrategy();
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            strategy.wake(Thread.currentThread());
+            strategy.idle();
+        });
+    }
+
+    @Test
+    void testBlockingIsRejectedForPolling() {
+        WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> client.poll(new BlockingIdleStrategy()));
+    }
+
+    private static void assertWakes(IdleStrategy strategy) throws Exception {
+        CountDownLatch idling = new CountDownLatch(1);
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            LockSupport.parkNanos(1);
+            idling.countDown();
+            strategy.idle();
+            woken.countDown();
+        }, "idler");
+        thread.setDaemon(true);
+        thread.start();
+
+        assertTrue(idling.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50); // Most likely parked by now, though waking it first has to work too
+        strategy.wake(thread);
+        assertTrue(woken.await(5, TimeUnit.SECONDS), "Never woke up");
+    }
+}
@@ -0,0 +1,156 @@
+package group.gnometrading.websockets.ipc;
+
+import group.gnometrading.websockets.enums.Opcode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedMemoryRingTest {
+
+    @TempDir
+    Path directory;
+
+    // Payloads are a sequence number repeated `longs` times
+    private static ByteBuffer payload(long value, int longs) {
+        ByteBuffer buffer = ByteBuffer.allocate(longs * Long.BYTES);
+        while (buffer.hasRemaining()) {
+            buffer.putLong(value);
+        }
+        return buffer.flip();
+    }
+
+    private static List<long[]> poll(SharedMemorySubscriber subscriber, int limit) {
+        List<long[]> out = new ArrayList<>();
+        subscriber.poll((sequence, opcode, payload) -> out.add(new long[] {sequence, payload.getLong(0), payload.remaining(), opcode.code}), limit);
+        return out;
+    }
+
+    @Test
+    void testPublishAndPoll() throws Exception {
+        Path path = directory.resolve("ring");
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1024);
+             SharedMemorySubscriber subscriber = new SharedMemorySubscriber(path)) {
+            assertEquals(0, publisher.publish(Opcode.TEXT, payload(7, 1)));
+            assertEquals(1, publisher.publish(Opcode.BINARY, payload(8, 3)));
+
+            List<long[]> received = poll(subscriber, 10);
+            assertArrayEquals(new long[] {0, 7, 8, Opcode.TEXT.code}, received.get(0));
+            assertArrayEquals(new long[] {1, 8, 24, Opcode.BINARY.code}, received.get(1));
+            assertEquals(2, received.size());
+            assertTrue(poll(subscriber, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void testLateSubscribersStartAtTheEnd() throws Exception {
+        Path path = directory.resolve("ring");
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1024)) {
+            publisher.publish(Opcode.BINARY, payload(1, 1));
+            try (SharedMemorySubscriber subscriber = new SharedMemorySubscriber(path)) {
+                publisher.publish(Opcode.BINARY, payload(2, 1));
+                List<long[]> received = poll(subscriber, 10);
+                assertEquals(1, received.size());
+                assertEquals(2, received.get(0)[1]);
+            }
+        }
+    }
+
+    @Test
+    void testWrapsAround() throws Exception {
+        Path path = directory.resolve("ring");
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1024);
+             SharedMemorySubscriber subscriber = new SharedMemorySubscriber(path)) {
+            // 16 byte header + 40 byte payload = 56 bytes, which doesn't divide 1024, so records have to skip the end
+            for (long i = 0; i < 100; i++) {
+                publisher.publish(Opcode.BINARY, payload(i, 5));
+                List<long[]> received = poll(subscriber, 10);
+                assertEquals(1, received.size());
+                assertEquals(i, received.get(0)[0]);
+                assertEquals(i, received.get(0)[1]);
+            }
+            assertEquals(0, subscriber.getLapped());
+        }
+    }
+
+    @Test
+    void testLappedSubscriberSkipsToTheNewest() throws Exception {
+        Path path = directory.resolve("ring");
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1024);
+             SharedMemorySubscriber subscriber = new SharedMemorySubscriber(path)) {
+            for (long i = 0; i < 100; i++) {
+                publisher.publish(Opcode.BINARY, payload(i, 5));
+            }
+            List<long[]> received = poll(subscriber, 10);
+            assertEquals(1, subscriber.getLapped());
+            assertEquals(1, received.size());
+            assertEquals(99, received.get(0)[0]);
+        }
+    }
+
+    @Test
+    void testInvalid() throws Exception {
+        Path path = directory.resolve("ring");
+        assertThrows(IllegalArgumentException.class, () -> new SharedMemoryPublisher(path, 1000));
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1024)) {
+            assertEquals(112, publisher.getMaxPayloadLength());
+            assertThrows(IllegalArgumentException.class, () -> publisher.publish(Opcode.BINARY, ByteBuffer.allocate(113)));
+        }
+
+        Path junk = directory.resolve("junk");
+        Files.write(junk, new byte[512]);
+        assertThrows(IllegalStateException.class, () -> new SharedMemorySubscriber(junk));
+    }
+
+    @Test
+    void testConcurrentReadsAreWholeAndInOrder() throws Exception {
+        Path path = directory.resolve("ring");
+        int longs = 32; // Big enough that a torn copy would show
+        long messages = 500_000;
+        try (SharedMemoryPublisher publisher = new SharedMemoryPublisher(path, 1 << 12);
+             SharedMemorySubscriber subscriber = new SharedMemorySubscriber(path)) {
+            Thread producer = new Thread(() -> {
+                ByteBuffer payload = ByteBuffer.allocate(longs * Long.BYTES);
+                for (long sequence = 0; sequence < messages; sequence++) {
+                    payload.clear();
+                    while (payload.hasRemaining()) {
+                        payload.putLong(sequence);
+                    }
+                    publisher.publish(Opcode.BINARY, payload.flip());
+                }
+            });
+
+            long[] last = {-1};
+            AtomicReference<String> failure = new AtomicReference<>();
+            SharedMemoryHandler check = (sequence, opcode, payload) -> {
+                for (int i = 0; i < longs; i++) {
+                    if (payload.getLong(i * Long.BYTES) != sequence) {
+                        failure.compareAndSet(null, "Torn payload for " + sequence);
+                    }
+                }
+                if (sequence <= last[0]) {
+                    failure.compareAndSet(null, "Went backwards from " + last[0] + " to " + sequence);
+                }
+                last[0] = sequence;
+            };
+
+            producer.start();
+            while (producer.isAlive()) {
+                if (subscriber.poll(check, 16) == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+            subscriber.poll(check, Integer.MAX_VALUE);
+
+            assertNull(failure.get());
+            assertEquals(messages - 1, last[0]); // Whatever was skipped, we end on the newest
+        }
+    }
+}
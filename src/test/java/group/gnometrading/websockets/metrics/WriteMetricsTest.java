@@ -0,0 +1,112 @@
+package group.gnometrading.websockets.metrics;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteMetricsTest {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testWritesFromSeveralThreadsAllCount() throws Exception {
+        WriteMetrics metrics = new WriteMetrics();
+        int threads = 4, writes = 100_000;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int frames = i + 1;
+            writers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < writes; j++) {
+                    metrics.recordWrite(frames, 10);
+                }
+            });
+            writers[i].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals((long) threads * writes, metrics.getWriteCalls());
+        assertEquals((long) (1 + 2 + 3 + 4) * writes, metrics.getFramesWritten());
+        assertEquals(10L * threads * writes, metrics.getBytesWritten());
+        assertEquals(4, metrics.getLargestBatch());
+    }
+
+    @Test
+    void testQueuedFramesGoOutInOneWrite() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe();
+        pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+        List<Integer> writes = new CopyOnWriteArrayList<>();
+        Transport client = pipe.getClient();
+        Transport counting = new Transport() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return client.read(dst);
+            }
+
+            @Override
+            public int readNow(ByteBuffer dst) throws IOException {
+                return client.readNow(dst);
+            }
+
+            @Override
+            public void write(ByteBuffer src) throws IOException {
+                writes.add(src.remaining());
+                client.write(src);
+            }
+
+            @Override
+            public void close() throws IOException {
+                client.close();
+            }
+        };
+
+        try (WebSocketClient webSocketClient = new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .withTransportFactory(uri -> counting)
+                .withMaxWriteBatch(16)
+                .build()) {
+            // Queued before there's a connection, so they're all waiting when the writer first looks
+            for (int i = 0; i < 5; i++) {
+                webSocketClient.write("message " + i);
+            }
+            webSocketClient.connect();
+
+            WriteMetrics metrics = webSocketClient.getWriteMetrics();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.getFramesWritten() < 5) {
+                assertTrue(System.nanoTime() < deadline, "Never written");
+                Thread.sleep(1);
+            }
+
+            assertEquals(1, metrics.getWriteCalls());
+            assertEquals(5, metrics.getLargestBatch());
+            assertEquals(5.0, metrics.getFramesPerWrite());
+            // The handshake, then every frame in one go: 6 bytes of header and 9 of payload each
+            assertEquals(List.of(writes.get(0), 5 * 15), writes);
+            assertEquals(5 * 15, metrics.getBytesWritten());
+        }
+    }
+}
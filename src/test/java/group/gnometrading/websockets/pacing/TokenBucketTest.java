@@ -0,0 +1,78 @@
+package group.gnometrading.websockets.pacing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testBurstThenRefill() {
+        TokenBucket bucket = new TokenBucket(10, 1, TimeUnit.SECONDS, 3); // A token every 100ms
+        long now = 5 * SECOND;
+        assertEquals(3, bucket.available(now));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+        assertEquals(0, bucket.available(now));
+        assertEquals(SECOND / 10, bucket.delayNanos(now));
+
+        now += SECOND / 20;
+        assertFalse(bucket.tryAcquire(now));
+        assertEquals(SECOND / 20, bucket.delayNanos(now));
+
+        now += SECOND / 20;
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+
+        // Idle for ages only refills up to the burst
+        now += 60 * SECOND;
+        assertEquals(3, bucket.available(now));
+        assertEquals(0, bucket.delayNanos(now));
+    }
+
+    @Test
+    void testRelease() {
+        TokenBucket bucket = new TokenBucket(1, 1, TimeUnit.SECONDS, 1);
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        bucket.release();
+        assertTrue(bucket.tryAcquire(0));
+    }
+
+    @Test
+    void testSharedBetweenThreads() throws Exception {
+        // Nothing refills while time stands still, so exactly the burst gets through however the CASes land
+        TokenBucket bucket = new TokenBucket(1, 1, TimeUnit.HOURS, 10_000);
+        AtomicLong acquired = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int attempt = 0; attempt < 5_000; attempt++) {
+                    if (bucket.tryAcquire(SECOND)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10_000, acquired.get());
+    }
+}
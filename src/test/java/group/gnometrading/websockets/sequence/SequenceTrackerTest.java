@@ -0,0 +1,199 @@
+package group.gnometrading.websockets.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceTrackerTest {
+
+    // Payloads are the stream then the sequence number, or a single -1 for unsequenced ones
+    private static final SequenceExtractor EXTRACTOR = new SequenceExtractor() {
+        @Override
+        public long sequence(ByteBuffer payload) {
+            return payload.remaining() < 16 ? NO_SEQUENCE : payload.getLong(payload.position() + 8);
+        }
+
+        @Override
+        public long stream(ByteBuffer payload) {
+            return payload.getLong(payload.position());
+        }
+    };
+
+    private final List<long[]> delivered = new ArrayList<>();
+    private final List<long[]> gaps = new ArrayList<>();
+    private final List<long[]> recoveries = new ArrayList<>();
+    private final SequencedHandler handler = (stream, sequence, payload) -> {
+        // Check what we're handed is the payload, not just the numbers
+        if (sequence != SequenceExtractor.NO_SEQUENCE) {
+            assertEquals(stream, payload.getLong(payload.position()));
+            assertEquals(sequence, payload.getLong(payload.position() + 8));
+        }
+        delivered.add(new long[] {stream, sequence});
+    };
+
+    private SequenceTracker tracker(int window) {
+        return new SequenceTracker.Builder()
+                .withExtractor(EXTRACTOR)
+                .withGapListener(new GapListener() {
+                    @Override
+                    public void onGap(long stream, long from, long to) {
+                        gaps.add(new long[] {stream, from, to});
+                    }
+
+                    @Override
+                    public void onRecovered(long stream, long sequence) {
+                        recoveries.add(new long[] {stream, sequence});
+                    }
+                })
+                .withReorderWindow(window, 32)
+                .build();
+    }
+
+    private static ByteBuffer payload(long stream, long sequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        buffer.position(8); // Somewhere other than 0, like poll() hands out
+        return buffer.putLong(stream).putLong(sequence).flip().position(8);
+    }
+
+    private List<Long> sequences() {
+        List<Long> out = new ArrayList<>();
+        delivered.forEach(message -> out.add(message[1]));
+        return out;
+    }
+
+    @Test
+    void testInOrderAndDuplicates() {
+        SequenceTracker tracker = tracker(8);
+        assertEquals(1, tracker.offer(payload(1, 100), handler));
+        assertEquals(1, tracker.offer(payload(1, 101), handler));
+        assertEquals(0, tracker.offer(payload(1, 101), handler));
+        assertEquals(0, tracker.offer(payload(1, 50), handler));
+        assertEquals(1, tracker.offer(ByteBuffer.allocate(8).putLong(0, -1), handler)); // Heartbeat, straight through
+
+        assertEquals(List.of(100L, 101L, SequenceExtractor.NO_SEQUENCE), sequences());
+        assertEquals(2, tracker.getDuplicates());
+        assertEquals(102, tracker.getExpected(1));
+        assertTrue(gaps.isEmpty());
+    }
+
+    @Test
+    void testGapFilledInStream() {
+        SequenceTracker tracker = tracker(8);
+        tracker.offer(payload(1, 1), handler);
+        tracker.offer(payload(1, 4), handler);
+        tracker.offer(payload(1, 5), handler);
+        assertArrayEquals(new long[] {1, 2, 3}, gaps.get(0));
+        assertEquals(1, gaps.size()); // Not again for 5
+        assertTrue(tracker.isGapped(1));
+        assertEquals(2, tracker.getBuffered(1));
+
+        // 2 moves the gap on to just 3, then 3 releases everything
+        assertEquals(1, tracker.offer(payload(1, 2), handler));
+        assertArrayEquals(new long[] {1, 3, 3}, gaps.get(1));
+        assertEquals(3, tracker.offer(payload(1, 3), handler));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences());
+        assertArrayEquals(new long[] {1, 5}, recoveries.get(0));
+        assertFalse(tracker.isGapped(1));
+        assertEquals(0, tracker.getBuffered(1));
+    }
+
+    @Test
+    void testRecoverFromSnapshot() {
+        SequenceTracker tracker = tracker(8);
+        tracker.offer(payload(7, 10), handler);
+        for (long sequence = 14; sequence <= 17; sequence++) {
+            tracker.offer(payload(7, sequence), handler);
+        }
+        assertArrayEquals(new long[] {7, 11, 13}, gaps.get(0));
+
+        // The snapshot covers up to 15, so 14 and 15 are stale and 16 on are handed over
+        assertEquals(2, tracker.recover(7, 15, handler));
+        assertEquals(List.of(10L, 16L, 17L), sequences());
+        assertEquals(2, tracker.getDuplicates());
+        assertArrayEquals(new long[] {7, 17}, recoveries.get(0));
+        assertEquals(18, tracker.getExpected(7));
+    }
+
+    @Test
+    void testStreamsAreIndependent() {
+        SequenceTracker tracker = tracker(8);
+        tracker.offer(payload(1, 1), handler);
+        tracker.offer(payload(2, 1), handler);
+        tracker.offer(payload(1, 3), handler);
+        tracker.offer(payload(2, 2), handler);
+
+        assertEquals(List.of(1L, 1L, 2L), sequences());
+        assertTrue(tracker.isGapped(1));
+        assertFalse(tracker.isGapped(2));
+        assertEquals(2, tracker.streams());
+    }
+
+    @Test
+    void testOverflowLeavesAGap() {
+        SequenceTracker tracker = tracker(4);
+        tracker.offer(payload(1, 1), handler);
+        tracker.offer(payload(1, 3), handler);
+        tracker.offer(payload(1, 9), handler); // Too far ahead to hold
+        assertEquals(1, tracker.getOverflowed());
+
+        tracker.offer(payload(1, 2), handler);
+        assertEquals(List.of(1L, 2L, 3L), sequences());
+        assertEquals(1, recoveries.size());
+
+        // 9 never got through, so 10 opens a new gap from 4
+        tracker.offer(payload(1, 10), handler);
+        assertArrayEquals(new long[] {1, 4, 9}, gaps.get(gaps.size() - 1));
+    }
+
+    /**
+     * Same as WebSocketClientAllocationTest: warm up until the JIT's settled, then the best of a few rounds has to be
+     * zero. A real regression allocates every round, a one-off (a deopt, a late compile) doesn't.
+     */
+    @Test
+    void testNoAllocations() {
+        SequenceTracker tracker = new SequenceTracker.Builder()
+                .withExtractor(EXTRACTOR)
+                .withReorderWindow(64, 32)
+                .build();
+        ByteBuffer[] payloads = new ByteBuffer[64];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = payload(1, i);
+        }
+        SequencedHandler ignore = (stream, sequence, payload) -> {};
+        // Every other round arrives backwards, so it's all held and released at the end
+        int round = 0;
+        for (; round < 5_000; round++) {
+            run(tracker, payloads, ignore, round);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long best = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 5 && best > 0; attempt++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int end = round + 1_000; round < end; round++) {
+                run(tracker, payloads, ignore, round);
+            }
+            best = Math.min(best, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        assertEquals(0, best);
+        assertEquals((long) round * 64, tracker.getDelivered());
+        assertEquals(round / 2, tracker.getGaps());
+    }
+
+    private static void run(SequenceTracker tracker, ByteBuffer[] payloads, SequencedHandler handler, int round) {
+        long base = (long) round * payloads.length;
+        for (int i = 0; i < payloads.length; i++) {
+            int index = round % 2 == 0 ? i : payloads.length - 1 - i;
+            payloads[index].putLong(16, base + index);
+        }
+        for (int i = 0; i < payloads.length; i++) {
+            tracker.offer(payloads[round % 2 == 0 ? i : payloads.length - 1 - i], handler);
+        }
+    }
+}
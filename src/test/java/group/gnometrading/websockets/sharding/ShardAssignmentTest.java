@@ -0,0 +1,120 @@
+package group.gnometrading.websockets.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardAssignmentTest {
+
+    // Key n lives on shard n % numShards
+    private static final Partitioner<Integer> MODULO = (key, numShards) -> key % numShards;
+
+    private final Map<Integer, List<Integer>> subscribed = new HashMap<>();
+    private final Map<Integer, List<Integer>> unsubscribed = new HashMap<>();
+
+    private void rebalance(ShardAssignment<Integer> assignment) {
+        subscribed.clear();
+        unsubscribed.clear();
+        assignment.rebalance((shard, subscribe, unsubscribe) -> {
+            subscribed.put(shard, new ArrayList<>(subscribe));
+            unsubscribed.put(shard, new ArrayList<>(unsubscribe));
+        });
+    }
+
+    private static ShardAssignment<Integer> assignment(int numShards, int numKeys) {
+        ShardAssignment<Integer> assignment = new ShardAssignment<>(MODULO, numShards);
+        for (int key = 0; key < numKeys; key++) {
+            assignment.add(key);
+        }
+        return assignment;
+    }
+
+    @Test
+    void testNothingSentWhileDown() {
+        ShardAssignment<Integer> assignment = assignment(3, 6);
+        rebalance(assignment);
+        assertTrue(subscribed.isEmpty());
+        assertEquals(-1, assignment.shardOf(0));
+    }
+
+    @Test
+    void testShardsComingUp() {
+        ShardAssignment<Integer> assignment = assignment(3, 6);
+        assignment.up(0);
+        rebalance(assignment);
+        // Everything lands on the only shard which is up
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), subscribed.get(0));
+
+        assignment.up(1);
+        rebalance(assignment);
+        // Shard 2 is still down, so 5 is partitioned across shards 0 and 1
+        assertEquals(List.of(1, 4, 5), subscribed.get(1));
+        assertEquals(List.of(1, 4, 5), unsubscribed.get(0));
+
+        assignment.up(2);
+        rebalance(assignment);
+        assertEquals(List.of(2, 5), subscribed.get(2));
+        assertEquals(List.of(2), unsubscribed.get(0));
+        assertEquals(List.of(5), unsubscribed.get(1));
+        assertEquals(Set.of(0, 3), assignment.subscriptions(0));
+    }
+
+    @Test
+    void testShardDownAndReconnect() {
+        ShardAssignment<Integer> assignment = assignment(3, 9);
+        for (int shard = 0; shard < 3; shard++) {
+            assignment.up(shard);
+        }
+        rebalance(assignment);
+
+        assignment.down(1);
+        rebalance(assignment);
+        assertFalse(subscribed.containsKey(1));
+        // Keys on healthy shards don't move, only shard 1's keys get spread over shards 0 and 2
+        List<Integer> moved = new ArrayList<>(subscribed.get(0));
+        moved.addAll(subscribed.get(2));
+        moved.sort(null);
+        assertEquals(List.of(1, 4, 7), moved);
+        assertTrue(unsubscribed.get(0).isEmpty());
+        assertTrue(unsubscribed.get(2).isEmpty());
+        for (int key : new int[] {0, 3, 6}) assertEquals(0, assignment.shardOf(key));
+        for (int key : new int[] {2, 5, 8}) assertEquals(2, assignment.shardOf(key));
+
+        // Reconnecting resends everything to shard 1 and takes its keys back
+        assignment.up(1);
+        rebalance(assignment);
+        assertEquals(List.of(1, 4, 7), subscribed.get(1));
+        List<Integer> returned = new ArrayList<>();
+        unsubscribed.forEach((shard, keys) -> returned.addAll(keys));
+        returned.sort(null);
+        assertEquals(List.of(1, 4, 7), returned);
+    }
+
+    @Test
+    void testAddAndRemove() {
+        ShardAssignment<Integer> assignment = assignment(2, 0);
+        assignment.up(0);
+        assignment.up(1);
+        assertTrue(assignment.add(3));
+        assertFalse(assignment.add(3));
+        rebalance(assignment);
+        assertEquals(List.of(3), subscribed.get(1));
+
+        assertTrue(assignment.remove(3));
+        rebalance(assignment);
+        assertEquals(List.of(3), unsubscribed.get(1));
+        assertTrue(assignment.subscriptions(1).isEmpty());
+    }
+
+    @Test
+    void testBadPartitioner() {
+        ShardAssignment<Integer> assignment = new ShardAssignment<>((key, numShards) -> numShards, 2);
+        assertThrows(IllegalStateException.class, () -> assignment.shardOf(1));
+    }
+}
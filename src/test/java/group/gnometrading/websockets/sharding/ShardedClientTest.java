@@ -0,0 +1,216 @@
+package group.gnometrading.websockets.sharding;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.transport.InMemoryPipe;
+import group.gnometrading.websockets.transport.Transport;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two shards, each connection a fresh pipe with the handshake already answered. Keys 0 and 2 live on shard 0,
+ * 1 and 3 on shard 1.
+ */
+class ShardedClientTest {
+
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @SuppressWarnings("unchecked")
+    private final BlockingQueue<Transport>[] servers = new BlockingQueue[] {new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>()};
+    private final AtomicBoolean shardZeroDown = new AtomicBoolean();
+    private final AtomicBoolean shardZeroWritesFail = new AtomicBoolean();
+    private final AtomicInteger failedWrites = new AtomicInteger();
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    private ShardedClient<Integer> sharded(boolean blockingPoll) {
+        return new ShardedClient.Builder<Integer>()
+                .withShards(2)
+                .withClientBuilder(shard -> new WebSocketClient.Builder()
+                        .withURI(URI.create("ws://localhost:8080"))
+                        .withTransportFactory(uri -> {
+                            if (shard == 0 && shardZeroDown.get()) {
+                                throw new IOException("Venue's down");
+                            }
+                            InMemoryPipe pipe = new InMemoryPipe();
+                            pipe.getServer().write(ByteBuffer.wrap(HANDSHAKE));
+                            servers[shard].add(pipe.getServer());
+                            return shard == 0 ? new FlakyTransport(pipe.getClient()) : pipe.getClient();
+                        }))
+                .withPartitioner((key, numShards) -> key % numShards)
+                .withSubscriptions(List.of(0, 1, 2, 3))
+                .withSubscriptionProtocol((client, keys) -> client.write("subscribe " + keys))
+                .withHandler((shard, payload) -> received.add(shard + ":" + StandardCharsets.UTF_8.decode(payload)))
+                .withReconnectBackoffMillis(10)
+                .withBlockingPoll(blockingPoll)
+                .build();
+    }
+
+    /**
+     * Fails every write while shardZeroWritesFail is set, like a connection which has silently gone bad.
+     */
+    private class FlakyTransport implements Transport {
+        private final Transport delegate;
+
+        private FlakyTransport(Transport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public int readNow(ByteBuffer dst) throws IOException {
+            return delegate.readNow(dst);
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            if (shardZeroWritesFail.get()) {
+                failedWrites.incrementAndGet();
+                throw new IOException("Broken pipe");
+            }
+            delegate.write(src);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * The text of the next frame the client sent, skipping over the upgrade request. Null if nothing turns up.
+     */
+    private static String receive(Transport server, ByteArrayOutputStream pending, long timeoutMillis) throws Exception {
+        ByteBuffer chunk = ByteBuffer.allocate(1024);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            byte[] bytes = pending.toByteArray();
+            int start = 0;
+            String request = new String(bytes, StandardCharsets.US_ASCII);
+            if (request.startsWith("GET ")) {
+                start = request.indexOf("\r\n\r\n") < 0 ? bytes.length : request.indexOf("\r\n\r\n") + 4;
+            }
+            // Client frames are short and masked: 2 header bytes, 4 of key, then the payload
+            if (bytes.length - start >= 6 && bytes.length - start >= 6 + (bytes[start + 1] & 0x7F)) {
+                int length = bytes[start + 1] & 0x7F;
+                byte[] payload = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    payload[i] = (byte) (bytes[start + 6 + i] ^ bytes[start + 2 + i % 4]);
+                }
+                pending.reset();
+                pending.write(bytes, start + 6 + length, bytes.length - start - 6 - length);
+                return new String(payload, StandardCharsets.UTF_8);
+            }
+
+            if (System.nanoTime() > deadline) {
+                return null;
+            }
+            chunk.clear();
+            int read = server.readNow(chunk);
+            if (read > 0) {
+                pending.write(chunk.array(), 0, read);
+            } else {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static void send(Transport server, String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(2 + payload.length);
+        frame.put((byte) 0x81).put((byte) payload.length).put(payload).flip();
+        server.write(frame);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, message);
+            Thread.sleep(1);
+        }
+    }
+
+    private Transport nextServer(int shard) throws InterruptedException {
+        Transport server = servers[shard].poll(5, TimeUnit.SECONDS);
+        assertNotNull(server, "Shard " + shard + " never connected");
+        return server;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testKeysMoveWhenTheServerHangsUp(boolean blockingPoll) throws Exception {
+        try (ShardedClient<Integer> sharded = sharded(blockingPoll)) {
+            sharded.start();
+            Transport zero = nextServer(0);
+            Transport one = nextServer(1);
+            await(() -> sharded.getShardOf(0) == 0 && sharded.getShardOf(1) == 1, "Shards never came up");
+
+            send(zero, "a");
+            assertEquals("0:a", received.poll(5, TimeUnit.SECONDS) + "");
+            send(one, "b");
+            assertEquals("1:b", received.poll(5, TimeUnit.SECONDS) + "");
+
+            // No close frame, the server just goes away (and stays away for a bit)
+            shardZeroDown.set(true);
+            zero.close();
+            await(() -> sharded.getShardOf(0) == 1 && sharded.getShardOf(2) == 1, "Keys never moved off shard 0");
+
+            shardZeroDown.set(false);
+            Transport again = nextServer(0);
+            await(() -> sharded.getShardOf(0) == 0 && sharded.getShardOf(2) == 0, "Keys never moved back");
+            assertTrue(sharded.getMetrics(0).getReconnects() > 0);
+
+            send(again, "c");
+            assertEquals("0:c", received.poll(5, TimeUnit.SECONDS) + "");
+            assertTrue(received.isEmpty()); // Nothing empty handed over for the hang up
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testPendingSubscribeIsNotSentAgainAfterReconnecting(boolean blockingPoll) throws Exception {
+        try (ShardedClient<Integer> sharded = sharded(blockingPoll)) {
+            sharded.start();
+            Transport zero = nextServer(0);
+            nextServer(1);
+            await(() -> sharded.getShardOf(0) == 0 && sharded.getShardOf(1) == 1, "Shards never came up");
+            // Whatever it took to get there (shard 0 may have had every key for a moment)
+            ByteArrayOutputStream startUp = new ByteArrayOutputStream();
+            assertNotNull(receive(zero, startUp, 5_000));
+            while (receive(zero, startUp, 200) != null);
+
+            // The subscribe can't get out, so the writer's still holding it when the server hangs up
+            shardZeroWritesFail.set(true);
+            assertTrue(sharded.subscribe(4));
+            await(() -> failedWrites.get() > 0, "Never tried to write the subscribe");
+            shardZeroWritesFail.set(false);
+            zero.close();
+
+            Transport again = nextServer(0);
+            await(() -> sharded.getShardOf(4) == 0, "Keys never moved back");
+            ByteArrayOutputStream pending = new ByteArrayOutputStream();
+            assertEquals("subscribe [0, 2, 4]", receive(again, pending, 5_000));
+            assertNull(receive(again, pending, 200)); // Not the stale "subscribe [4]" as well
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package group.gnometrading.websockets.tls;
+
+import group.gnometrading.websockets.WebSocketClient;
+import group.gnometrading.websockets.idle.BackoffIdleStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A real TLS server on loopback, with a certificate keytool makes for the run (so there's no key checked in to
+ * expire). It answers the upgrade and then the test writes frames down each accepted socket by hand.
+ */
+class SSLEngineSocketTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static KeyStore keyStore;
+    private static SSLContext serverContext;
+
+    private SSLServerSocket server;
+    private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+
+    @BeforeAll
+    static void createCertificate(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("localhost.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localhost", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", file.toString(), "-storepass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(keytool.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, keytool.waitFor(), output);
+
+        keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(file)) {
+            keyStore.load(in, PASSWORD);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+    }
+
+    /**
+     * A context per test, since JSSE keeps its client session cache on the context.
+     */
+    private static TlsSessionCache sessionCache() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return new TlsSessionCache(context);
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    return;
+                }
+
+                try {
+                    readRequest(socket.getInputStream());
+                    socket.getOutputStream().write(HANDSHAKE);
+                    accepted.add(socket);
+                } catch (IOException e) {
+                    closeQuietly(socket); // A test which only wanted the TLS handshake
+                }
+            }
+        }, "tls-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+        Socket socket;
+        while ((socket = accepted.poll()) != null) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Client went away before the upgrade");
+            }
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private WebSocketClient client(TlsSessionCache sessionCache) {
+        return new WebSocketClient.Builder()
+                .withURI(URI.create("wss://localhost:" + server.getLocalPort()))
+                .withSocketFactory(new SSLEngineSocketFactory(sessionCache))
+                .build();
+    }
+
+    private Socket nextAccepted() throws InterruptedException {
+        Socket socket = accepted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(socket, "Server never saw the upgrade");
+        return socket;
+    }
+
+    private static byte[] frame(byte[] payload) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x82);
+        if (payload.length > 125) {
+            frame.write(126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length & 0xFF);
+        } else {
+            frame.write(payload.length);
+        }
+        frame.writeBytes(payload);
+        return frame.toByteArray();
+    }
+
+    private static byte[] frame(String payload) {
+        return frame(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    @Test
+    void testNonBlockingPollsOverTls() throws Exception {
+        try (WebSocketClient client = client(sessionCache())) {
+            client.connect();
+            Socket socket = nextAccepted();
+            assertFalse(client.tryPoll().hasRemaining()); // Nothing's been sent yet
+
+            // These used to spin forever: available() never read from the channel
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                socket.getOutputStream().write(frame("tryPoll"));
+                ByteBuffer payload;
+                while (!(payload = client.tryPoll()).hasRemaining()) {
+                    Thread.onSpinWait();
+                }
+                assertEquals("tryPoll", text(payload));
+
+                socket.getOutputStream().write(frame("idle"));
+                assertEquals("idle", text(client.poll(new BackoffIdleStrategy())));
+            });
+        }
+    }
+
+    @Test
+    void testRecordsLargerThanTheReadBufferAreStaged() throws Exception {
+        // Three frames in one write go out as a single record, too big to decrypt into the client's 8kb buffer
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            byte[] payload = new byte[3_000];
+            java.util.Arrays.fill(payload, (byte) i);
+            frames.writeBytes(frame(payload));
+        }
+
+        try (WebSocketClient client = client(sessionCache())) {
+            client.connect();
+            nextAccepted().getOutputStream().write(frames.toByteArray());
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer payload = i == 1 ? client.poll(new BackoffIdleStrategy()) : client.poll();
+                assertEquals(3_000, payload.remaining());
+                assertEquals(i, payload.get(payload.position()));
+                assertEquals(i, payload.get(payload.limit() - 1));
+            }
+        }
+    }
+
+    @Test
+    void testSessionIsResumedOnReconnect() throws Exception {
+        TlsSessionCache cache = sessionCache();
+        for (int i = 0; i < 2; i++) {
+            try (WebSocketClient client = client(cache)) {
+                client.connect();
+                // Reading something means the server's session ticket has been picked up too
+                nextAccepted().getOutputStream().write(frame("hello"));
+                assertEquals("hello", text(client.poll()));
+            }
+        }
+
+        assertEquals(1, cache.getFullHandshakes());
+        assertEquals(1, cache.getResumedHandshakes());
+        assertTrue(cache.wasLastHandshakeResumed("localhost", server.getLocalPort()));
+    }
+
+    @Test
+    void testEndOfStreamIsSeenWithoutBlocking() throws Exception {
+        SSLEngineSocketFactory factory = new SSLEngineSocketFactory(sessionCache());
+        try (Socket socket = factory.createSocket("localhost", server.getLocalPort())) {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            byte[] response = in.readNBytes(HANDSHAKE.length);
+            assertArrayEquals(HANDSHAKE, response);
+
+            nextAccepted().close();
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                while (in.available() == 0) {
+                    Thread.onSpinWait();
+                }
+            });
+            assertEquals(-1, in.read(response));
+        }
+    }
+
+    @Test
+    void testCloseDoesNotWaitOnAStalledWriter() throws Exception {
+        SSLEngineSocketFactory factory = new SSLEngineSocketFactory(sessionCache());
+        Socket socket = factory.createSocket("localhost", server.getLocalPort());
+        socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        nextAccepted(); // And never read from again
+
+        AtomicLong written = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            byte[] chunk = new byte[16 * 1024];
+            try {
+                while (true) {
+                    socket.getOutputStream().write(chunk);
+                    written.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "stalled-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Once both ends' buffers are full the writer sits in select, holding the write lock
+        long last = -1;
+        while (last != written.get()) {
+            last = written.get();
+            Thread.sleep(200);
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), socket::close);
+        writer.join(5_000);
+        assertFalse(writer.isAlive());
+        assertInstanceOf(IOException.class, failure.get()); // Not a ClosedSelectorException
+    }
+
+    @Test
+    void testAddressIsNeverReverseLookedUp() throws Exception {
+        TlsSessionCache cache = sessionCache();
+        SSLEngineSocketFactory factory = new SSLEngineSocketFactory(cache);
+        InetAddress literal = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        try (Socket ignored = factory.createSocket(literal, server.getLocalPort())) {
+            // The certificate's good for the IP, and that's what the session's filed under
+            assertTrue(cache.getLastHandshakeNanos("127.0.0.1", server.getLocalPort()) > 0);
+            assertEquals(-1, cache.getLastHandshakeNanos("localhost", server.getLocalPort()));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package group.gnometrading.websockets.transport;
+
+import group.gnometrading.websockets.WebSocketClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a client against a scripted server on the other end of each transport: the server answers the handshake,
+ * sends a frame, and hands back the first frame the client sends.
+ */
+class TransportTest {
+
+    private static final URI URI = java.net.URI.create("ws://localhost:8080");
+    private static final byte[] HANDSHAKE = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: unused\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @return the unmasked payload of the first frame the client sends
+     */
+    private static String serve(Transport server) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (!request.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\n")) {
+            server.read(one.clear());
+            request.write(one.get(0));
+        }
+
+        server.write(ByteBuffer.wrap(HANDSHAKE));
+        byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(2 + hello.length).put((byte) 0x82).put((byte) hello.length).put(hello);
+        server.write(frame.flip());
+
+        // Short masked frame: 2 header bytes, 4 mask bytes, then the payload
+        ByteBuffer header = ByteBuffer.allocate(6);
+        while (header.hasRemaining()) {
+            server.read(header);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(header.get(1) & 0x7F);
+        while (payload.hasRemaining()) {
+            server.read(payload);
+        }
+        for (int i = 0; i < payload.capacity(); i++) {
+            payload.put(i, (byte) (payload.get(i) ^ header.get(2 + i % 4)));
+        }
+        return new String(payload.array(), StandardCharsets.UTF_8);
+    }
+
+    private static void roundTrip(TransportFactory factory, CompletableFuture<String> received) throws Exception {
+        try (WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI)
+                .withTransportFactory(factory)
+                .withInlineWrites(true)
+                .build()) {
+            client.connect();
+            assertEquals("hello", StandardCharsets.UTF_8.decode(client.poll()).toString());
+            client.write("world");
+            assertEquals("world", received.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testInMemoryPipe() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe(16); // Smaller than the handshake, so both sides have to wait on each other
+        CompletableFuture<String> received = CompletableFuture.supplyAsync(() -> {
+            try {
+                return serve(pipe.getServer());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        roundTrip(pipe.factory(), received);
+    }
+
+    @Test
+    void testInMemoryPipeClose() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe();
+        pipe.getServer().write(ByteBuffer.wrap(new byte[] {1, 2}));
+        pipe.getServer().close();
+
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        assertEquals(2, pipe.getClient().readNow(buffer)); // What was sent before the close still arrives
+        assertEquals(-1, pipe.getClient().read(buffer));
+        assertThrows(IOException.class, () -> pipe.getClient().write(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void testUnixDomainSocket(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("proxy.sock");
+        try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(path));
+            CompletableFuture<String> received = CompletableFuture.supplyAsync(() -> {
+                try (Transport server = new ChannelTransport(listener.accept())) {
+                    return serve(server);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            roundTrip(ChannelTransport.unixDomain(path), received);
+        }
+    }
+
+    @Test
+    void testChannelTransportCloseDuringBlockedRead(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("quiet.sock");
+        try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(path));
+            Transport client = ChannelTransport.unixDomain(path).open(URI);
+            try (SocketChannel ignored = listener.accept()) { // Never says anything
+                CompletableFuture<Throwable> failure = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        client.read(ByteBuffer.allocate(16));
+                        return null;
+                    } catch (Throwable t) {
+                        return t;
+                    }
+                });
+
+                Thread.sleep(100); // Long enough to be parked in the selector
+                client.close(); // Like the timeout thread reconnecting
+                // An IOException like a socket gives, not the unchecked ClosedSelectorException
+                assertInstanceOf(IOException.class, failure.get(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package group.gnometrading.websockets.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8CharSequenceTest {
+
+    @ParameterizedTest
+    @MethodSource("testDecodeArguments")
+    void testDecode(String input) {
+        ByteBuffer payload = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+        Utf8CharSequence sequence = new Utf8CharSequence(4);
+
+        assertTrue(sequence.decodeStrict(payload));
+        assertEquals(input, sequence.toString());
+        assertTrue(sequence.contentEquals(input));
+        assertEquals(0, payload.position());
+        assertTrue(Utf8CharSequence.isValid(payload));
+    }
+
+    private static Stream<Arguments> testDecodeArguments() {
+        return Stream.of(
+                Arguments.of(""),
+                Arguments.of("a"),
+                Arguments.of("{\"e\":\"depthUpdate\",\"s\":\"BTCUSDT\",\"b\":[[\"0.0024\",\"10\"]]}"),
+                Arguments.of("price €100"),
+                Arguments.of("ascii then ünïcödé then ascii again for the fast path"),
+                Arguments.of("emoji 🚀 needs a surrogate pair"),
+                Arguments.of("日本語")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("testInvalidArguments")
+    void testInvalid(byte[] input) {
+        ByteBuffer payload = ByteBuffer.wrap(input);
+        assertFalse(new Utf8CharSequence().decodeStrict(payload));
+        assertFalse(Utf8CharSequence.isValid(payload));
+    }
+
+    private static Stream<Arguments> testInvalidArguments() {
+        return Stream.of(
+                Arguments.of((Object) new byte[]{(byte) 0x80}), // lone continuation
+                Arguments.of((Object) new byte[]{(byte) 0xC0, (byte) 0xAF}), // overlong '/'
+                Arguments.of((Object) new byte[]{(byte) 0xE0, (byte) 0x80, (byte) 0xAF}), // overlong 3 byte
+                Arguments.of((Object) new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}), // surrogate U+D800
+                Arguments.of((Object) new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}), // > U+10FFFF
+                Arguments.of((Object) new byte[]{'a', 'b', (byte) 0xE2, (byte) 0x82}), // truncated
+                Arguments.of((Object) new byte[]{(byte) 0xFF})
+        );
+    }
+
+    @Test
+    void testLenientDecodeReplacesMalformed() {
+        ByteBuffer payload = ByteBuffer.wrap(new byte[]{'a', (byte) 0xFF, 'b'});
+        assertEquals("a�b", new Utf8CharSequence().decode(payload).toString());
+    }
+
+    @Test
+    void testDecodeRespectsPositionAndLimit() {
+        ByteBuffer payload = ByteBuffer.wrap("xxhello world, this is longer than eight bytesyy".getBytes(StandardCharsets.US_ASCII));
+        payload.position(2).limit(payload.capacity() - 2);
+        assertEquals("hello world, this is longer than eight bytes", new Utf8CharSequence().decode(payload).toString());
+    }
+
+    @Test
+    void testDirectBuffer() {
+        byte[] bytes = "direct ü buffer".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        assertEquals("direct ü buffer", new Utf8CharSequence().decode(payload).toString());
+    }
+}
@@ -0,0 +1,62 @@
+package group.gnometrading.websockets.warmup;
+
+import group.gnometrading.websockets.WebSocketClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmUpTest {
+
+    @Test
+    void testEveryFrameReachesTheHandler() throws Exception {
+        Set<String> seen = new HashSet<>();
+        long[] count = new long[1];
+        WarmUpReport report = new WarmUp.Builder()
+                .withFrames(2_000)
+                .withPayloads("{\"px\":1}".getBytes(StandardCharsets.UTF_8), "x".repeat(300).getBytes(StandardCharsets.UTF_8))
+                .withUtf8Validation(true) // Masked text frames only pass if they unmask back to the sample
+                .withHandler(payload -> {
+                    count[0]++;
+                    seen.add(StandardCharsets.UTF_8.decode(payload).toString());
+                })
+                .build()
+                .run();
+
+        assertEquals(2_000, count[0]);
+        assertEquals(Set.of("{\"px\":1}", "x".repeat(300)), seen);
+        assertEquals(2_000, report.getFrames());
+        assertTrue(report.getElapsedNanos() > 0);
+        assertTrue(report.getLastRoundNanosPerFrame() > 0);
+    }
+
+    @Test
+    void testRunsOnceBeforeConnecting() {
+        WebSocketClient client = new WebSocketClient.Builder()
+                .withURI(URI.create("ws://localhost:8080"))
+                .withTransportFactory(uri -> {
+                    throw new IOException("no server");
+                })
+                .withWarmUp(new WarmUp.Builder().withFrames(1_000).build())
+                .build();
+        assertNull(client.getWarmUpReport());
+        assertThrows(IOException.class, client::connect);
+        WarmUpReport report = client.getWarmUpReport();
+        assertEquals(1_000, report.getFrames());
+
+        assertThrows(IOException.class, client::connect);
+        assertSame(report, client.getWarmUpReport());
+    }
+
+    @Test
+    void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new WarmUp.Builder().withFrames(0));
+        assertThrows(IllegalArgumentException.class, () -> new WarmUp.Builder().withPayloads());
+        assertThrows(IllegalArgumentException.class, () -> new WarmUp.Builder().withPayloads(new byte[WebSocketClient.RECV_BUF]));
+    }
+}